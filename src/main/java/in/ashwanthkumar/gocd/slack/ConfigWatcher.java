@@ -0,0 +1,296 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a callback whenever the configuration file changes, on a daemon thread of its own.
+ * <p>
+ * The directory of the file is watched with a {@link WatchService}, along with the directory the file really
+ * lives in when it is a symlink, as on a Kubernetes ConfigMap mount where an update swaps a symlinked directory.
+ * Any event there only makes the watcher look at the file: it compares the file it resolves to, its size and
+ * modification time to what was loaded last, and waits until the file has been quiet for the debounce time, so a
+ * file still being written or renamed into place isn't loaded half way. The file is also looked at every poll
+ * interval, which is all the watcher does where the file system can't be watched.
+ * <p>
+ * The file can also be a directory, which is watched itself, and changes when any of the files in it changes.
+ */
+public class ConfigWatcher {
+    private static final Logger LOG = Logger.getLoggerFor(ConfigWatcher.class);
+
+    private final File file;
+    private final long debounceMillis;
+    private final long pollIntervalMillis;
+    private final Runnable onChange;
+    private final Thread thread;
+    private volatile boolean fireOnStart = true;
+    private volatile boolean stopped;
+    private volatile WatchService watchService;
+    // the directories being watched, only used by the watcher thread
+    private final Map<Path, WatchKey> watched = new HashMap<>();
+    // the file as it was last loaded, only used by the watcher thread once it started
+    private Fingerprint loaded;
+
+    /**
+     * @param onChange run once when the watcher starts, unless it is started as loaded, and then after every
+     *                 change of the file
+     */
+    public ConfigWatcher(File file, long debounceMillis, long pollIntervalMillis, Runnable onChange) {
+        this.file = file.getAbsoluteFile();
+        this.debounceMillis = debounceMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.onChange = onChange;
+        this.loaded = Fingerprint.of(this.file);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "gocd-slack-config-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    public ConfigWatcher start() {
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Start watching without running the callback, for a file which was loaded after this watcher was created.
+     * A change made in between still runs the callback.
+     */
+    public ConfigWatcher startLoaded() {
+        fireOnStart = false;
+        return start();
+    }
+
+    public void stop() {
+        stopped = true;
+        closeWatchService();
+        thread.interrupt();
+    }
+
+    public boolean isWatching() {
+        return watchService != null;
+    }
+
+    private void watch() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.warn("Unable to watch " + file + ", polling it every " + pollIntervalMillis + "ms instead", e);
+        }
+        try {
+            register();
+            if (fireOnStart) {
+                loaded = Fingerprint.of(file);
+                fire();
+            } else if (!Fingerprint.of(file).equals(loaded)) {
+                settle();
+            }
+            while (!stopped) {
+                if (awaitEvent(pollIntervalMillis) || !Fingerprint.of(file).equals(loaded)) {
+                    settle();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        } finally {
+            closeWatchService();
+        }
+    }
+
+    private void closeWatchService() {
+        WatchService current = watchService;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close the configuration watcher", e);
+            }
+        }
+    }
+
+    /**
+     * Wait for the file to stay the same for the debounce time, then run the callback if it changed.
+     */
+    private void settle() throws InterruptedException {
+        Fingerprint current = Fingerprint.of(file);
+        while (!stopped) {
+            awaitEvent(debounceMillis);
+            Fingerprint settled = Fingerprint.of(file);
+            if (settled.equals(current)) {
+                break;
+            }
+            current = settled;
+        }
+        // an atomic rename or a swapped symlink may have moved the file to another directory
+        register();
+        if (current.exists() && !current.equals(loaded)) {
+            loaded = current;
+            fire();
+        }
+    }
+
+    /**
+     * @return true if something happened in one of the watched directories before the timeout
+     */
+    private boolean awaitEvent(long timeoutMillis) throws InterruptedException {
+        WatchService current = watchService;
+        if (current == null) {
+            Thread.sleep(timeoutMillis);
+            return false;
+        }
+        WatchKey key = current.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (key == null) {
+            return false;
+        }
+        do {
+            key.pollEvents();
+            if (!key.reset()) {
+                watched.values().remove(key);
+            }
+        } while ((key = current.poll()) != null);
+        return true;
+    }
+
+    private void register() {
+        WatchService current = watchService;
+        if (current == null) {
+            return;
+        }
+        Map<Path, WatchKey> stale = new HashMap<>(watched);
+        for (Path directory : directories()) {
+            stale.remove(directory);
+            if (watched.containsKey(directory) || !Files.isDirectory(directory)) {
+                continue;
+            }
+            try {
+                watched.put(directory, directory.register(current,
+                        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+            } catch (IOException | UnsupportedOperationException e) {
+                LOG.warn("Unable to watch " + directory + ", relying on polling " + file, e);
+            }
+        }
+        for (Map.Entry<Path, WatchKey> entry : stale.entrySet()) {
+            entry.getValue().cancel();
+            watched.remove(entry.getKey());
+        }
+    }
+
+    private Set<Path> directories() {
+        Set<Path> directories = new LinkedHashSet<>();
+        Path path = file.toPath();
+        directories.add(path.getParent());
+        try {
+            Path realPath = path.toRealPath();
+            directories.add(realPath.getParent());
+            if (Files.isDirectory(realPath)) {
+                directories.add(path);
+                directories.add(realPath);
+            }
+        } catch (IOException e) {
+            // not there right now, its directory is watched for it to come back
+        }
+        return directories;
+    }
+
+    private void fire() {
+        try {
+            onChange.run();
+        } catch (RuntimeException e) {
+            LOG.error("Unable to apply the configuration from " + file, e);
+        }
+    }
+
+    /**
+     * What the configuration file resolves to, and its size and modification time. For a directory, the same
+     * for each of the files in it.
+     */
+    static class Fingerprint {
+        private static final Fingerprint MISSING = new Fingerprint(null, -1, -1, Collections.<Fingerprint>emptyList());
+
+        private final Path realPath;
+        private final long size;
+        private final long lastModified;
+        private final List<Fingerprint> files;
+
+        Fingerprint(Path realPath, long size, long lastModified, List<Fingerprint> files) {
+            this.realPath = realPath;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.files = files;
+        }
+
+        static Fingerprint of(File file) {
+            return of(file, true);
+        }
+
+        private static Fingerprint of(File file, boolean withFiles) {
+            try {
+                Path real = file.toPath().toRealPath();
+                BasicFileAttributes attributes = Files.readAttributes(real, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                List<Fingerprint> files = Collections.emptyList();
+                if (withFiles && attributes.isDirectory()) {
+                    File[] children = file.listFiles();
+                    files = new ArrayList<>();
+                    if (children != null) {
+                        Arrays.sort(children);
+                        for (File child : children) {
+                            files.add(of(child, false));
+                        }
+                    }
+                }
+                return new Fingerprint(real, attributes.size(), attributes.lastModifiedTime().toMillis(), files);
+            } catch (IOException e) {
+                return MISSING;
+            }
+        }
+
+        boolean exists() {
+            return realPath != null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Fingerprint that = (Fingerprint) o;
+
+            if (size != that.size) return false;
+            if (lastModified != that.lastModified) return false;
+            if (!files.equals(that.files)) return false;
+            return realPath != null ? realPath.equals(that.realPath) : that.realPath == null;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = realPath != null ? realPath.hashCode() : 0;
+            result = 31 * result + (int) (size ^ (size >>> 32));
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            result = 31 * result + files.hashCode();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.dispatch.ThreadMode;
+import in.ashwanthkumar.gocd.slack.dispatch.WebhookRateLimiter;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import in.ashwanthkumar.utils.lang.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up and connects to the webhook hosts and the GoCD API server while the plugin starts, so the first
+ * notifications don't wait for DNS lookups and TLS handshakes. The connections are left open in the keep-alive
+ * cache of the JDK, where the posts to the webhooks and the GoCD API calls pick them up.
+ */
+class ConnectionWarmer {
+    private static final Logger LOG = Logger.getLoggerFor(ConnectionWarmer.class);
+    private static final int MAX_THREADS = 8;
+
+    private ConnectionWarmer() {
+    }
+
+    /**
+     * Connect to all the hosts at once, waiting up to the warm up timeout of the rules.
+     *
+     * @return the number of hosts connected to
+     */
+    static int warmUp(Rules rules) throws InterruptedException {
+        long timeoutMillis = rules.getWarmUpTimeoutMillis();
+        if (timeoutMillis <= 0) {
+            return 0;
+        }
+        final int connectTimeout = (int) Math.min(timeoutMillis, Integer.MAX_VALUE);
+        final PipelineListener listener = rules.getPipelineListener();
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (final String webhookUrl : webhookUrls(rules)) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    // the path of a webhook is a secret, only its host is logged
+                    String host = authority(webhookUrl);
+                    try {
+                        resolve(webhookUrl);
+                        listener.warmUp(webhookUrl, connectTimeout);
+                    } catch (IOException e) {
+                        throw new IOException(host + ": " + e.getMessage(), e);
+                    }
+                    return host;
+                }
+            });
+        }
+        final String apiServerHost = rules.getGoAPIServerHost();
+        if (StringUtils.isNotEmpty(apiServerHost)) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    String host = authority(apiServerHost);
+                    try {
+                        resolve(apiServerHost);
+                        head(apiServerHost, connectTimeout);
+                    } catch (IOException e) {
+                        throw new IOException(host + ": " + e.getMessage(), e);
+                    }
+                    return host;
+                }
+            });
+        }
+        if (tasks.isEmpty()) {
+            return 0;
+        }
+
+        ExecutorService executor = ThreadMode.PLATFORM.newExecutor(Math.min(tasks.size(), MAX_THREADS), "gocd-slack-warm-up");
+        int connected = 0;
+        try {
+            for (Future<String> task : executor.invokeAll(tasks, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                try {
+                    LOG.debug("Connected to " + task.get());
+                    connected++;
+                } catch (ExecutionException e) {
+                    LOG.info("Unable to connect ahead to " + e.getCause().getMessage());
+                } catch (CancellationException e) {
+                    // still connecting when the time was up
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return connected;
+    }
+
+    /**
+     * The webhook of every rule, one per host.
+     */
+    private static Set<String> webhookUrls(Rules rules) {
+        Set<String> hosts = new LinkedHashSet<>();
+        Set<String> webhookUrls = new LinkedHashSet<>();
+        List<String> candidates = new ArrayList<>();
+        candidates.add(rules.getWebHookUrl());
+        for (PipelineRule rule : rules.getPipelineRules()) {
+            candidates.add(rules.destinationFor(rule).getWebhookUrl());
+        }
+        for (String webhookUrl : candidates) {
+            try {
+                if (StringUtils.isNotEmpty(webhookUrl) && hosts.add(authority(webhookUrl))) {
+                    webhookUrls.add(webhookUrl);
+                }
+            } catch (IOException e) {
+                LOG.warn("Not connecting ahead to the invalid webhook " + WebhookRateLimiter.mask(webhookUrl));
+            }
+        }
+        return webhookUrls;
+    }
+
+    private static String authority(String url) throws IOException {
+        URL parsed = new URL(url);
+        int port = parsed.getPort() != -1 ? parsed.getPort() : parsed.getDefaultPort();
+        return parsed.getProtocol() + "://" + parsed.getHost() + ":" + port;
+    }
+
+    private static void resolve(String url) throws IOException {
+        InetAddress.getAllByName(new URL(url).getHost());
+    }
+
+    /**
+     * Ask the GoCD server for the headers of its root the way the GoCD API calls connect to it. The response
+     * doesn't matter, once it is read the connection is kept open.
+     */
+    private static void head(String url, int timeoutMillis) throws IOException {
+        URL root = new URL(new URL(url), "/");
+        HttpURLConnection connection = (HttpURLConnection) root.openConnection();
+        connection.setRequestMethod("HEAD");
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.getResponseCode();
+        InputStream body = connection.getErrorStream();
+        if (body != null) {
+            body.close();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package in.ashwanthkumar.gocd.slack;
 import com.google.gson.annotations.SerializedName;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import in.ashwanthkumar.gocd.slack.jsonapi.*;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 import in.ashwanthkumar.utils.lang.StringUtils;
 
@@ -10,6 +11,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class GoNotificationMessage {
     private Logger LOG = Logger.getLoggerFor(GoNotificationMessage.class);
@@ -85,6 +87,14 @@ public class GoNotificationMessage {
 
     // Internal cache of pipeline history data from GoCD's JSON API.
     private History mRecentPipelineHistory;
+    // Internal cache of the root changes, shared by every rule the message is rendered for.
+    private List<MaterialRevision> mRootChanges;
+    private IOException mRootChangesError;
+    // Held while fetching, rather than a monitor, so a virtual thread waiting on GoCD doesn't pin its carrier.
+    private final transient ReentrantLock mHistoryLock = new ReentrantLock();
+    private final transient ReentrantLock mRootChangesLock = new ReentrantLock();
+    // The stage result parsed once, kept up to date by tryToFixStageResult.
+    private PipelineStatus mStageStatus;
 
     public String goServerUrl(String host) throws URISyntaxException {
         return new URI(String.format("%s/go/pipelines/%s/%s/%s/%s", host, pipeline.name, pipeline.counter, pipeline.stage.name, pipeline.stage.counter)).normalize().toASCIIString();
@@ -122,6 +132,22 @@ public class GoNotificationMessage {
         return pipeline.stage.result;
     }
 
+    /**
+     * @return the stage result as a status, parsed once per message, or null if GoCD sent a result there is
+     * no status for
+     */
+    public PipelineStatus getStageStatus() {
+        if (mStageStatus == null) {
+            mStageStatus = PipelineStatus.fromResult(pipeline.stage.result);
+        }
+        return mStageStatus;
+    }
+
+    private void setStageStatus(PipelineStatus status, String result) {
+        pipeline.stage.result = result;
+        mStageStatus = status;
+    }
+
     public String getCreateTime() {
         return pipeline.stage.createTime;
     }
@@ -136,16 +162,35 @@ public class GoNotificationMessage {
 
     /**
      * Fetch the full history of this pipeline from the server.  We can't
-     * get specify a specific version, unfortunately.
+     * get specify a specific version, unfortunately.  The history is only
+     * fetched once per message, also when several rules are rendered at
+     * the same time, and is taken from the history cache of the rules when
+     * an earlier message of the pipeline fetched one which has this stage.
      */
-    public History fetchRecentPipelineHistory(Rules rules)
+    public History fetchRecentPipelineHistory(final Rules rules)
         throws URISyntaxException, IOException
     {
-        if (mRecentPipelineHistory == null) {
-            Server server = serverFactory.getServer(rules);
-            mRecentPipelineHistory = server.getPipelineHistory(pipeline.name);
+        mHistoryLock.lock();
+        try {
+            if (mRecentPipelineHistory == null) {
+                PipelineHistoryCache.Loader loader = new PipelineHistoryCache.Loader() {
+                    @Override
+                    public History load() throws IOException {
+                        return serverFactory.getServer(rules).getPipelineHistory(pipeline.name);
+                    }
+                };
+                PipelineHistoryCache cache = rules.getHistoryCache();
+                if (cache == null || pipeline.stage == null) {
+                    mRecentPipelineHistory = loader.load();
+                } else {
+                    mRecentPipelineHistory = cache.get(rules.getGoAPIServerHost() + " " + pipeline.name,
+                            Integer.parseInt(pipeline.counter), pipeline.stage.name, Integer.parseInt(pipeline.stage.counter), loader);
+                }
+            }
+            return mRecentPipelineHistory;
+        } finally {
+            mHistoryLock.unlock();
         }
-        return mRecentPipelineHistory;
     }
 
     public Pipeline fetchDetailsForBuild(Rules rules, int counter)
@@ -167,15 +212,15 @@ public class GoNotificationMessage {
 
     public void tryToFixStageResult(Rules rules)
     {
-        String currentStatus = pipeline.stage.state.toUpperCase();
-        String currentResult = pipeline.stage.result.toUpperCase();
-        if (currentStatus.equals("BUILDING") && currentResult.equals("UNKNOWN")) {
-            pipeline.stage.result = "Building";
+        String currentStatus = pipeline.stage.state;
+        String currentResult = pipeline.stage.result;
+        if (currentStatus.equalsIgnoreCase("BUILDING") && currentResult.equalsIgnoreCase("UNKNOWN")) {
+            setStageStatus(PipelineStatus.BUILDING, "Building");
             return;
         }
         // We only need to double-check certain messages; the rest are
         // trusty-worthy.
-        if (!currentResult.equals("PASSED") && !currentResult.equals("FAILED"))
+        if (!currentResult.equalsIgnoreCase("PASSED") && !currentResult.equalsIgnoreCase("FAILED"))
             return;
 
         // Fetch our history.  If we can't get it, just give up; this is a
@@ -199,19 +244,18 @@ public class GoNotificationMessage {
                      pipeline.stage.name + "/" + pipeline.stage.counter);
             return;
         }
-        String previousResult = previous.result.toUpperCase();
+        String previousResult = previous.result;
 
         // Fix up our build status.  This is slightly asymmetrical, because
         // we want to be quicker to praise than to blame.  Also, I _think_
         // that the typical representation of stageResult is initial caps
-        // only, but our callers should all be using toUpperCase on it in
-        // any event.
+        // only, so all of these comparisons ignore the case.
         //LOG.info("current: "+currentResult + ", previous: "+previousResult);
-        if (currentResult.equals("PASSED") && !previousResult.equals("PASSED"))
-            pipeline.stage.result = "Fixed";
-        else if (currentResult.equals("FAILED") &&
-                 previousResult.equals("PASSED"))
-            pipeline.stage.result = "Broken";
+        if (currentResult.equalsIgnoreCase("PASSED") && !previousResult.equalsIgnoreCase("PASSED"))
+            setStageStatus(PipelineStatus.FIXED, "Fixed");
+        else if (currentResult.equalsIgnoreCase("FAILED") &&
+                 previousResult.equalsIgnoreCase("PASSED"))
+            setStageStatus(PipelineStatus.BROKEN, "Broken");
     }
 
     public Pipeline fetchDetails(Rules rules)
@@ -220,13 +264,34 @@ public class GoNotificationMessage {
         return fetchDetailsForBuild(rules, Integer.parseInt(getPipelineCounter()));
     }
 
+    /**
+     * Fetch the root changes of this build from the server, once per message.
+     * A failed fetch isn't repeated for the other rules either, they get the
+     * same error.
+     */
     public List<MaterialRevision> fetchChanges(Rules rules)
         throws URISyntaxException, IOException
     {
-        Server server = serverFactory.getServer(rules);
-        Pipeline pipelineInstance =
-            server.getPipelineInstance(pipeline.name, Integer.parseInt(pipeline.counter));
-        return pipelineInstance.rootChanges(server);
+        mRootChangesLock.lock();
+        try {
+            if (mRootChangesError != null) {
+                throw mRootChangesError;
+            }
+            if (mRootChanges == null) {
+                Server server = serverFactory.getServer(rules);
+                try {
+                    Pipeline pipelineInstance =
+                        server.getPipelineInstance(pipeline.name, Integer.parseInt(pipeline.counter));
+                    mRootChanges = pipelineInstance.rootChanges(server);
+                } catch (IOException e) {
+                    mRootChangesError = e;
+                    throw e;
+                }
+            }
+            return mRootChanges;
+        } finally {
+            mRootChangesLock.unlock();
+        }
     }
 
     public Stage pickCurrentStage(Stage[] stages) {
@@ -5,10 +5,20 @@ import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
 import com.thoughtworks.go.plugin.api.GoPlugin;
 import com.thoughtworks.go.plugin.api.GoPluginIdentifier;
 import com.thoughtworks.go.plugin.api.annotation.Extension;
+import com.thoughtworks.go.plugin.api.annotation.UnLoad;
+import com.thoughtworks.go.plugin.api.info.PluginContext;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import in.ashwanthkumar.gocd.slack.base.AbstractNotificationPlugin;
+import in.ashwanthkumar.gocd.slack.dispatch.DispatchSettings;
+import in.ashwanthkumar.gocd.slack.dispatch.NotificationDispatcher;
+import in.ashwanthkumar.gocd.slack.dispatch.DeadLetters;
+import in.ashwanthkumar.gocd.slack.dispatch.Outbox;
+import in.ashwanthkumar.gocd.slack.dispatch.OutboxSettings;
+import in.ashwanthkumar.gocd.slack.dispatch.RetrySettings;
+import in.ashwanthkumar.gocd.slack.ruleset.ConfigDirectory;
+import in.ashwanthkumar.gocd.slack.ruleset.RuleSnapshot;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 import in.ashwanthkumar.gocd.slack.ruleset.RulesReader;
 import in.ashwanthkumar.utils.lang.StringUtils;
@@ -17,7 +27,10 @@ import org.apache.commons.io.IOUtils;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import static java.util.Arrays.asList;
 
@@ -25,7 +38,10 @@ import static java.util.Arrays.asList;
 public class GoNotificationPlugin extends AbstractNotificationPlugin implements GoPlugin {
     public static final String CRUISE_SERVER_DIR = "CRUISE_SERVER_DIR";
     private static Logger LOGGER = Logger.getLoggerFor(GoNotificationPlugin.class);
-    private static final long CONFIG_REFRESH_INTERVAL = 10 * 1000; // 10 seconds
+    private static final long CONFIG_REFRESH_INTERVAL = 10 * 1000; // 10 seconds, when the file can't be watched
+    private static final long CONFIG_DEBOUNCE_INTERVAL = 500; // milliseconds the file has to stay the same
+    private static final long STATS_LOG_INTERVAL = 60 * 1000; // 1 minute
+    private static final long UNLOAD_TIMEOUT = 10 * 1000; // 10 seconds
 
     public static final String EXTENSION_TYPE = "notification";
     private static final List<String> goSupportedVersions = asList("1.0");
@@ -42,38 +58,94 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
     public static final String GO_NOTIFY_CONF = "GO_NOTIFY_CONF";
     public static final String CONFIG_FILE_NAME = "go_notify.conf";
     public static final String HOME_PLUGIN_CONFIG_PATH = System.getProperty("user.home") + File.separator + CONFIG_FILE_NAME;
+    public static final String OUTBOX_DIR_NAME = "go_notify.outbox";
+    public static final String DEAD_LETTER_FILE_NAME = "go_notify.deadletter";
 
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private GoEnvironment environment = new GoEnvironment();
-    private Rules rules;
+    // the rules and dispatcher notifications are handled with, replaced as a whole when the configuration is reloaded
+    private volatile Snapshot snapshot;
+    private volatile Outbox outbox;
 
     private final Timer timer = new Timer();
-    private long configLastModified = 0L;
+    private ConfigWatcher configWatcher;
     private File pluginConfig;
+    // set when the configuration is a directory of files
+    private ConfigDirectory configDirectory;
+    // hash of the configuration the current rules were read from, null if it can't be hashed
+    private byte[] configHash;
 
+    /**
+     * Loads the rules and connects to the webhooks and the GoCD API before returning, so the plugin handles the
+     * very first notification with its rules. How long each step took is logged.
+     */
     public GoNotificationPlugin() {
+        StartupPhases startup = new StartupPhases();
         pluginConfig = findGoNotifyConfigPath();
+        if (pluginConfig.isDirectory()) {
+            configDirectory = new ConfigDirectory(pluginConfig);
+        }
+        startup.done("find configuration");
+        // created before loading, so a change while loading is picked up once it is started
+        ConfigWatcher watcher = new ConfigWatcher(pluginConfig, CONFIG_DEBOUNCE_INTERVAL, CONFIG_REFRESH_INTERVAL, new Runnable() {
+            @Override
+            public void run() {
+                reload();
+            }
+        });
+        reload();
+        startup.done("load rules");
+        Snapshot loaded = snapshot;
+        if (loaded != null) {
+            try {
+                int connected = ConnectionWarmer.warmUp(loaded.rules);
+                startup.done(String.format("connect to %d hosts", connected));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        configWatcher = watcher.startLoaded();
         timer.scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
-                if (pluginConfig.lastModified() != configLastModified) {
-                    if (configLastModified == 0L) {
-                        LOGGER.info("Loading configuration file");
-                    } else {
-                        LOGGER.info("Reloading configuration file since some modifications were found");
-                    }
-                    try {
-                        lock.writeLock().lock();
-                        rules = RulesReader.read(pluginConfig);
-                    } catch (Exception e) {
-                        LOGGER.error(e.getMessage(), e);
-                    } finally {
-                        lock.writeLock().unlock();
-                    }
-                    configLastModified = pluginConfig.lastModified();
-                }
-            }
-        }, 0, CONFIG_REFRESH_INTERVAL);
+                Snapshot current = snapshot;
+                if (current != null && current.dispatcher != null) {
+                    LOGGER.info(current.dispatcher.toString());
+                }
+                Outbox currentOutbox = outbox;
+                if (currentOutbox != null) {
+                    LOGGER.info(currentOutbox.toString());
+                }
+                if (current == null) {
+                    return;
+                }
+                Rules rules = current.rules;
+                if (rules.getRuleMatchCache().getCapacity() > 0) {
+                    LOGGER.info(rules.getRuleMatchCache().toString());
+                }
+                if (rules.getHistoryCache().getCapacity() > 0) {
+                    LOGGER.info(rules.getHistoryCache().toString());
+                }
+                if (rules.getRuleTimings().sampleCount() > 0) {
+                    LOGGER.info(rules.getRuleTimings().toString());
+                }
+                if (rules.getPipelineListener().getRateLimiter().hasThrottled()) {
+                    LOGGER.info(rules.getPipelineListener().getRateLimiter().toString());
+                }
+                if (rules.getPipelineListener().getCircuitBreakers().hasOpened()) {
+                    LOGGER.info(rules.getPipelineListener().getCircuitBreakers().toString());
+                }
+                DeadLetters deadLetters = rules.getPipelineListener().getDeadLetters();
+                if (deadLetters != null && deadLetters.writtenCount() > 0) {
+                    LOGGER.warn(deadLetters.toString());
+                }
+            }
+        }, STATS_LOG_INTERVAL, STATS_LOG_INTERVAL);
+        startup.done("watch configuration");
+        if (loaded != null) {
+            LOGGER.info("Plugin started in " + startup);
+        } else {
+            LOGGER.error("Plugin started without any rules in " + startup + ", notifications fail until " + pluginConfig + " is fixed");
+        }
     }
 
     // used for tests
@@ -81,6 +153,90 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
         this.environment = environment;
     }
 
+    private void reload() {
+        if (snapshot == null) {
+            LOGGER.info("Loading configuration file");
+        } else {
+            LOGGER.info("Reloading configuration file since some modifications were found");
+        }
+        List<Outbox.Entry> recovered = Collections.emptyList();
+        try {
+            // built to the side, notifications keep going with the current snapshot meanwhile
+            Snapshot previous = snapshot;
+            byte[] hash = RuleSnapshot.hash(pluginConfig);
+            if (previous != null && hash != null && Arrays.equals(hash, configHash)) {
+                LOGGER.info("Configuration is unchanged, keeping the current rules");
+                return;
+            }
+            Rules rules = previous == null && hash != null ? RuleSnapshot.read(RuleSnapshot.fileFor(pluginConfig), hash) : null;
+            if (rules != null) {
+                LOGGER.info("Read the rules from " + RuleSnapshot.fileFor(pluginConfig));
+            } else {
+                rules = read(previous != null ? previous.rules : null);
+                if (previous != null && rules == previous.rules) {
+                    LOGGER.info("Configuration is unchanged, keeping the current rules");
+                    configHash = hash;
+                    return;
+                }
+                if (hash != null && (configDirectory == null || configDirectory.isComplete())) {
+                    saveSnapshot(hash, rules);
+                }
+            }
+            configHash = hash;
+            rules.getPipelineListener().setDeadLetters(deadLetters(rules.getRetrySettings(), previous));
+            publish(new Snapshot(rules, dispatcherFor(previous, rules.getDispatchSettings())));
+            recovered = openOutbox(rules.getOutboxSettings());
+        } catch (Exception e) {
+            LOGGER.error(e.getMessage(), e);
+        }
+        replay(recovered);
+    }
+
+    private Rules read(Rules previous) {
+        return configDirectory != null
+                ? RulesReader.read(configDirectory, previous)
+                : RulesReader.read(pluginConfig, previous);
+    }
+
+    private void saveSnapshot(byte[] hash, Rules rules) {
+        File file = RuleSnapshot.fileFor(pluginConfig);
+        try {
+            RuleSnapshot.write(file, hash, rules);
+        } catch (IOException e) {
+            LOGGER.info("Unable to save the rules to " + file + ", the configuration will be read in full on the next start: " + e.getMessage());
+        }
+    }
+
+    @UnLoad
+    public void onUnload(PluginContext context) {
+        timer.cancel();
+        if (configWatcher != null) {
+            configWatcher.stop();
+        }
+        Snapshot current = snapshot;
+        if (current != null && current.dispatcher != null) {
+            current.dispatcher.shutdown();
+            try {
+                if (!current.dispatcher.awaitTermination(UNLOAD_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    LOGGER.warn("Some notifications were still queued while unloading the plugin");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (current != null) {
+            current.rules.getPipelineListener().close();
+        }
+        Outbox currentOutbox = outbox;
+        if (currentOutbox != null) {
+            try {
+                currentOutbox.close();
+            } catch (IOException e) {
+                LOGGER.error("Unable to close the outbox", e);
+            }
+        }
+    }
+
     public void initializeGoApplicationAccessor(GoApplicationAccessor goApplicationAccessor) {
         // ignore
     }
@@ -146,11 +302,21 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
 
         Map<String, Object> response = new HashMap<String, Object>();
         List<String> messages = new ArrayList<String>();
+        Snapshot current = acquire();
+        if (current == null) {
+            LOGGER.warn("Unable to handle " + message.fullyQualifiedJobName() + ", the plugin has no rules since its configuration couldn't be loaded");
+            response.put("status", "failure");
+            response.put("messages", Collections.singletonList("Plugin is not ready, its configuration couldn't be loaded"));
+            return renderJSON(INTERNAL_ERROR_RESPONSE_CODE, response);
+        }
         try {
             response.put("status", "success");
             LOGGER.info(message.fullyQualifiedJobName() + " has " + message.getStageState() + "/" + message.getStageResult());
-            lock.readLock().lock();
-            rules.getPipelineListener().notify(message);
+            long outboxId = record(goPluginApiRequest.requestBody());
+            if (!deliver(current, message, outboxId)) {
+                markDone(outboxId);
+                throw new IllegalStateException("Notification queue is full, dropping " + message.fullyQualifiedJobName());
+            }
         } catch (Exception e) {
             LOGGER.info(message.fullyQualifiedJobName() + " failed with error", e);
             responseCode = INTERNAL_ERROR_RESPONSE_CODE;
@@ -159,7 +325,7 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
                 messages.add(e.getMessage());
             }
         } finally {
-            lock.readLock().unlock();
+            release(current);
         }
 
         if (!messages.isEmpty()) {
@@ -168,6 +334,263 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
         return renderJSON(responseCode, response);
     }
 
+    /**
+     * Run the notification through the current listener, or queue it when dispatching asynchronously.
+     * The outbox entry is marked done once the listener is through with it, also when it failed for good, in sync mode GoCD's thread only
+     * waits for the first attempt of each rule while the retries go on in the background.
+     *
+     * @return false if the dispatch queue is full and the notification was rejected
+     */
+    private boolean deliver(Snapshot current, GoNotificationMessage message, final long outboxId) throws Exception {
+        Rules rules = current.rules;
+        if (current.dispatcher != null) {
+            return current.dispatcher.dispatch(rules.getPipelineListener(), message, new Runnable() {
+                @Override
+                public void run() {
+                    markDone(outboxId);
+                }
+            });
+        }
+        PipelineListener listener = rules.getPipelineListener();
+        CompletableFuture<Void> attempted = new CompletableFuture<>();
+        CompletableFuture<Void> delivered;
+        try {
+            delivered = listener.notifyAsync(message, listener.getInlineLanes(), attempted);
+        } catch (RuntimeException e) {
+            // it fails the same way every time, so it isn't sent again on the next start
+            markDone(outboxId);
+            throw e;
+        }
+        delivered.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                // delivered, or given up on and logged by the listener
+                markDone(outboxId);
+            }
+        });
+        PipelineListener.awaitAttempts(attempted);
+        return true;
+    }
+
+    private long record(String requestBody) {
+        Outbox current = outbox;
+        if (current == null) {
+            return -1;
+        }
+        try {
+            return current.append(requestBody);
+        } catch (IOException e) {
+            LOGGER.error("Unable to record the notification in the outbox", e);
+            return -1;
+        }
+    }
+
+    private void markDone(long outboxId) {
+        Outbox current = outbox;
+        if (current != null && outboxId >= 0) {
+            current.markDone(outboxId);
+        }
+    }
+
+    private List<Outbox.Entry> openOutbox(OutboxSettings settings) throws IOException {
+        if (outbox != null) {
+            if (!settings.isEnabled()) {
+                LOGGER.warn("Outbox can't be disabled while the plugin is running, restart GoCD for it to take effect");
+            }
+            return Collections.emptyList();
+        }
+        if (!settings.isEnabled()) {
+            return Collections.emptyList();
+        }
+        File directory = StringUtils.isNotEmpty(settings.getDirectory())
+                ? new File(settings.getDirectory())
+                : new File(pluginConfig.getAbsoluteFile().getParentFile(), OUTBOX_DIR_NAME);
+        Outbox opened = new Outbox(directory, settings);
+        outbox = opened;
+        return opened.recovered();
+    }
+
+    /**
+     * The dead letters to use with the given settings, the current ones if they still go to the same file.
+     */
+    private DeadLetters deadLetters(RetrySettings settings, Snapshot previous) {
+        File file = settings != null && StringUtils.isNotEmpty(settings.getDeadLetterFile())
+                ? new File(settings.getDeadLetterFile())
+                : new File(pluginConfig.getAbsoluteFile().getParentFile(), DEAD_LETTER_FILE_NAME);
+        DeadLetters current = previous != null ? previous.rules.getPipelineListener().getDeadLetters() : null;
+        if (current != null && current.getFile().equals(file)) {
+            return current;
+        }
+        return new DeadLetters(file);
+    }
+
+    /**
+     * Send the notifications recovered from the outbox again on a thread of its own, so the plugin starts without
+     * waiting for them. New notifications may go out before the replayed ones.
+     */
+    private void replay(final List<Outbox.Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Thread replay = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replayNow(entries);
+            }
+        }, "gocd-slack-outbox-replay");
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    private void replayNow(List<Outbox.Entry> entries) {
+        LOGGER.info(String.format("Replaying %d notifications which were not delivered before the last shutdown", entries.size()));
+        for (Outbox.Entry entry : entries) {
+            GoNotificationMessage message = null;
+            try {
+                message = new GsonBuilder().create().fromJson(entry.getPayload(), GoNotificationMessage.class);
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to parse outbox entry " + entry.getId(), e);
+            }
+            if (message == null) {
+                // it would fail the same way on every start
+                LOGGER.warn("Dropping outbox entry " + entry.getId() + ", it isn't a stage notification");
+                markDone(entry.getId());
+                continue;
+            }
+            Snapshot current = acquire();
+            try {
+                if (!deliver(current, message, entry.getId())) {
+                    LOGGER.warn("Dispatch queue is full, leaving the rest of the outbox for the next start");
+                    return;
+                }
+            } catch (Exception e) {
+                LOGGER.error("Unable to replay outbox entry " + entry.getId(), e);
+            } finally {
+                release(current);
+            }
+        }
+    }
+
+    /**
+     * The dispatcher to use with the given settings, the current one if they haven't changed.
+     */
+    private NotificationDispatcher dispatcherFor(Snapshot previous, DispatchSettings settings) {
+        NotificationDispatcher current = previous != null ? previous.dispatcher : null;
+        if (current != null && current.getSettings().equals(settings)) {
+            return current;
+        }
+        LOGGER.info("Using " + settings);
+        return settings.isAsync() ? new NotificationDispatcher(settings) : null;
+    }
+
+    /**
+     * Make the snapshot the one new notifications are handled with. The previous one is retired once the
+     * notifications still being handled with it are through: its listener is closed, sending the digests it
+     * was still collecting, and its dispatcher shut down unless the new snapshot kept it, whatever is already
+     * queued still goes out through it.
+     */
+    private void publish(Snapshot next) {
+        final Snapshot previous = snapshot;
+        snapshot = next;
+        if (previous == null) {
+            return;
+        }
+        final boolean closeListener = previous.rules != next.rules;
+        final boolean shutdownDispatcher = previous.dispatcher != null && previous.dispatcher != next.dispatcher;
+        previous.retire(new Runnable() {
+            @Override
+            public void run() {
+                if (shutdownDispatcher) {
+                    previous.dispatcher.shutdown();
+                }
+                if (closeListener) {
+                    previous.rules.getPipelineListener().close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Take the current snapshot without locking, so it isn't retired while a notification is handled with it.
+     *
+     * @return null until the configuration is loaded
+     */
+    private Snapshot acquire() {
+        while (true) {
+            Snapshot current = snapshot;
+            if (current == null || current.acquire()) {
+                return current;
+            }
+            // retired in the meantime, the next one is published already
+        }
+    }
+
+    private void release(Snapshot current) {
+        if (current != null) {
+            current.release();
+        }
+    }
+
+    /**
+     * How long each step of the plugin start took.
+     */
+    private static class StartupPhases {
+        private final long started = System.nanoTime();
+        private long last = started;
+        private final StringBuilder phases = new StringBuilder();
+
+        void done(String phase) {
+            long now = System.nanoTime();
+            phases.append(phases.length() == 0 ? "" : ", ").append(phase).append(' ')
+                    .append(TimeUnit.NANOSECONDS.toMillis(now - last)).append("ms");
+            last = now;
+        }
+
+        @Override
+        public String toString() {
+            return TimeUnit.NANOSECONDS.toMillis(last - started) + "ms (" + phases + ")";
+        }
+    }
+
+    /**
+     * The rules and the dispatcher of one version of the configuration. It counts the notifications being handled
+     * with it, plus one while it is the current snapshot, and runs its retirement once that drops to zero.
+     */
+    private static class Snapshot {
+        final Rules rules;
+        final NotificationDispatcher dispatcher;
+        private final AtomicInteger users = new AtomicInteger(1);
+        private volatile Runnable retirement;
+
+        Snapshot(Rules rules, NotificationDispatcher dispatcher) {
+            this.rules = rules;
+            this.dispatcher = dispatcher;
+        }
+
+        boolean acquire() {
+            while (true) {
+                int current = users.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (users.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (users.decrementAndGet() == 0) {
+                retirement.run();
+            }
+        }
+
+        void retire(Runnable retirement) {
+            this.retirement = retirement;
+            release();
+        }
+    }
+
     private boolean isEmpty(String str) {
         return str == null || str.trim().isEmpty();
     }
@@ -176,6 +599,9 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
         return new GsonBuilder().create().fromJson(goPluginApiRequest.requestBody(), GoNotificationMessage.class);
     }
 
+    /**
+     * The configuration file, or a directory of <code>*.conf</code> files, see {@link ConfigDirectory}.
+     */
     private File findGoNotifyConfigPath() {
         // case 1: Look for an environment variable by GO_NOTIFY_CONF and if a file identified by the value exist
         String goNotifyConfPath = environment.getenv(GO_NOTIFY_CONF);
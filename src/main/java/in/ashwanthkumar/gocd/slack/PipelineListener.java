@@ -1,35 +1,523 @@
 package in.ashwanthkumar.gocd.slack;
 
+import com.google.api.client.http.HttpResponseException;
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.dispatch.CircuitBreaker;
+import in.ashwanthkumar.gocd.slack.dispatch.CircuitBreakerSettings;
+import in.ashwanthkumar.gocd.slack.dispatch.CircuitBreakers;
+import in.ashwanthkumar.gocd.slack.dispatch.CircuitOpenException;
+import in.ashwanthkumar.gocd.slack.dispatch.DeadLetters;
+import in.ashwanthkumar.gocd.slack.dispatch.Delivery;
+import in.ashwanthkumar.gocd.slack.dispatch.DigestEvent;
+import in.ashwanthkumar.gocd.slack.dispatch.Digester;
+import in.ashwanthkumar.gocd.slack.dispatch.DispatchSettings;
+import in.ashwanthkumar.gocd.slack.dispatch.LaneExecutor;
+import in.ashwanthkumar.gocd.slack.dispatch.Priority;
+import in.ashwanthkumar.gocd.slack.dispatch.PrioritySettings;
+import in.ashwanthkumar.gocd.slack.dispatch.RateLimitSettings;
+import in.ashwanthkumar.gocd.slack.dispatch.RetryLaterException;
+import in.ashwanthkumar.gocd.slack.dispatch.RetrySettings;
+import in.ashwanthkumar.gocd.slack.dispatch.ThreadMode;
+import in.ashwanthkumar.gocd.slack.dispatch.WebhookRateLimiter;
+import in.ashwanthkumar.gocd.slack.dispatch.WebhookSender;
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
 import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
 import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 import in.ashwanthkumar.utils.lang.option.Option;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 abstract public class PipelineListener {
     private static final Logger LOG = Logger.getLoggerFor(PipelineListener.class);
+    private static final PrioritySettings DEFAULT_PRIORITIES = new PrioritySettings();
     protected Rules rules;
+    private final LaneExecutor inlineLanes;
+    private final LaneExecutor digestLanes;
+    private final WebhookRateLimiter rateLimiter;
+    private final CircuitBreakers circuitBreakers;
+    private final WebhookSender sender;
+    private final RetrySettings retrySettings;
+    private volatile DeadLetters deadLetters;
+    // set when the listener replacing this one on a reload took over its lanes, so close() leaves them running
+    private volatile boolean inlineLanesTakenOver;
+    private volatile boolean digestLanesTakenOver;
+    private final Digester digester = new Digester(new Digester.Sink() {
+        @Override
+        public void flush(Destination destination, List<DigestEvent> events) {
+            sendDigest(destination, events);
+        }
+    });
 
     public PipelineListener(Rules rules) {
+        this(rules, null);
+    }
+
+    /**
+     * Take over the webhook client, rate limiter, circuit breakers and delivery threads of the listener this one
+     * replaces on a reload, each one whose settings haven't changed. Open connections, throttled webhooks and
+     * open breakers carry on as they were instead of starting over with every change of the configuration.
+     *
+     * @param previous the listener of the configuration being replaced, or null
+     */
+    protected PipelineListener(Rules rules, PipelineListener previous) {
         this.rules = rules;
+        RateLimitSettings rateLimit = rateLimitSettings(rules);
+        this.rateLimiter = previous != null && rateLimit.equals(rateLimitSettings(previous.rules))
+                ? previous.rateLimiter : new WebhookRateLimiter(rateLimit);
+        CircuitBreakerSettings circuitBreaker = circuitBreakerSettings(rules);
+        this.circuitBreakers = previous != null && circuitBreaker.equals(circuitBreakerSettings(previous.rules))
+                ? previous.circuitBreakers : new CircuitBreakers(circuitBreaker);
+        RetrySettings retry = rules.getRetrySettings();
+        this.retrySettings = retry != null ? retry : new RetrySettings();
+        this.sender = previous != null && Objects.equals(rules.getProxy(), previous.rules.getProxy())
+                ? previous.sender : new WebhookSender(rules.getProxy());
+        int fanOut = fanOut(rules);
+        if (previous != null && fanOut == fanOut(previous.rules)) {
+            this.inlineLanes = previous.inlineLanes;
+            previous.inlineLanesTakenOver = true;
+        } else {
+            this.inlineLanes = fanOut > 1 ? new LaneExecutor(ThreadMode.PLATFORM.newExecutor(fanOut, "gocd-slack-fan-out")) : LaneExecutor.direct();
+        }
+        if (previous != null) {
+            this.digestLanes = previous.digestLanes;
+            previous.digestLanesTakenOver = true;
+        } else {
+            this.digestLanes = new LaneExecutor(ThreadMode.PLATFORM.newExecutor(1, "gocd-slack-digest-delivery"));
+        }
     }
 
+    private static RateLimitSettings rateLimitSettings(Rules rules) {
+        RateLimitSettings rateLimit = rules.getRateLimitSettings();
+        return rateLimit != null ? rateLimit : new RateLimitSettings();
+    }
+
+    private static CircuitBreakerSettings circuitBreakerSettings(Rules rules) {
+        CircuitBreakerSettings circuitBreaker = rules.getCircuitBreakerSettings();
+        return circuitBreaker != null ? circuitBreaker : new CircuitBreakerSettings();
+    }
+
+    private static int fanOut(Rules rules) {
+        DispatchSettings dispatch = rules.getDispatchSettings();
+        return dispatch != null ? dispatch.getFanOut() : DispatchSettings.DEFAULT_FAN_OUT;
+    }
+
+    /**
+     * Notify every matching rule and wait for the first attempt of each. The rules are posted to at the same
+     * time, up to the <code>dispatch.fan-out</code> limit.
+     */
     public void notify(GoNotificationMessage message) throws Exception {
+        notify(message, inlineLanes);
+    }
+
+    /**
+     * Notify every matching rule, waiting only until each one was posted to once, or has to wait for the rate
+     * limit, a retry or an earlier notification of its destination. The retries are left to the lane timers and
+     * the dead letter file, so GoCD's thread isn't held for the whole backoff.
+     *
+     * @throws Exception the first failure of a rule which gave up on its first attempt
+     */
+    public void notify(GoNotificationMessage message, LaneExecutor deliveryLanes) throws Exception {
+        CompletableFuture<Void> attempted = new CompletableFuture<>();
+        notifyAsync(message, deliveryLanes, attempted);
+        awaitAttempts(attempted);
+    }
+
+    /**
+     * Notify every matching rule. Each notification is rendered and posted on the lane of its {@link Destination},
+     * so notifications for one destination go out in the order they arrive while different destinations
+     * are notified in parallel. Notifications for rules with a digest are collected and sent in batches
+     * through {@link #renderDigest(Destination, List)} instead.
+     * <p>
+     * Failed posts are retried on the lane with exponential backoff, reusing the rendered payload, and are
+     * written to the dead letter file once they run out of attempts.
+     * <p>
+     * The GoCD API lookups of the message are shared by the rules, see {@link GoNotificationMessage#fetchChanges}.
+     * A rule which fails doesn't stop the others, each failure is logged with its rule.
+     *
+     * @return completes once every matching rule is notified, exceptionally with the first failure if any rule
+     * failed, the others are suppressed by it
+     */
+    public CompletableFuture<Void> notifyAsync(final GoNotificationMessage message, LaneExecutor deliveryLanes) {
+        return notifyAsync(message, deliveryLanes, null);
+    }
+
+    /**
+     * Notify every matching rule, see {@link #notifyAsync(GoNotificationMessage, LaneExecutor)}.
+     *
+     * @param attempted completes once every matching rule was posted to once, or has to wait for the rate limit, a
+     *                  retry or an earlier notification of its destination, exceptionally with the first failure of a
+     *                  rule which gave up on its first attempt, see {@link #awaitAttempts}; may be null
+     */
+    public CompletableFuture<Void> notifyAsync(final GoNotificationMessage message, LaneExecutor deliveryLanes, final CompletableFuture<Void> attempted) {
+        if (attempted == null) {
+            return allOf(deliver(message, deliveryLanes, null));
+        }
+        List<CompletableFuture<Void>> attempts = new ArrayList<>();
+        final List<CompletableFuture<Void>> deliveries = deliver(message, deliveryLanes, attempts);
+        CompletableFuture.allOf(attempts.toArray(new CompletableFuture<?>[0])).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                for (CompletableFuture<Void> delivery : deliveries) {
+                    if (delivery.isCompletedExceptionally()) {
+                        try {
+                            delivery.join();
+                        } catch (CompletionException | CancellationException e) {
+                            attempted.completeExceptionally(unwrap(e));
+                            return;
+                        }
+                    }
+                }
+                attempted.complete(null);
+            }
+        });
+        return allOf(deliveries);
+    }
+
+    /**
+     * Wait for the first attempts of a notification, see {@link #notifyAsync(GoNotificationMessage, LaneExecutor, CompletableFuture)}.
+     *
+     * @throws Exception the first failure of a rule which gave up on its first attempt
+     */
+    public static void awaitAttempts(CompletableFuture<Void> attempted) throws Exception {
+        try {
+            attempted.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * The lanes {@link #notify(GoNotificationMessage)} posts on, at most <code>dispatch.fan-out</code> rules at a time.
+     */
+    public LaneExecutor getInlineLanes() {
+        return inlineLanes;
+    }
+
+    /**
+     * @param attempts collects when each delivery was first attempted, see
+     *                 {@link LaneExecutor#submit(Object, LaneExecutor.Throttle, Priority, Callable, CompletableFuture)}; may be null
+     * @return the deliveries of the matching rules, each one logging its failure
+     */
+    private List<CompletableFuture<Void>> deliver(final GoNotificationMessage message, LaneExecutor deliveryLanes, List<CompletableFuture<Void>> attempts) {
         message.tryToFixStageResult(rules);
         LOG.debug(String.format("Finding rules with state %s", message.getStageResult()));
-        List<PipelineRule> foundRules = rules.find(message.getPipelineName(), message.getStageName(), message.getPipelineGroup(), message.getPipelineLabel(), message.getStageResult());
-        if (foundRules.size() > 0) {
-            for (PipelineRule pipelineRule : foundRules) {
-                LOG.debug(String.format("Matching rule is %s", pipelineRule));
-                handlePipelineStatus(pipelineRule, PipelineStatus.valueOf(message.getStageResult().toUpperCase()), message);
-                if (! rules.getProcessAllRules()) {
-                    break;
+        final PipelineStatus status = message.getStageStatus();
+        List<PipelineRule> foundRules = rules.find(message.getPipelineName(), message.getStageName(), message.getPipelineGroup(), message.getPipelineLabel(), status);
+        if (foundRules.isEmpty()) {
+            LOG.warn(String.format("Couldn't find any matching rule for %s/%s with status=%s", message.getPipelineName(), message.getStageName(), message.getStageResult()));
+            return Collections.emptyList();
+        }
+        if (status == null) {
+            // only rules for all states match it, but there is nothing to tell about it
+            throw new IllegalArgumentException("No pipeline status " + message.getStageResult());
+        }
+        List<CompletableFuture<Void>> deliveries = new ArrayList<>();
+        for (Map.Entry<Destination, PipelineRule> matching : byDestination(foundRules).entrySet()) {
+            final PipelineRule pipelineRule = matching.getValue();
+            final Destination destination = matching.getKey();
+            LOG.debug(String.format("Matching rule is %s", pipelineRule));
+            if (pipelineRule.isDigested()) {
+                digester.add(destination, new DigestEvent(pipelineRule, status, message), pipelineRule.getDigest());
+            } else {
+                DeliveryTask task = new DeliveryTask(destination, new Callable<Delivery>() {
+                    @Override
+                    public Delivery call() throws Exception {
+                        return render(pipelineRule, status, message);
+                    }
+                }, new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        handlePipelineStatus(pipelineRule, status, message);
+                        return null;
+                    }
+                });
+                // failures overtake the other notifications queued for the destination, but not those of the same pipeline
+                Priority priority = new Priority(priorities().levelOf(status), message.getPipelineName());
+                CompletableFuture<Void> attempted = null;
+                if (attempts != null) {
+                    attempted = new CompletableFuture<>();
+                    attempts.add(attempted);
                 }
+                deliveries.add(deliveryLanes.submit(destination, task.throttle, priority, task, attempted).whenComplete(new BiConsumer<Void, Throwable>() {
+                    @Override
+                    public void accept(Void result, Throwable error) {
+                        if (error != null) {
+                            LOG.error(String.format("Unable to notify %s about %s for rule %s", destination, message.fullyQualifiedJobName(), pipelineRule), unwrap(error));
+                        }
+                    }
+                }));
+            }
+            if (! rules.getProcessAllRules()) {
+                break;
             }
-        } else {
-            LOG.warn(String.format("Couldn't find any matching rule for %s/%s with status=%s", message.getPipelineName(), message.getStageName(), message.getStageResult()));
+        }
+        return deliveries;
+    }
+
+    /**
+     * The matching rules by where they post to, so every destination gets the notification once even when several
+     * rules post to it. The first rule of a destination decides how the notification looks, mentioning the owners
+     * of all the rules.
+     */
+    protected Map<Destination, PipelineRule> byDestination(List<PipelineRule> foundRules) {
+        Map<Destination, PipelineRule> byDestination = new LinkedHashMap<>();
+        for (PipelineRule rule : foundRules) {
+            Destination destination = destinationFor(rule);
+            PipelineRule first = byDestination.get(destination);
+            if (first == null) {
+                byDestination.put(destination, rule);
+            } else {
+                LOG.debug(String.format("Rule %s posts to %s as well, merging it into %s", rule, destination, first));
+                byDestination.put(destination, first.withOwnersOf(rule));
+            }
+        }
+        return byDestination;
+    }
+
+    /**
+     * Completes once all the deliveries do, with every failure rather than just one of them.
+     */
+    private static CompletableFuture<Void> allOf(final List<CompletableFuture<Void>> deliveries) {
+        if (deliveries.size() == 1) {
+            return deliveries.get(0);
+        }
+        final CompletableFuture<Void> all = new CompletableFuture<>();
+        CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[0])).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                if (error == null) {
+                    all.complete(null);
+                    return;
+                }
+                Throwable first = null;
+                for (CompletableFuture<Void> delivery : deliveries) {
+                    try {
+                        delivery.join();
+                    } catch (CompletionException | CancellationException e) {
+                        Throwable failure = unwrap(e);
+                        if (first == null) {
+                            first = failure;
+                        } else if (failure != first) {
+                            first.addSuppressed(failure);
+                        }
+                    }
+                }
+                all.completeExceptionally(first != null ? first : error);
+            }
+        });
+        return all;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private PrioritySettings priorities() {
+        DispatchSettings dispatch = rules.getDispatchSettings();
+        return dispatch != null ? dispatch.getPriorities() : DEFAULT_PRIORITIES;
+    }
+
+    /**
+     * Where notifications for the given rule are posted to. Notifications for the same destination are sent one at a time.
+     */
+    protected Destination destinationFor(PipelineRule rule) {
+        return rules.destinationFor(rule);
+    }
+
+    /**
+     * Open a connection to the host of the webhook ahead of the first notification, see {@link WebhookSender#warmUp}.
+     */
+    public void warmUp(String webhookUrl, int timeoutMillis) throws IOException {
+        sender.warmUp(webhookUrl, timeoutMillis);
+    }
+
+    public WebhookRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public CircuitBreakers getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * Where deliveries go once they run out of retries. Without one they are only logged.
+     */
+    public void setDeadLetters(DeadLetters deadLetters) {
+        this.deadLetters = deadLetters;
+    }
+
+    public DeadLetters getDeadLetters() {
+        return deadLetters;
+    }
+
+    /**
+     * Render the notification for the given rule without sending it, so a failed post can be retried with the
+     * same payload. Listeners which return null are called through {@link #handlePipelineStatus} instead and
+     * only have their throttled posts retried.
+     */
+    protected Delivery render(PipelineRule rule, PipelineStatus status, GoNotificationMessage message) throws Exception {
+        return null;
+    }
+
+    /**
+     * Render the notifications collected for a destination as one message. Listeners which return null are
+     * called through {@link #onDigest(Destination, List)} instead.
+     */
+    protected Delivery renderDigest(Destination destination, List<DigestEvent> events) throws Exception {
+        return null;
+    }
+
+    /**
+     * Post a rendered notification right away, without any retries.
+     */
+    protected void send(Delivery delivery) throws IOException {
+        sender.send(delivery);
+    }
+
+    /**
+     * Digests are posted one at a time per destination on a thread of their own.
+     */
+    private void sendDigest(final Destination destination, final List<DigestEvent> events) {
+        DeliveryTask task = new DeliveryTask(destination, new Callable<Delivery>() {
+            @Override
+            public Delivery call() throws Exception {
+                return renderDigest(destination, events);
+            }
+        }, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                onDigest(destination, events);
+                return null;
+            }
+        });
+        digestLanes.submit(destination, task.throttle, task).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                if (error != null) {
+                    LOG.error(String.format("Unable to send a digest of %d notifications to %s", events.size(), destination), error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send the digests collected so far and stop collecting, notifications for digested rules are sent
+     * right away after this. Called when the listener is replaced by a reload or the plugin is unloaded.
+     * <p>
+     * The threads of its lanes are shut down unless the listener replacing it took them over, whatever was
+     * already handed to them is still posted.
+     */
+    public void close() {
+        digester.close();
+        if (!inlineLanesTakenOver) {
+            inlineLanes.shutdown();
+        }
+        if (!digestLanesTakenOver) {
+            digestLanes.shutdown();
+        }
+    }
+
+    /**
+     * Renders a notification once and posts it, until it is posted or out of attempts. Run on a lane, which runs
+     * it again after the backoff when it throws a {@link RetryLaterException}. Posts to a host whose circuit
+     * breaker is open are parked on the lane, or fail right away when the breaker is set to fail.
+     */
+    private class DeliveryTask implements Callable<Void> {
+        private final Callable<Delivery> renderer;
+        private final Callable<Void> fallback;
+        private final WebhookRateLimiter.Bucket bucket;
+        private final CircuitBreaker breaker;
+        private final LaneExecutor.Throttle throttle;
+        private Delivery delivery;
+        private int failures;
+        private int throttled;
+
+        DeliveryTask(Destination destination, Callable<Delivery> renderer, Callable<Void> fallback) {
+            this.renderer = renderer;
+            this.fallback = fallback;
+            String webhookUrl = destination.getWebhookUrl();
+            this.bucket = webhookUrl != null ? rateLimiter.forWebhook(webhookUrl) : null;
+            this.breaker = webhookUrl != null ? circuitBreakers.forWebhook(webhookUrl) : null;
+            // the breaker comes last, so a probe isn't held back by the rate limit after it was let through
+            this.throttle = LaneExecutor.allOf(bucket, breaker != null && breaker.isParking() ? breaker : null);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            // a parking breaker already let the post through as the lane's throttle
+            boolean permitted = breaker != null && breaker.isParking();
+            try {
+                if (delivery == null) {
+                    delivery = renderer.call();
+                }
+                if (breaker != null && !permitted) {
+                    if (!breaker.tryAcquire()) {
+                        throw new CircuitOpenException(breaker.getHost());
+                    }
+                    permitted = true;
+                }
+                if (delivery == null) {
+                    fallback.call();
+                } else {
+                    sender.send(delivery);
+                }
+                if (permitted) {
+                    breaker.succeeded();
+                }
+                return null;
+            } catch (IOException e) {
+                if (permitted) {
+                    breaker.failed(e);
+                }
+                Exception failure = failed(e);
+                if (failure != null) {
+                    throw failure;
+                }
+                return null;
+            } catch (Exception e) {
+                if (permitted) {
+                    breaker.released();
+                }
+                throw e;
+            }
+        }
+
+        private Exception failed(IOException error) throws IOException {
+            if (bucket != null && WebhookRateLimiter.isThrottled(error) && ++throttled < WebhookRateLimiter.MAX_THROTTLED_ATTEMPTS) {
+                return bucket.throttled((HttpResponseException) error);
+            }
+            if (delivery == null) {
+                return error;
+            }
+            if (!(error instanceof CircuitOpenException) && !WebhookRateLimiter.isThrottled(error)
+                    && WebhookSender.isRetryable(error) && ++failures < retrySettings.getMaxAttempts()) {
+                long backoff = retrySettings.backoffMillis(failures);
+                LOG.warn(String.format("Posting %s failed (%s), retrying in %dms", delivery.getDescription(), error.getMessage(), backoff));
+                return new RetryLaterException(backoff, TimeUnit.MILLISECONDS, error);
+            }
+            DeadLetters letters = deadLetters;
+            if (letters == null) {
+                return error;
+            }
+            letters.write(delivery, error);
+            LOG.error(String.format("Giving up on posting %s, wrote it to %s", delivery.getDescription(), letters.getFile().getAbsolutePath()), error);
+            // it is kept in the dead letter file, so the notification counts as handled
+            return null;
         }
     }
 
@@ -37,6 +525,20 @@ abstract public class PipelineListener {
         status.handle(this, rule, message);
     }
 
+    /**
+     * Invoked with the notifications collected for a destination by rules with a digest, in the order they arrived.
+     * Listeners which can't combine notifications into one message send each of them on its own.
+     *
+     * @param destination
+     * @param events
+     * @throws Exception
+     */
+    public void onDigest(Destination destination, List<DigestEvent> events) throws Exception {
+        for (DigestEvent event : events) {
+            handlePipelineStatus(event.getRule(), event.getStatus(), event.getMessage());
+        }
+    }
+
     /**
      * Invoked when pipeline is BUILDING
      *
@@ -1,85 +1,170 @@
 package in.ashwanthkumar.gocd.slack;
 
+import com.google.gson.Gson;
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.dispatch.Delivery;
+import in.ashwanthkumar.gocd.slack.dispatch.DigestEvent;
 import in.ashwanthkumar.gocd.slack.jsonapi.MaterialRevision;
 import in.ashwanthkumar.gocd.slack.jsonapi.Modification;
 import in.ashwanthkumar.gocd.slack.jsonapi.Pipeline;
 import in.ashwanthkumar.gocd.slack.jsonapi.Stage;
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
 import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
 import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
-import in.ashwanthkumar.slack.webhook.Slack;
 import in.ashwanthkumar.slack.webhook.SlackAttachment;
 import in.ashwanthkumar.utils.collections.Lists;
 import in.ashwanthkumar.utils.func.Function;
-import in.ashwanthkumar.utils.lang.StringUtils;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
+import static in.ashwanthkumar.utils.lang.StringUtils.isNotEmpty;
 import static in.ashwanthkumar.utils.lang.StringUtils.startsWith;
 
 public class SlackPipelineListener extends PipelineListener {
     public static final int DEFAULT_MAX_CHANGES_PER_MATERIAL_IN_SLACK = 5;
     private static final Logger LOG = Logger.getLoggerFor(SlackPipelineListener.class);
 
-    private final Slack slack;
-
     public SlackPipelineListener(Rules rules) {
         super(rules);
-        slack = new Slack(rules.getWebHookUrl(), rules.getProxy());
-        updateSlackChannel(rules.getSlackChannel());
+    }
 
-        slack.displayName(rules.getSlackDisplayName())
-                .icon(rules.getSlackUserIcon());
+    public SlackPipelineListener(Rules rules, PipelineListener previous) {
+        super(rules, previous);
     }
 
     @Override
     public void onBuilding(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        updateSlackChannel(rule.getChannel());
-        updateWebhookUrl(rule.getWebhookUrl());
-        slack.push(slackAttachment(rule, message, PipelineStatus.BUILDING));
+        send(render(rule, PipelineStatus.BUILDING, message));
     }
 
     @Override
     public void onPassed(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        updateSlackChannel(rule.getChannel());
-        updateWebhookUrl(rule.getWebhookUrl());
-        slack.push(slackAttachment(rule, message, PipelineStatus.PASSED).color("good"));
+        send(render(rule, PipelineStatus.PASSED, message));
     }
 
     @Override
     public void onFailed(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        updateSlackChannel(rule.getChannel());
-        updateWebhookUrl(rule.getWebhookUrl());
-        slack.push(slackAttachment(rule, message, PipelineStatus.FAILED).color("danger"));
+        send(render(rule, PipelineStatus.FAILED, message));
     }
 
     @Override
     public void onBroken(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        updateSlackChannel(rule.getChannel());
-        updateWebhookUrl(rule.getWebhookUrl());
-        slack.push(slackAttachment(rule, message, PipelineStatus.BROKEN).color("danger"));
+        send(render(rule, PipelineStatus.BROKEN, message));
     }
 
     @Override
     public void onFixed(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        updateSlackChannel(rule.getChannel());
-        updateWebhookUrl(rule.getWebhookUrl());
-        slack.push(slackAttachment(rule, message, PipelineStatus.FIXED).color("good"));
+        send(render(rule, PipelineStatus.FIXED, message));
     }
 
     @Override
     public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        updateSlackChannel(rule.getChannel());
-        updateWebhookUrl(rule.getWebhookUrl());
-        slack.push(slackAttachment(rule, message, PipelineStatus.CANCELLED).color("warning"));
+        send(render(rule, PipelineStatus.CANCELLED, message));
+    }
+
+    @Override
+    protected Delivery render(PipelineRule rule, PipelineStatus status, GoNotificationMessage message) throws Exception {
+        SlackAttachment attachment = slackAttachment(rule, message, status);
+        String color = color(status);
+        if (color != null) {
+            attachment.color(color);
+        }
+        return slackDelivery(destinationFor(rule), title(message, status), Collections.singletonList(attachment));
+    }
+
+    @Override
+    protected Delivery renderDigest(Destination destination, List<DigestEvent> events) throws Exception {
+        List<SlackAttachment> attachments = new ArrayList<SlackAttachment>();
+        for (DigestEvent event : events) {
+            attachments.add(digestAttachment(event));
+        }
+        String summary = String.format("%d stage updates", events.size());
+        attachments.get(0).preText(summary);
+        LOG.info(String.format("Pushing a digest of %d notifications to Slack", events.size()));
+        return slackDelivery(destination, summary, attachments);
+    }
+
+    /**
+     * The same form post {@link in.ashwanthkumar.slack.webhook.Slack#push(List)} makes.
+     */
+    private Delivery slackDelivery(Destination destination, String description, List<SlackAttachment> attachments) {
+        Map<String, Object> payload = new HashMap<String, Object>();
+        if (isNotEmpty(rules.getSlackDisplayName())) {
+            payload.put("username", rules.getSlackDisplayName());
+        }
+        String icon = rules.getSlackUserIcon();
+        if (startsWith(icon, "http")) {
+            payload.put("icon_url", icon);
+        } else if (isNotEmpty(icon)) {
+            payload.put("icon_emoji", icon);
+        }
+        // by default post it to where ever the hook is configured to do so
+        String slackChannel = destination.getChannel();
+        if (startsWith(slackChannel, "#") || startsWith(slackChannel, "@")) {
+            payload.put("channel", slackChannel);
+        }
+        payload.put("attachments", attachments);
+        payload.put("text", "");
+        return new Delivery(destination.getWebhookUrl(), Delivery.Format.SLACK_FORM, new Gson().toJson(payload), description);
+    }
+
+    private static String title(GoNotificationMessage message, PipelineStatus pipelineStatus) {
+        return String.format("Stage [%s] %s %s", message.fullyQualifiedJobName(), pipelineStatus.verb(), pipelineStatus).replaceAll("\\s+", " ");
+    }
+
+    /**
+     * One line per stage, without the build details and changes, which would need a GoCD API call for each stage.
+     */
+    private SlackAttachment digestAttachment(DigestEvent event) throws URISyntaxException {
+        GoNotificationMessage message = event.getMessage();
+        PipelineStatus pipelineStatus = event.getStatus();
+        String title = title(message, pipelineStatus);
+        SlackAttachment attachment = new SlackAttachment("")
+                .fallback(title)
+                .title(title, message.goServerUrl(rules.getGoServerHost()));
+        String color = color(pipelineStatus);
+        if (color != null) {
+            attachment.color(color);
+        }
+        if (!event.getRule().getOwners().isEmpty()) {
+            attachment.text("Owners: " + Lists.mkString(slackOwners(event.getRule()), ","));
+        }
+        return attachment;
+    }
+
+    private static String color(PipelineStatus pipelineStatus) {
+        switch (pipelineStatus) {
+            case PASSED:
+            case FIXED:
+                return "good";
+            case FAILED:
+            case BROKEN:
+                return "danger";
+            case CANCELLED:
+                return "warning";
+            default:
+                return null;
+        }
+    }
+
+    private List<String> slackOwners(PipelineRule rule) {
+        return Lists.map(rule.getOwners(), new Function<String, String>() {
+            @Override
+            public String apply(String input) {
+                return String.format("<@%s>", input);
+            }
+        });
     }
 
     private SlackAttachment slackAttachment(PipelineRule rule, GoNotificationMessage message, PipelineStatus pipelineStatus) throws URISyntaxException {
-        String title = String.format("Stage [%s] %s %s", message.fullyQualifiedJobName(), pipelineStatus.verb(), pipelineStatus).replaceAll("\\s+", " ");
+        String title = title(message, pipelineStatus);
         SlackAttachment buildAttachment = new SlackAttachment("")
                 .fallback(title)
                 .title(title, message.goServerUrl(rules.getGoServerHost()));
@@ -112,11 +197,13 @@ public class SlackPipelineListener extends PipelineListener {
                 for (MaterialRevision change : changes) {
                     StringBuilder sb = new StringBuilder();
                     boolean isTruncated = false;
-                    if (rules.isTruncateChanges() && change.modifications.size() > DEFAULT_MAX_CHANGES_PER_MATERIAL_IN_SLACK) {
-                        change.modifications = Lists.take(change.modifications, DEFAULT_MAX_CHANGES_PER_MATERIAL_IN_SLACK);
+                    // the changes are shared by every rule notified about the message, so they are left as they are
+                    List<Modification> modifications = change.modifications;
+                    if (rules.isTruncateChanges() && modifications.size() > DEFAULT_MAX_CHANGES_PER_MATERIAL_IN_SLACK) {
+                        modifications = Lists.take(modifications, DEFAULT_MAX_CHANGES_PER_MATERIAL_IN_SLACK);
                         isTruncated = true;
                     }
-                    for (Modification mod : change.modifications) {
+                    for (Modification mod : modifications) {
                         String url = change.modificationUrl(mod);
                         if (url != null) {
                             sb.append("<").append(url).append("|").append(mod.revision).append(">");
@@ -151,12 +238,7 @@ public class SlackPipelineListener extends PipelineListener {
         }
 
         if (!rule.getOwners().isEmpty()) {
-            List<String> slackOwners = Lists.map(rule.getOwners(), new Function<String, String>() {
-                @Override
-                public String apply(String input) {
-                    return String.format("<@%s>", input);
-                }
-            });
+            List<String> slackOwners = slackOwners(rule);
             buildAttachment.addField(new SlackAttachment.Field("Owners", Lists.mkString(slackOwners, ","), true));
         }
         LOG.info("Pushing " + title + " notification to Slack");
@@ -179,22 +261,4 @@ public class SlackPipelineListener extends PipelineListener {
         }
         return consoleLinks;
     }
-
-    private void updateSlackChannel(String slackChannel) {
-        LOG.debug(String.format("Updating target slack channel to %s", slackChannel));
-        // by default post it to where ever the hook is configured to do so
-        if (startsWith(slackChannel, "#")) {
-            slack.sendToChannel(slackChannel.substring(1));
-        } else if (startsWith(slackChannel, "@")) {
-            slack.sendToUser(slackChannel.substring(1));
-        }
-    }
-
-    private void updateWebhookUrl(String webbookUrl) {
-        LOG.debug(String.format("Updating target webhookUrl to %s", webbookUrl));
-        // by default pick the global webhookUrl
-        if (StringUtils.isNotEmpty(webbookUrl)) {
-            slack.setWebhookUrl(webbookUrl);
-        }
-    }
 }
@@ -0,0 +1,212 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.google.api.client.http.HttpResponseException;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops posting to a webhook host once too many of the recent posts to it failed, instead of waiting for
+ * every post to time out while the host is down.
+ * <p>
+ * The breaker is closed while the host is healthy. It opens when the failure rate over the last posts reaches
+ * the threshold, and stays open for a while. After that it is half-open: a single post is let through as a probe,
+ * which closes the breaker when it succeeds and opens it again when it fails.
+ * <p>
+ * As a {@link LaneExecutor.Throttle} the breaker parks the lanes of the host while it is open. When notifications
+ * should rather fail right away, posts ask {@link #tryAcquire()} first instead.
+ */
+public class CircuitBreaker implements LaneExecutor.Throttle {
+    private static final Logger LOG = Logger.getLoggerFor(CircuitBreaker.class);
+    private static final long PROBE_POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String host;
+    private final CircuitBreakerSettings settings;
+    private final long openNanos;
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private final boolean[] outcomes;
+    private int next;
+    private int recorded;
+    private int failures;
+    private long openUntil;
+    private boolean probing;
+    private long probeStartedAt;
+
+    CircuitBreaker(String host, CircuitBreakerSettings settings) {
+        this.host = host;
+        this.settings = settings;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(settings.getOpenMillis());
+        this.outcomes = new boolean[settings.getWindowSize()];
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if posts are parked while the breaker is open, false if they fail right away
+     */
+    public boolean isParking() {
+        return settings.getWhenOpen() == CircuitBreakerSettings.WhenOpen.PARK;
+    }
+
+    @Override
+    public synchronized long acquire() {
+        long now = System.nanoTime();
+        switch (state) {
+            case OPEN:
+                if (openUntil - now > 0) {
+                    return openUntil - now;
+                }
+                transition(State.HALF_OPEN);
+                return probe(now);
+            case HALF_OPEN:
+                // a probe which never reported back doesn't keep the host closed forever
+                if (!probing || now - probeStartedAt > openNanos) {
+                    return probe(now);
+                }
+                return Math.max(1, Math.min(PROBE_POLL_NANOS, openNanos));
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return true if a post to the host can go out now
+     */
+    public boolean tryAcquire() {
+        if (acquire() == 0) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Record a post which went through.
+     */
+    public synchronized void succeeded() {
+        if (state == State.HALF_OPEN) {
+            reset();
+            transition(State.CLOSED);
+            LOG.info(String.format("Webhook host %s is back, resuming posts", host));
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Record a post which failed. Only network errors, timeouts and server errors count against the host,
+     * other responses show the host is up.
+     */
+    public void failed(IOException error) {
+        if (WebhookRateLimiter.isThrottled(error)) {
+            released();
+        } else if (countsAgainstHost(error)) {
+            failed();
+        } else {
+            succeeded();
+        }
+    }
+
+    synchronized void failed() {
+        if (state == State.HALF_OPEN) {
+            open(String.format("Probe to webhook host %s failed, stopping posts for another %dms", host, settings.getOpenMillis()));
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= settings.getMinimumPosts() && failures >= settings.getFailureRate() * recorded) {
+                open(String.format("%d of the last %d posts to webhook host %s failed, stopping posts for %dms", failures, recorded, host, settings.getOpenMillis()));
+            }
+        }
+    }
+
+    /**
+     * Give back the permission of a post which didn't go out, so another one can probe the host.
+     */
+    public synchronized void released() {
+        probing = false;
+    }
+
+    /**
+     * Number of times the breaker opened.
+     */
+    public long openedCount() {
+        return opened.get();
+    }
+
+    /**
+     * Number of posts which failed right away because the breaker was open.
+     */
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    private long probe(long now) {
+        probing = true;
+        probeStartedAt = now;
+        LOG.info(String.format("Probing webhook host %s", host));
+        return 0;
+    }
+
+    private void open(String reason) {
+        openUntil = System.nanoTime() + openNanos;
+        probing = false;
+        reset();
+        transition(State.OPEN);
+        opened.incrementAndGet();
+        LOG.warn(reason);
+    }
+
+    private void transition(State to) {
+        LOG.debug(String.format("Circuit breaker for %s went from %s to %s", host, state, to));
+        state = to;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void reset() {
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+
+    static boolean countsAgainstHost(IOException error) {
+        if (!(error instanceof HttpResponseException)) {
+            return true;
+        }
+        int status = ((HttpResponseException) error).getStatusCode();
+        return status >= 500 || status == 408;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return host + ": " + state + ", opened " + opened.get() + " times, " + rejected.get() + " rejected";
+    }
+}
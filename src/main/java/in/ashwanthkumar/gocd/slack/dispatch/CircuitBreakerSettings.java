@@ -0,0 +1,165 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.typesafe.config.Config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When posts to a webhook host are stopped because the host keeps failing, read from the optional
+ * <code>circuit-breaker</code> block of the configuration.
+ */
+public class CircuitBreakerSettings {
+    public enum WhenOpen {
+        /**
+         * Keep the notifications in memory and post them once the host is back.
+         */
+        PARK,
+        /**
+         * Give up on the notifications right away, they go to the dead letter file.
+         */
+        FAIL
+    }
+
+    public static final double DEFAULT_FAILURE_RATE = 0.5;
+    public static final int DEFAULT_MINIMUM_POSTS = 5;
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final long DEFAULT_OPEN_MILLIS = 30 * 1000; // 30 seconds
+
+    private boolean enabled = false;
+    private double failureRate = DEFAULT_FAILURE_RATE;
+    private int minimumPosts = DEFAULT_MINIMUM_POSTS;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private long openMillis = DEFAULT_OPEN_MILLIS;
+    private WhenOpen whenOpen = WhenOpen.PARK;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CircuitBreakerSettings setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    /**
+     * Share of failed posts among the last window-size posts to a host which opens the breaker, between 0 and 1.
+     */
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public CircuitBreakerSettings setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * Posts to a host before its failure rate is taken into account.
+     */
+    public int getMinimumPosts() {
+        return minimumPosts;
+    }
+
+    public CircuitBreakerSettings setMinimumPosts(int minimumPosts) {
+        this.minimumPosts = minimumPosts;
+        return this;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public CircuitBreakerSettings setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * How long an open breaker stops the posts before a single probe is let through.
+     */
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    public CircuitBreakerSettings setOpenMillis(long openMillis) {
+        this.openMillis = openMillis;
+        return this;
+    }
+
+    public WhenOpen getWhenOpen() {
+        return whenOpen;
+    }
+
+    public CircuitBreakerSettings setWhenOpen(WhenOpen whenOpen) {
+        this.whenOpen = whenOpen;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CircuitBreakerSettings that = (CircuitBreakerSettings) o;
+
+        if (enabled != that.enabled) return false;
+        if (Double.compare(that.failureRate, failureRate) != 0) return false;
+        if (minimumPosts != that.minimumPosts) return false;
+        if (windowSize != that.windowSize) return false;
+        if (openMillis != that.openMillis) return false;
+        return whenOpen == that.whenOpen;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (enabled ? 1 : 0);
+        long temp = Double.doubleToLongBits(failureRate);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        result = 31 * result + minimumPosts;
+        result = 31 * result + windowSize;
+        result = 31 * result + (int) (openMillis ^ (openMillis >>> 32));
+        result = 31 * result + (whenOpen != null ? whenOpen.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreakerSettings{" +
+                "enabled=" + enabled +
+                ", failureRate=" + failureRate +
+                ", minimumPosts=" + minimumPosts +
+                ", windowSize=" + windowSize +
+                ", openMillis=" + openMillis +
+                ", whenOpen=" + whenOpen +
+                '}';
+    }
+
+    public static CircuitBreakerSettings fromConfig(Config config) {
+        CircuitBreakerSettings settings = new CircuitBreakerSettings().setEnabled(true);
+        if (config.hasPath("enabled")) {
+            settings.setEnabled(config.getBoolean("enabled"));
+        }
+        if (config.hasPath("failure-rate")) {
+            settings.setFailureRate(config.getDouble("failure-rate"));
+        }
+        if (config.hasPath("minimum-posts")) {
+            settings.setMinimumPosts(config.getInt("minimum-posts"));
+        }
+        if (config.hasPath("window-size")) {
+            settings.setWindowSize(config.getInt("window-size"));
+        }
+        if (config.hasPath("open-for")) {
+            settings.setOpenMillis(config.getDuration("open-for", TimeUnit.MILLISECONDS));
+        }
+        if (config.hasPath("when-open")) {
+            settings.setWhenOpen(WhenOpen.valueOf(config.getString("when-open").toUpperCase()));
+        }
+        if (settings.getFailureRate() <= 0 || settings.getFailureRate() > 1) {
+            throw new IllegalArgumentException("circuit-breaker.failure-rate should be above 0 and at most 1, but was " + settings.getFailureRate());
+        }
+        if (settings.getWindowSize() < 1 || settings.getMinimumPosts() < 1 || settings.getMinimumPosts() > settings.getWindowSize()) {
+            throw new IllegalArgumentException("circuit-breaker.minimum-posts should be between 1 and window-size, but was " + settings.getMinimumPosts());
+        }
+        return settings;
+    }
+}
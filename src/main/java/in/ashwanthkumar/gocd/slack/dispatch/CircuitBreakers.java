@@ -0,0 +1,77 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link CircuitBreaker} per webhook host, so all the webhooks of a Slack workspace or a Teams connector
+ * host are stopped together when it is down.
+ */
+public class CircuitBreakers {
+    private final CircuitBreakerSettings settings;
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakers(CircuitBreakerSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @return the breaker of the webhook's host, or null if circuit breakers are disabled
+     */
+    public CircuitBreaker forWebhook(String webhookUrl) {
+        if (!settings.isEnabled()) {
+            return null;
+        }
+        String host = host(webhookUrl);
+        CircuitBreaker breaker = breakers.get(host);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(host, settings);
+            CircuitBreaker existing = breakers.putIfAbsent(host, breaker);
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * @return true if any breaker opened so far
+     */
+    public boolean hasOpened() {
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (breaker.openedCount() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String host(String webhookUrl) {
+        try {
+            String host = URI.create(webhookUrl).getHost();
+            return host != null ? host : WebhookRateLimiter.mask(webhookUrl);
+        } catch (IllegalArgumentException e) {
+            return WebhookRateLimiter.mask(webhookUrl);
+        }
+    }
+
+    /**
+     * State of the breakers which opened at some point or are not closed.
+     */
+    @Override
+    public String toString() {
+        List<String> tripped = new ArrayList<>();
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (breaker.openedCount() > 0 || breaker.getState() != CircuitBreaker.State.CLOSED) {
+                tripped.add(breaker.toString());
+            }
+        }
+        return "CircuitBreakers{" +
+                "hosts=" + breakers.size() +
+                ", tripped=" + tripped +
+                '}';
+    }
+}
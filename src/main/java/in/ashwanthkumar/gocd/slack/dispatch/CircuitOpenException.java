@@ -0,0 +1,12 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of posting to a webhook host whose {@link CircuitBreaker} is open.
+ */
+public class CircuitOpenException extends IOException {
+    public CircuitOpenException(String host) {
+        super("Circuit breaker for " + host + " is open");
+    }
+}
@@ -0,0 +1,66 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Sends the deliveries in a dead letter file again. Deliveries which still fail are written back to the file.
+ * <pre>
+ * java -cp 'notifier:notifier/lib/*' in.ashwanthkumar.gocd.slack.dispatch.DeadLetterReplay /path/to/go_notify.deadletter
+ * </pre>
+ * The file is moved aside while it is replayed, so it is safe to run while GoCD is running. A replay which
+ * was interrupted is picked up again by the next run.
+ */
+public class DeadLetterReplay {
+    public static final String REPLAYING_SUFFIX = ".replaying";
+
+    private final WebhookSender sender;
+
+    public DeadLetterReplay(WebhookSender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * @return the number of deliveries which failed again
+     */
+    public int replay(File file) throws IOException {
+        File replaying = new File(file.getPath() + REPLAYING_SUFFIX);
+        if (!replaying.exists()) {
+            if (!file.exists()) {
+                return 0;
+            }
+            Files.move(file.toPath(), replaying.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        List<DeadLetters.Letter> letters = DeadLetters.read(replaying);
+        DeadLetters failures = new DeadLetters(file);
+        int failed = 0;
+        for (DeadLetters.Letter letter : letters) {
+            Delivery delivery = letter.toDelivery();
+            try {
+                sender.send(delivery);
+            } catch (IOException e) {
+                failures.write(delivery, e);
+                failed++;
+            }
+        }
+        Files.delete(replaying.toPath());
+        return failed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: DeadLetterReplay <dead letter file>");
+            System.exit(2);
+        }
+        File file = new File(args[0]);
+        int failed = new DeadLetterReplay(new WebhookSender(null)).replay(file);
+        if (failed > 0) {
+            System.err.println(failed + " notifications failed again and were written back to " + file.getAbsolutePath());
+            System.exit(1);
+        }
+        System.out.println("Replayed all notifications in " + file.getAbsolutePath());
+    }
+}
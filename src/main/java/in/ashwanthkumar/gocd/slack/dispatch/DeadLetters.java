@@ -0,0 +1,117 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deliveries which could not be posted after all their retries, appended to a file as one JSON document
+ * per line, so they can be sent again with {@link DeadLetterReplay} once the webhook is back.
+ */
+public class DeadLetters {
+    private static final Logger LOG = Logger.getLoggerFor(DeadLetters.class);
+
+    public static class Letter {
+        private long time;
+        private String error;
+        private String description;
+        private String webhookUrl;
+        private Delivery.Format format;
+        private String body;
+
+        Letter(Delivery delivery, Throwable error) {
+            this.time = System.currentTimeMillis();
+            this.error = String.valueOf(error);
+            this.description = delivery.getDescription();
+            this.webhookUrl = delivery.getWebhookUrl();
+            this.format = delivery.getFormat();
+            this.body = delivery.getBody();
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public Delivery toDelivery() {
+            return new Delivery(webhookUrl, format, body, description);
+        }
+    }
+
+    private final File file;
+    private final AtomicLong written = new AtomicLong();
+
+    public DeadLetters(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized void write(Delivery delivery, Throwable error) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory.getAbsolutePath());
+        }
+        // opened for every letter, so a replay can move the file away while the plugin is running
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            writer.write(new Gson().toJson(new Letter(delivery, error)));
+            writer.write('\n');
+        }
+        written.incrementAndGet();
+    }
+
+    /**
+     * Number of deliveries written since the plugin started.
+     */
+    public long writtenCount() {
+        return written.get();
+    }
+
+    public static List<Letter> read(File file) throws IOException {
+        List<Letter> letters = new ArrayList<>();
+        if (!file.exists()) {
+            return letters;
+        }
+        Gson gson = new Gson();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    letters.add(gson.fromJson(line, Letter.class));
+                } catch (JsonParseException e) {
+                    LOG.warn("Skipping unreadable dead letter in " + file.getAbsolutePath());
+                }
+            }
+        }
+        return letters;
+    }
+
+    @Override
+    public String toString() {
+        return "DeadLetters{" +
+                "file=" + file.getAbsolutePath() +
+                ", written=" + written +
+                '}';
+    }
+}
@@ -0,0 +1,58 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+/**
+ * A rendered notification, ready to be posted to a webhook. Retries post the same payload again, so the
+ * GoCD API is only asked for the build details once per notification.
+ */
+public class Delivery {
+    public enum Format {
+        /**
+         * Slack's <code>payload=&lt;json&gt;</code> form post.
+         */
+        SLACK_FORM,
+        /**
+         * The JSON document as the request body, e.g. a Teams message card.
+         */
+        JSON
+    }
+
+    private final String webhookUrl;
+    private final Format format;
+    private final String body;
+    private final String description;
+
+    public Delivery(String webhookUrl, Format format, String body, String description) {
+        this.webhookUrl = webhookUrl;
+        this.format = format;
+        this.body = body;
+        this.description = description;
+    }
+
+    public String getWebhookUrl() {
+        return webhookUrl;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * What the notification is about, for the logs.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public String toString() {
+        return "Delivery{" +
+                "description='" + description + '\'' +
+                ", webhook=" + WebhookRateLimiter.mask(webhookUrl) +
+                ", format=" + format +
+                '}';
+    }
+}
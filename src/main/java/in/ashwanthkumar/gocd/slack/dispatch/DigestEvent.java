@@ -0,0 +1,40 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import in.ashwanthkumar.gocd.slack.GoNotificationMessage;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+
+/**
+ * A notification waiting in a {@link Digester} to be sent as part of a digest.
+ */
+public class DigestEvent {
+    private final PipelineRule rule;
+    private final PipelineStatus status;
+    private final GoNotificationMessage message;
+
+    public DigestEvent(PipelineRule rule, PipelineStatus status, GoNotificationMessage message) {
+        this.rule = rule;
+        this.status = status;
+        this.message = message;
+    }
+
+    public PipelineRule getRule() {
+        return rule;
+    }
+
+    public PipelineStatus getStatus() {
+        return status;
+    }
+
+    public GoNotificationMessage getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "DigestEvent{" +
+                "stage=" + message.fullyQualifiedJobName() +
+                ", status=" + status +
+                '}';
+    }
+}
@@ -0,0 +1,147 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
+import in.ashwanthkumar.gocd.slack.ruleset.DigestSettings;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects notifications per {@link Destination} and hands them over as one batch once the digest window of
+ * the first one has passed, or once the batch reaches its maximum size, whichever comes first.
+ * <p>
+ * Batches are handed over on the thread of the notification which filled them up, or on the digest timer
+ * thread when their window ends. The timer thread is only started once the first notification is digested.
+ */
+public class Digester implements Closeable {
+    private static final Logger LOG = Logger.getLoggerFor(Digester.class);
+
+    public interface Sink {
+        void flush(Destination destination, List<DigestEvent> events) throws Exception;
+    }
+
+    private static class Batch {
+        final List<DigestEvent> events = new ArrayList<>();
+        ScheduledFuture<?> timer;
+    }
+
+    private final Sink sink;
+    // guarded by this
+    private final Map<Destination, Batch> batches = new HashMap<>();
+    private ScheduledExecutorService scheduler;
+    private boolean closed;
+
+    public Digester(Sink sink) {
+        this.sink = sink;
+    }
+
+    public void add(final Destination destination, DigestEvent event, DigestSettings settings) {
+        List<DigestEvent> full = null;
+        synchronized (this) {
+            if (closed) {
+                full = Collections.singletonList(event);
+            } else {
+                Batch batch = batches.get(destination);
+                if (batch == null) {
+                    final Batch created = new Batch();
+                    created.timer = scheduler().schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(destination, created);
+                        }
+                    }, settings.getWindowMillis(), TimeUnit.MILLISECONDS);
+                    batches.put(destination, created);
+                    batch = created;
+                }
+                batch.events.add(event);
+                if (batch.events.size() >= settings.getMaxEvents()) {
+                    batches.remove(destination);
+                    batch.timer.cancel(false);
+                    full = batch.events;
+                }
+            }
+        }
+        if (full != null) {
+            deliver(destination, full);
+        }
+    }
+
+    /**
+     * Hand over everything collected so far, without waiting for the digest windows to end.
+     */
+    public void flushAll() {
+        Map<Destination, Batch> flushed;
+        synchronized (this) {
+            flushed = new LinkedHashMap<>(batches);
+            batches.clear();
+        }
+        for (Map.Entry<Destination, Batch> entry : flushed.entrySet()) {
+            entry.getValue().timer.cancel(false);
+            deliver(entry.getKey(), entry.getValue().events);
+        }
+    }
+
+    /**
+     * Number of notifications waiting for their digest to be sent.
+     */
+    public synchronized int pendingEvents() {
+        int pending = 0;
+        for (Batch batch : batches.values()) {
+            pending += batch.events.size();
+        }
+        return pending;
+    }
+
+    /**
+     * Send whatever is collected and stop the timer. Notifications added afterwards are handed over right away.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService stopped;
+        synchronized (this) {
+            closed = true;
+            stopped = scheduler;
+        }
+        flushAll();
+        if (stopped != null) {
+            stopped.shutdown();
+        }
+    }
+
+    private void flush(Destination destination, Batch batch) {
+        synchronized (this) {
+            if (batches.get(destination) != batch) {
+                // already sent because it was full or flushed
+                return;
+            }
+            batches.remove(destination);
+        }
+        deliver(destination, batch.events);
+    }
+
+    private void deliver(Destination destination, List<DigestEvent> events) {
+        try {
+            LOG.info(String.format("Sending a digest of %d notifications to %s", events.size(), destination));
+            sink.flush(destination, events);
+        } catch (Exception e) {
+            LOG.error(String.format("Unable to send a digest of %d notifications to %s", events.size(), destination), e);
+        }
+    }
+
+    private ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(ThreadMode.daemonThreads("gocd-slack-digest"));
+        }
+        return scheduler;
+    }
+}
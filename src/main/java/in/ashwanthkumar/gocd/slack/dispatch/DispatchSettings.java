@@ -0,0 +1,200 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.typesafe.config.Config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for how stage notifications are handed off from GoCD's request thread,
+ * read from the optional <code>dispatch</code> block of the configuration.
+ */
+public class DispatchSettings {
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    public static final int DEFAULT_FAN_OUT = 4;
+
+    private boolean async = false;
+    private int workers = DEFAULT_WORKERS;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private int deliveryWorkers = DEFAULT_WORKERS;
+    private ThreadMode threads = ThreadMode.PLATFORM;
+    private long coalesceWindowMillis = 0;
+    private int fanOut = DEFAULT_FAN_OUT;
+    private PrioritySettings priorities = new PrioritySettings();
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public DispatchSettings setAsync(boolean async) {
+        this.async = async;
+        return this;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public DispatchSettings setWorkers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public DispatchSettings setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    /**
+     * Threads posting to the webhooks. Each destination is posted to by one thread at a time.
+     */
+    public int getDeliveryWorkers() {
+        return deliveryWorkers;
+    }
+
+    public DispatchSettings setDeliveryWorkers(int deliveryWorkers) {
+        this.deliveryWorkers = deliveryWorkers;
+        return this;
+    }
+
+    /**
+     * Kind of threads the workers and delivery workers run on. With virtual threads the worker counts are ignored.
+     */
+    public ThreadMode getThreads() {
+        return threads;
+    }
+
+    public DispatchSettings setThreads(ThreadMode threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * How long a queued notification can still be replaced by a newer one for the same stage run, 0 to never replace it.
+     */
+    public long getCoalesceWindowMillis() {
+        return coalesceWindowMillis;
+    }
+
+    public DispatchSettings setCoalesceWindowMillis(long coalesceWindowMillis) {
+        this.coalesceWindowMillis = coalesceWindowMillis;
+        return this;
+    }
+
+    /**
+     * Rules of a notification which are posted at the same time when notifications are processed inline,
+     * 1 to post them one after the other on GoCD's thread. Asynchronous dispatch uses the delivery workers instead.
+     */
+    public int getFanOut() {
+        return fanOut;
+    }
+
+    public DispatchSettings setFanOut(int fanOut) {
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    /**
+     * Order in which queued notifications are processed and posted, and which are dropped first when the queue is full.
+     */
+    public PrioritySettings getPriorities() {
+        return priorities;
+    }
+
+    public DispatchSettings setPriorities(PrioritySettings priorities) {
+        this.priorities = priorities;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DispatchSettings that = (DispatchSettings) o;
+
+        if (async != that.async) return false;
+        if (workers != that.workers) return false;
+        if (queueSize != that.queueSize) return false;
+        if (deliveryWorkers != that.deliveryWorkers) return false;
+        if (coalesceWindowMillis != that.coalesceWindowMillis) return false;
+        if (fanOut != that.fanOut) return false;
+        if (threads != that.threads) return false;
+        return priorities.equals(that.priorities);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (async ? 1 : 0);
+        result = 31 * result + workers;
+        result = 31 * result + queueSize;
+        result = 31 * result + deliveryWorkers;
+        result = 31 * result + threads.hashCode();
+        result = 31 * result + (int) (coalesceWindowMillis ^ (coalesceWindowMillis >>> 32));
+        result = 31 * result + fanOut;
+        result = 31 * result + priorities.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DispatchSettings{" +
+                "async=" + async +
+                ", workers=" + workers +
+                ", queueSize=" + queueSize +
+                ", deliveryWorkers=" + deliveryWorkers +
+                ", threads=" + threads +
+                ", coalesceWindowMillis=" + coalesceWindowMillis +
+                ", fanOut=" + fanOut +
+                ", priorities=" + priorities +
+                '}';
+    }
+
+    public static DispatchSettings fromConfig(Config config) {
+        DispatchSettings settings = new DispatchSettings();
+        if (config.hasPath("async")) {
+            settings.setAsync(config.getBoolean("async"));
+        }
+        if (config.hasPath("workers")) {
+            settings.setWorkers(config.getInt("workers"));
+        }
+        if (config.hasPath("queue-size")) {
+            settings.setQueueSize(config.getInt("queue-size"));
+        }
+        if (config.hasPath("delivery-workers")) {
+            settings.setDeliveryWorkers(config.getInt("delivery-workers"));
+        }
+        if (config.hasPath("threads")) {
+            String threads = config.getString("threads");
+            try {
+                settings.setThreads(ThreadMode.valueOf(threads.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("dispatch.threads should be one of platform or virtual, but was " + threads);
+            }
+        }
+        if (config.hasPath("coalesce-window")) {
+            settings.setCoalesceWindowMillis(config.getDuration("coalesce-window", TimeUnit.MILLISECONDS));
+        }
+        if (config.hasPath("fan-out")) {
+            settings.setFanOut(config.getInt("fan-out"));
+        }
+        settings.setPriorities(PrioritySettings.fromConfig(config));
+        if (settings.getWorkers() < 1) {
+            throw new IllegalArgumentException("dispatch.workers should be at least 1, but was " + settings.getWorkers());
+        }
+        if (settings.getDeliveryWorkers() < 1) {
+            throw new IllegalArgumentException("dispatch.delivery-workers should be at least 1, but was " + settings.getDeliveryWorkers());
+        }
+        if (settings.getFanOut() < 1) {
+            throw new IllegalArgumentException("dispatch.fan-out should be at least 1, but was " + settings.getFanOut());
+        }
+        if (settings.getQueueSize() < 1) {
+            throw new IllegalArgumentException("dispatch.queue-size should be at least 1, but was " + settings.getQueueSize());
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,434 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks one at a time per key, in the order they were submitted, while tasks for different keys
+ * run in parallel on the underlying executor.
+ * <p>
+ * A lane only exists while it has work: the first task submitted for a key schedules the lane on the
+ * executor, the lane runs one task per scheduling and reschedules itself until its queue is empty.
+ * <p>
+ * Tasks can be submitted with a {@link Priority}. Whenever a thread of the executor is free, it runs the
+ * task with the highest priority among the lanes waiting for one, and within a lane a task may overtake
+ * the ones before it unless they have the same order key. With aging, a task counts as one level higher
+ * for every aging period it has waited, so tasks with a low priority still get their turn. Tasks submitted
+ * without a priority run in the order they were submitted.
+ * <p>
+ * Tasks can be submitted with a {@link Throttle}. While the throttle holds the task back, the lane is parked
+ * on a timer rather than holding on to a thread, so other lanes keep running. A task failing with a
+ * {@link RetryLaterException} stays at the head of its lane and is run again after the requested delay,
+ * once the throttle lets it.
+ * <p>
+ * No thread is ever parked for a throttle or a retry: the lane waits on a timer, and lanes which run on the
+ * calling thread, or whose executor was shut down, are picked up by a small shared pool once the wait is over.
+ */
+public class LaneExecutor {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Decides when the next task of a lane may run.
+     */
+    public interface Throttle {
+        Throttle NONE = new Throttle() {
+            @Override
+            public long acquire() {
+                return 0;
+            }
+        };
+
+        /**
+         * Take a permit for running a task.
+         *
+         * @return 0 if the task can run now, otherwise how many nanoseconds to wait before asking again
+         */
+        long acquire();
+    }
+
+    /**
+     * A throttle which lets a task run once all the given ones do, asking them in order and skipping nulls.
+     * A throttle is only asked once the ones before it let the task run.
+     */
+    public static Throttle allOf(final Throttle... throttles) {
+        return new Throttle() {
+            @Override
+            public long acquire() {
+                for (Throttle throttle : throttles) {
+                    long wait = throttle != null ? throttle.acquire() : 0;
+                    if (wait > 0) {
+                        return wait;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    private final Executor executor;
+    private final long agingNanos;
+    private final Runnable next = new Runnable() {
+        @Override
+        public void run() {
+            Lane lane = pollReady();
+            if (lane != null) {
+                lane.run();
+            }
+        }
+    };
+    // guarded by this
+    private final Map<Object, Lane> lanes = new HashMap<>();
+    // lanes waiting for a thread, guarded by this
+    private final List<Lane> ready = new ArrayList<>();
+    private long sequence;
+
+    public LaneExecutor(Executor executor) {
+        this(executor, 0);
+    }
+
+    /**
+     * @param agingMillis how long a task waits before it counts as one priority level higher, 0 to never raise it
+     */
+    public LaneExecutor(Executor executor, long agingMillis) {
+        this.executor = executor;
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+    }
+
+    /**
+     * Lanes which run their tasks on the calling thread. Tasks for a key which is busy are queued and run
+     * by the thread that is working on that lane. A lane which has to wait for its throttle or a retry gives
+     * the calling thread back, and carries on on a shared pool once the wait is over.
+     */
+    public static LaneExecutor direct() {
+        return new LaneExecutor(DIRECT);
+    }
+
+    /**
+     * Shut down the executor the lanes run on, if it can be. Tasks already submitted still run, those which
+     * haven't got a thread yet are picked up by the shared pool.
+     */
+    public void shutdown() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(Object key, Callable<T> task) {
+        return submit(key, Throttle.NONE, Priority.NONE, task);
+    }
+
+    public <T> CompletableFuture<T> submit(Object key, Throttle throttle, Callable<T> task) {
+        return submit(key, throttle, Priority.NONE, task);
+    }
+
+    public <T> CompletableFuture<T> submit(Object key, Throttle throttle, Priority priority, Callable<T> task) {
+        return submit(key, throttle, priority, task, null);
+    }
+
+    /**
+     * Same as {@link #submit(Object, Throttle, Priority, Callable)}, also telling when the task was first taken
+     * care of, so a caller can wait for that rather than for every retry.
+     *
+     * @param attempted completed once the task ran once, or has to wait for its throttle, a retry or the tasks
+     *                  before it in its lane, whichever comes first; may be null
+     */
+    public <T> CompletableFuture<T> submit(Object key, Throttle throttle, Priority priority, Callable<T> task, CompletableFuture<Void> attempted) {
+        Task<T> queued;
+        Lane lane;
+        synchronized (this) {
+            queued = new Task<>(throttle, priority, sequence++, task, attempted);
+            lane = lanes.get(key);
+            if (lane != null) {
+                lane.tasks.add(queued);
+                queued.attempted();
+                return queued.future;
+            }
+            lane = new Lane(key);
+            lane.tasks.add(queued);
+            lanes.put(key, lane);
+        }
+        schedule(lane);
+        return queued.future;
+    }
+
+    /**
+     * Number of keys with queued or running tasks.
+     */
+    public synchronized int activeLanes() {
+        return lanes.size();
+    }
+
+    /**
+     * Number of tasks queued or running across all lanes.
+     */
+    public synchronized int queuedTasks() {
+        int queued = 0;
+        for (Lane lane : lanes.values()) {
+            queued += lane.tasks.size();
+        }
+        return queued;
+    }
+
+    private void schedule(Lane lane) {
+        if (executor == DIRECT) {
+            lane.run();
+            return;
+        }
+        synchronized (this) {
+            ready.add(lane);
+        }
+        try {
+            // runs whichever lane is the most urgent by the time a thread is free
+            executor.execute(next);
+        } catch (RejectedExecutionException e) {
+            abandonReady();
+        }
+    }
+
+    /**
+     * Hand the tasks of the lanes waiting for a thread over to the shared pool, one after the other, rather than
+     * leave their futures hanging. The calling thread may be the timer of every lane, so it doesn't run them.
+     */
+    private void abandonReady() {
+        List<Task<?>> abandoned = new ArrayList<>();
+        synchronized (this) {
+            for (Lane lane : ready) {
+                lanes.remove(lane.key);
+                if (lane.current != null) {
+                    abandoned.add(lane.current);
+                    lane.tasks.remove(lane.current);
+                }
+                abandoned.addAll(lane.tasks);
+                lane.tasks.clear();
+            }
+            ready.clear();
+        }
+        if (!abandoned.isEmpty()) {
+            Deferred.POOL.execute(new Abandoned(abandoned));
+        }
+    }
+
+    private synchronized Lane pollReady() {
+        if (ready.size() <= 1) {
+            return ready.isEmpty() ? null : ready.remove(0);
+        }
+        long now = System.nanoTime();
+        int best = 0;
+        Task<?> bestTask = ready.get(0).peek();
+        for (int i = 1; i < ready.size(); i++) {
+            Task<?> task = ready.get(i).peek();
+            if (before(task, bestTask, now)) {
+                best = i;
+                bestTask = task;
+            }
+        }
+        return ready.remove(best);
+    }
+
+    /**
+     * @return true if the task should run before the other one
+     */
+    private boolean before(Task<?> task, Task<?> other, long now) {
+        long level = level(task, now);
+        long otherLevel = level(other, now);
+        return level != otherLevel ? level > otherLevel : task.sequence < other.sequence;
+    }
+
+    private long level(Task<?> task, long now) {
+        return task.priority.getLevel() + (agingNanos > 0 ? (now - task.submittedAt) / agingNanos : 0);
+    }
+
+    private void scheduleLater(final Lane lane, long delayNanos) {
+        if (executor == DIRECT) {
+            // the calling thread isn't held for the wait, the lane carries on on the shared pool
+            later(lane, delayNanos);
+            return;
+        }
+        Timer.INSTANCE.schedule(new Runnable() {
+            @Override
+            public void run() {
+                schedule(lane);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Run the given lane or tasks on the shared pool after the delay. The timer only hands them over, so a lane
+     * which is slow to post doesn't hold up the timers of the others.
+     */
+    private static void later(final Runnable runnable, long delayNanos) {
+        Timer.INSTANCE.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Deferred.POOL.execute(runnable);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static class Timer {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(ThreadMode.daemonThreads("gocd-slack-lane-timer"));
+    }
+
+    private static class Deferred {
+        static final ExecutorService POOL = ThreadMode.PLATFORM.newExecutor(4, "gocd-slack-lane-deferred");
+    }
+
+    /**
+     * The tasks of lanes whose executor was shut down, run in the order they were queued.
+     */
+    private static class Abandoned implements Runnable {
+        private final List<Task<?>> tasks;
+
+        Abandoned(List<Task<?>> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        public void run() {
+            while (!tasks.isEmpty()) {
+                Task<?> task = tasks.get(0);
+                long wait = task.throttle.acquire();
+                if (wait > 0) {
+                    task.attempted();
+                    later(this, wait);
+                    return;
+                }
+                long retryAfter = task.run();
+                if (retryAfter >= 0) {
+                    later(this, retryAfter);
+                    return;
+                }
+                tasks.remove(0);
+            }
+        }
+    }
+
+    private static class Task<T> {
+        final Throttle throttle;
+        final Priority priority;
+        final long sequence;
+        final long submittedAt = System.nanoTime();
+        final Callable<T> callable;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final CompletableFuture<Void> attempted;
+
+        Task(Throttle throttle, Priority priority, long sequence, Callable<T> callable, CompletableFuture<Void> attempted) {
+            this.throttle = throttle;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.callable = callable;
+            this.attempted = attempted;
+        }
+
+        void attempted() {
+            if (attempted != null) {
+                attempted.complete(null);
+            }
+        }
+
+        /**
+         * @return nanoseconds after which the task should be run again, or -1 once it is done
+         */
+        long run() {
+            try {
+                future.complete(callable.call());
+            } catch (RetryLaterException e) {
+                return Math.max(0, e.getDelayNanos());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                attempted();
+            }
+            return -1;
+        }
+    }
+
+    private class Lane implements Runnable {
+        private final Object key;
+        // in the order they were submitted, guarded by LaneExecutor.this
+        private final List<Task<?>> tasks = new ArrayList<>();
+        // the task which was started and is waiting to be retried, guarded by LaneExecutor.this
+        private Task<?> current;
+
+        Lane(Object key) {
+            this.key = key;
+        }
+
+        /**
+         * The task to run next: the one waiting to be retried, otherwise the most urgent one which
+         * doesn't have to wait for an earlier task with the same order key.
+         */
+        Task<?> peek() {
+            if (current != null) {
+                return current;
+            }
+            Task<?> first = tasks.get(0);
+            if (tasks.size() == 1) {
+                return first;
+            }
+            long now = System.nanoTime();
+            Task<?> best = first;
+            Set<Object> seen = new HashSet<>();
+            seen.add(first.priority.getOrderKey());
+            for (int i = 1; i < tasks.size(); i++) {
+                Task<?> task = tasks.get(i);
+                if (seen.add(task.priority.getOrderKey()) && before(task, best, now)) {
+                    best = task;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public void run() {
+            Task<?> task;
+            synchronized (LaneExecutor.this) {
+                task = peek();
+            }
+            long wait = task.throttle.acquire();
+            if (wait > 0) {
+                task.attempted();
+                scheduleLater(this, wait);
+                return;
+            }
+            synchronized (LaneExecutor.this) {
+                current = task;
+            }
+            long retryAfter = task.run();
+            if (retryAfter > 0) {
+                scheduleLater(this, retryAfter);
+                return;
+            } else if (retryAfter == 0) {
+                // the throttle holds it back until the webhook is ready again
+                schedule(this);
+                return;
+            }
+            synchronized (LaneExecutor.this) {
+                current = null;
+                tasks.remove(task);
+                if (tasks.isEmpty()) {
+                    lanes.remove(key);
+                    return;
+                }
+            }
+            schedule(this);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.GoNotificationMessage;
+import in.ashwanthkumar.gocd.slack.PipelineListener;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Queues stage notifications on a bounded in-memory queue and runs the {@link PipelineListener}
+ * on a pool of worker threads, so GoCD's plugin request thread is never held up by the
+ * GoCD API lookups or the webhook calls.
+ * <p>
+ * Notifications of a pipeline are processed one at a time in the order they arrived, and the
+ * webhook calls go through per-destination lanes on a separate delivery pool, so a pipeline's
+ * notifications reach a channel in order.
+ * <p>
+ * With a coalesce window, a notification for a stage run which is still waiting in the queue is replaced
+ * by a newer one for the same stage run (e.g. Building by Passed), so only the latest state goes out.
+ * <p>
+ * Notifications are picked up and posted by the priority of their status (see {@link PrioritySettings}), so
+ * a failure doesn't wait behind a backlog of building and passed notifications of other pipelines. When the
+ * queue is full, the oldest queued notification with the lowest priority is dropped to make room for one
+ * with a higher priority.
+ * <p>
+ * Both pools run on platform threads or, with <code>threads = "virtual"</code> on Java 21+, on a virtual
+ * thread per task, see {@link ThreadMode}.
+ */
+public class NotificationDispatcher {
+    private static final Logger LOG = Logger.getLoggerFor(NotificationDispatcher.class);
+
+    private final DispatchSettings settings;
+    private final ExecutorService workers;
+    private final ExecutorService deliveryWorkers;
+    private final LaneExecutor pipelineLanes;
+    private final LaneExecutor deliveryLanes;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    // also the monitor awaitTermination waits on
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // accepted notifications which are queued or in flight, what awaitTermination waits for
+    private final AtomicInteger unfinished = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    // queued notifications by stage run, guarded by itself
+    private final Map<String, Pending> pending = new HashMap<>();
+    // queued notifications by priority, oldest first, guarded by the pending map
+    private final TreeMap<Integer, LinkedHashSet<Pending>> queuedByLevel = new TreeMap<>();
+
+    public NotificationDispatcher(DispatchSettings settings) {
+        this.settings = settings;
+        ThreadMode threads = settings.getThreads();
+        this.workers = threads.newExecutor(settings.getWorkers(), "gocd-slack-dispatch");
+        this.deliveryWorkers = threads.newExecutor(settings.getDeliveryWorkers(), "gocd-slack-delivery");
+        long aging = settings.getPriorities().getAgingMillis();
+        this.pipelineLanes = new LaneExecutor(workers, aging);
+        this.deliveryLanes = new LaneExecutor(deliveryWorkers, aging);
+    }
+
+    public DispatchSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Queue the message for the given listener.
+     *
+     * @return false if the queue is full (or the dispatcher is shutting down) and the message was dropped
+     */
+    public boolean dispatch(PipelineListener listener, GoNotificationMessage message) {
+        return dispatch(listener, message, null);
+    }
+
+    /**
+     * Queue the message for the given listener, running <code>onDelivered</code> once the listener is done with it,
+     * whether it was delivered or failed for good, or once it is dropped from the queue.
+     *
+     * @return false if the queue is full (or the dispatcher is shutting down) and the message was dropped
+     */
+    public boolean dispatch(final PipelineListener listener, final GoNotificationMessage message, final Runnable onDelivered) {
+        if (supersede(message, onDelivered)) {
+            return true;
+        }
+        int level = settings.getPriorities().levelOf(message);
+        Pending dropped = null;
+        if (workers.isShutdown() || queued.incrementAndGet() > settings.getQueueSize()) {
+            queued.decrementAndGet();
+            dropped = workers.isShutdown() ? null : shed(level);
+            if (dropped == null) {
+                rejected.incrementAndGet();
+                LOG.warn(String.format("Dropping notification for %s, dispatch queue is full (%d queued)", message.fullyQualifiedJobName(), queueDepth()));
+                return false;
+            }
+        }
+        accepted.incrementAndGet();
+        final Pending pending = new Pending(message, onDelivered, level);
+        synchronized (this.pending) {
+            if (settings.getCoalesceWindowMillis() > 0) {
+                this.pending.put(message.fullyQualifiedJobName(), pending);
+            }
+            queued(level).add(pending);
+        }
+        if (dropped != null) {
+            shed.incrementAndGet();
+            LOG.warn(String.format("Dropping queued notification for %s to make room for %s, dispatch queue is full (%d queued)",
+                    dropped.message.fullyQualifiedJobName(), message.fullyQualifiedJobName(), queueDepth()));
+            // dropped for good, same as a rejected notification
+            if (dropped.onDelivered != null) {
+                dropped.onDelivered.run();
+            }
+        }
+        unfinished.incrementAndGet();
+        pipelineLanes.submit(message.getPipelineName(), LaneExecutor.Throttle.NONE, new Priority(level, message.getPipelineName()), new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (!start(pending)) {
+                    // dropped to make room for a notification with a higher priority
+                    finished(false);
+                    return null;
+                }
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                inFlight.incrementAndGet();
+                CompletableFuture<Void> delivered;
+                try {
+                    delivered = listener.notifyAsync(pending.message, deliveryLanes);
+                } catch (Exception e) {
+                    delivered = new CompletableFuture<>();
+                    delivered.completeExceptionally(e);
+                } finally {
+                    active.decrementAndGet();
+                }
+                // the worker moves on while the deliveries are posted, and retried, on the delivery lanes
+                delivered.whenComplete(new BiConsumer<Void, Throwable>() {
+                    @Override
+                    public void accept(Void result, Throwable error) {
+                        try {
+                            if (error == null) {
+                                completed.incrementAndGet();
+                            } else {
+                                failed.incrementAndGet();
+                                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                                LOG.error(pending.message.fullyQualifiedJobName() + " failed with error", cause);
+                            }
+                            // the listener is through with it, a failure would only fail again when sent once more
+                            if (pending.onDelivered != null) {
+                                pending.onDelivered.run();
+                            }
+                        } finally {
+                            finished(true);
+                        }
+                    }
+                });
+                return null;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Replace the queued notification of the same stage run with the given one, if it hasn't been picked up
+     * yet and was queued no longer than the coalesce window ago. The replaced notification counts as delivered.
+     */
+    private boolean supersede(GoNotificationMessage message, Runnable onDelivered) {
+        long window = settings.getCoalesceWindowMillis();
+        if (window <= 0) {
+            return false;
+        }
+        Runnable superseded;
+        synchronized (pending) {
+            Pending queued = pending.get(message.fullyQualifiedJobName());
+            if (queued == null || queued.started
+                    || System.nanoTime() - queued.queuedAt > TimeUnit.MILLISECONDS.toNanos(window)) {
+                return false;
+            }
+            superseded = queued.onDelivered;
+            queued.message = message;
+            queued.onDelivered = onDelivered;
+            int level = settings.getPriorities().levelOf(message);
+            if (level != queued.level) {
+                // dropped by its new priority, but it keeps its place in the lanes
+                unqueue(queued);
+                queued.level = level;
+                queued(level).add(queued);
+            }
+        }
+        coalesced.incrementAndGet();
+        LOG.debug(String.format("Replaced queued notification for %s with %s/%s", message.fullyQualifiedJobName(),
+                message.getStageState(), message.getStageResult()));
+        if (superseded != null) {
+            superseded.run();
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the notification was dropped while it was queued
+     */
+    private boolean start(Pending started) {
+        synchronized (pending) {
+            if (started.dropped) {
+                return false;
+            }
+            started.started = true;
+            String key = started.message.fullyQualifiedJobName();
+            if (pending.get(key) == started) {
+                pending.remove(key);
+            }
+            unqueue(started);
+            return true;
+        }
+    }
+
+    /**
+     * Drop the oldest queued notification with a lower priority than the given one, its place in the queue
+     * goes to the new notification.
+     *
+     * @return the dropped notification, or null if every queued notification has at least the given priority
+     */
+    private Pending shed(int level) {
+        synchronized (pending) {
+            Map.Entry<Integer, LinkedHashSet<Pending>> lowest = queuedByLevel.firstEntry();
+            if (lowest == null || lowest.getKey() >= level) {
+                return null;
+            }
+            Iterator<Pending> oldest = lowest.getValue().iterator();
+            Pending dropped = oldest.next();
+            oldest.remove();
+            if (lowest.getValue().isEmpty()) {
+                queuedByLevel.remove(lowest.getKey());
+            }
+            dropped.dropped = true;
+            String key = dropped.message.fullyQualifiedJobName();
+            if (pending.get(key) == dropped) {
+                pending.remove(key);
+            }
+            return dropped;
+        }
+    }
+
+    private LinkedHashSet<Pending> queued(int level) {
+        LinkedHashSet<Pending> queued = queuedByLevel.get(level);
+        if (queued == null) {
+            queued = new LinkedHashSet<>();
+            queuedByLevel.put(level, queued);
+        }
+        return queued;
+    }
+
+    private void unqueue(Pending started) {
+        LinkedHashSet<Pending> queued = queuedByLevel.get(started.level);
+        if (queued != null && queued.remove(started) && queued.isEmpty()) {
+            queuedByLevel.remove(started.level);
+        }
+    }
+
+    public int queueDepth() {
+        return queued.get();
+    }
+
+    public int activeWorkers() {
+        return active.get();
+    }
+
+    /**
+     * Number of notifications which were picked up by a worker and are still being delivered.
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public int activeDeliveryLanes() {
+        return deliveryLanes.activeLanes();
+    }
+
+    public long acceptedCount() {
+        return accepted.get();
+    }
+
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    public long completedCount() {
+        return completed.get();
+    }
+
+    public long failedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Number of queued notifications which were replaced by a newer one for the same stage run.
+     */
+    public long coalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Number of queued notifications which were dropped to make room for one with a higher priority.
+     */
+    public long shedCount() {
+        return shed.get();
+    }
+
+    /**
+     * Stop accepting new notifications. Already queued notifications are still delivered, the delivery threads
+     * are shut down once they are.
+     */
+    public void shutdown() {
+        workers.shutdown();
+        synchronized (unfinished) {
+            if (unfinished.get() == 0) {
+                deliveryWorkers.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Wait up to the given timeout for the queued notifications to finish after a {@link #shutdown()}.
+     *
+     * @return true if everything queued was processed
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!workers.awaitTermination(timeout, unit)) {
+            return false;
+        }
+        // the lanes of a shut down pool hand their queued notifications to another thread
+        synchronized (unfinished) {
+            while (unfinished.get() > 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(unfinished, left);
+            }
+        }
+        return deliveryWorkers.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    private void finished(boolean started) {
+        if (started) {
+            inFlight.decrementAndGet();
+        }
+        synchronized (unfinished) {
+            if (unfinished.decrementAndGet() == 0) {
+                if (workers.isShutdown()) {
+                    deliveryWorkers.shutdown();
+                }
+                unfinished.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationDispatcher{" +
+                "queued=" + queueDepth() + "/" + settings.getQueueSize() +
+                ", threads=" + settings.getThreads().name().toLowerCase() +
+                ", active=" + activeWorkers() + (settings.getThreads() == ThreadMode.PLATFORM ? "/" + settings.getWorkers() : "") +
+                ", inFlight=" + inFlight() +
+                ", deliveryLanes=" + activeDeliveryLanes() +
+                ", accepted=" + accepted +
+                ", rejected=" + rejected +
+                ", completed=" + completed +
+                ", failed=" + failed +
+                ", coalesced=" + coalesced +
+                ", shed=" + shed +
+                '}';
+    }
+
+    private static class Pending {
+        private final long queuedAt = System.nanoTime();
+        // guarded by the pending map
+        private GoNotificationMessage message;
+        private Runnable onDelivered;
+        private int level;
+        private boolean started;
+        private boolean dropped;
+
+        Pending(GoNotificationMessage message, Runnable onDelivered, int level) {
+            this.message = message;
+            this.onDelivered = onDelivered;
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of accepted stage notifications.
+ * <p>
+ * Every accepted notification is appended as an ACCEPTED record, and a DONE record is appended once the
+ * webhook has acknowledged it. Records go to append-only segment files which are rolled once they reach
+ * the configured size. A background thread fsyncs the active segment every commit interval (group commit),
+ * so appending only costs a write to the page cache. Segments are deleted from the oldest one onwards once
+ * all their entries are done, which keeps every DONE record around for as long as the entry it refers to.
+ * <p>
+ * Entries which were never marked done are available from {@link #recovered()} after the outbox is opened.
+ */
+public class Outbox implements Closeable {
+    private static final Logger LOG = Logger.getLoggerFor(Outbox.class);
+
+    static final byte ACCEPTED = 1;
+    static final byte DONE = 2;
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // type + id
+    private static final int HEADER_SIZE = 1 + 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    public static class Entry {
+        private final long id;
+        private final String payload;
+
+        Entry(long id, String payload) {
+            this.id = id;
+            this.payload = payload;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+    }
+
+    private static class Segment {
+        final long number;
+        final File file;
+        FileChannel channel;
+        long size;
+        int pending;
+
+        Segment(long number, File file) {
+            this.number = number;
+            this.file = file;
+        }
+    }
+
+    private final File directory;
+    private final long segmentSize;
+    private final ScheduledExecutorService committer;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Map<Long, Segment> pendingEntries = new HashMap<>();
+    private final List<Entry> recovered;
+    private Segment active;
+    private long nextId;
+    private boolean dirty;
+    private boolean closed;
+
+    public Outbox(File directory, OutboxSettings settings) throws IOException {
+        this.directory = directory;
+        this.segmentSize = settings.getSegmentSize();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create outbox directory " + directory.getAbsolutePath());
+        }
+        this.recovered = Collections.unmodifiableList(replay());
+        roll();
+        this.committer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "gocd-slack-outbox-commit");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = Math.max(1, settings.getCommitIntervalMillis());
+        committer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                commit();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        LOG.info(String.format("Opened outbox at %s with %d pending notifications", directory.getAbsolutePath(), recovered.size()));
+    }
+
+    /**
+     * Entries which were accepted but not marked done before the outbox was last closed, in the order they were accepted.
+     */
+    public List<Entry> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Record an accepted notification. The record is written right away but only fsync'ed with the next group commit.
+     *
+     * @return the id to pass to {@link #markDone(long)} once the notification is delivered
+     */
+    public synchronized long append(String payload) throws IOException {
+        ensureOpen();
+        long id = nextId++;
+        Segment segment = active;
+        segment.pending++;
+        pendingEntries.put(id, segment);
+        try {
+            write(ACCEPTED, id, payload.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            segment.pending--;
+            pendingEntries.remove(id);
+            throw e;
+        }
+        return id;
+    }
+
+    /**
+     * Record that the notification has been delivered. Unknown ids are ignored.
+     */
+    public synchronized void markDone(long id) {
+        Segment segment = pendingEntries.remove(id);
+        if (segment == null || closed) {
+            return;
+        }
+        try {
+            write(DONE, id, new byte[0]);
+        } catch (IOException e) {
+            // the entry is just delivered again after a restart
+            LOG.warn("Unable to mark outbox entry " + id + " as done", e);
+        }
+        segment.pending--;
+        deleteCompletedSegments();
+    }
+
+    public synchronized int pendingCount() {
+        return pendingEntries.size();
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Force everything written so far to disk.
+     */
+    public void commit() {
+        FileChannel channel;
+        synchronized (this) {
+            if (!dirty || closed) {
+                return;
+            }
+            dirty = false;
+            channel = active.channel;
+        }
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // the segment got rolled in the meantime, which forces it before closing
+        } catch (IOException e) {
+            LOG.error("Unable to sync the outbox", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        committer.shutdown();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            active.channel.force(false);
+            active.channel.close();
+        }
+    }
+
+    private void write(byte type, long id, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + HEADER_SIZE + payload.length + 4);
+        buffer.putInt(HEADER_SIZE + payload.length);
+        buffer.put(type);
+        buffer.putLong(id);
+        buffer.put(payload);
+        crc.update(buffer.array(), 4, HEADER_SIZE + payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            active.size += active.channel.write(buffer);
+        }
+        dirty = true;
+        if (active.size >= segmentSize) {
+            roll();
+        }
+    }
+
+    private void roll() throws IOException {
+        long number = active == null ? (segments.isEmpty() ? 0 : segments.getLast().number + 1) : active.number + 1;
+        Segment segment = new Segment(number, new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX)));
+        segment.channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        if (active != null) {
+            active.channel.force(false);
+            active.channel.close();
+            active.channel = null;
+        }
+        segments.addLast(segment);
+        active = segment;
+        deleteCompletedSegments();
+    }
+
+    private void deleteCompletedSegments() {
+        while (segments.size() > 1 && segments.getFirst() != active && segments.getFirst().pending == 0) {
+            Segment segment = segments.removeFirst();
+            if (!segment.file.delete()) {
+                LOG.warn("Unable to delete outbox segment " + segment.file.getAbsolutePath());
+            }
+        }
+    }
+
+    private List<Entry> replay() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files);
+
+        Map<Long, Entry> pending = new LinkedHashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            long number = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(number, file);
+            segment.size = file.length();
+            segments.addLast(segment);
+            readSegment(segment, pending);
+        }
+
+        for (Entry entry : pending.values()) {
+            pendingEntries.get(entry.getId()).pending++;
+        }
+        return new ArrayList<>(pending.values());
+    }
+
+    private void readSegment(Segment segment, Map<Long, Entry> pending) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length < HEADER_SIZE || length > MAX_RECORD_SIZE) {
+                    LOG.warn(String.format("Ignoring the rest of outbox segment %s, found a record of %d bytes", segment.file.getName(), length));
+                    return;
+                }
+                byte[] record = new byte[length];
+                int checksum;
+                try {
+                    in.readFully(record);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    LOG.warn("Ignoring a partially written record at the end of outbox segment " + segment.file.getName());
+                    return;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    LOG.warn("Ignoring the rest of outbox segment " + segment.file.getName() + ", found a corrupt record");
+                    return;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                byte type = buffer.get();
+                long id = buffer.getLong();
+                nextId = Math.max(nextId, id + 1);
+                if (type == ACCEPTED) {
+                    String payload = new String(record, HEADER_SIZE, length - HEADER_SIZE, StandardCharsets.UTF_8);
+                    pending.put(id, new Entry(id, payload));
+                    pendingEntries.put(id, segment);
+                } else if (type == DONE) {
+                    pending.remove(id);
+                    pendingEntries.remove(id);
+                }
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Outbox at " + directory.getAbsolutePath() + " is closed");
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Outbox{" +
+                "directory=" + directory.getAbsolutePath() +
+                ", pending=" + pendingEntries.size() +
+                ", segments=" + segments.size() +
+                '}';
+    }
+}
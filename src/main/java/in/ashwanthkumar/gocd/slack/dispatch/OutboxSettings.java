@@ -0,0 +1,106 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.typesafe.config.Config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for the on-disk {@link Outbox}, read from the optional <code>outbox</code> block of the configuration.
+ */
+public class OutboxSettings {
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024; // 16 MB
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 50;
+
+    private boolean enabled = false;
+    private String directory;
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private long commitIntervalMillis = DEFAULT_COMMIT_INTERVAL_MILLIS;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public OutboxSettings setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    /**
+     * @return the journal directory, or null to keep it next to the configuration file
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    public OutboxSettings setDirectory(String directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public OutboxSettings setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    public long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    public OutboxSettings setCommitIntervalMillis(long commitIntervalMillis) {
+        this.commitIntervalMillis = commitIntervalMillis;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        OutboxSettings that = (OutboxSettings) o;
+
+        if (enabled != that.enabled) return false;
+        if (segmentSize != that.segmentSize) return false;
+        if (commitIntervalMillis != that.commitIntervalMillis) return false;
+        return directory != null ? directory.equals(that.directory) : that.directory == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (enabled ? 1 : 0);
+        result = 31 * result + (directory != null ? directory.hashCode() : 0);
+        result = 31 * result + (int) (segmentSize ^ (segmentSize >>> 32));
+        result = 31 * result + (int) (commitIntervalMillis ^ (commitIntervalMillis >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxSettings{" +
+                "enabled=" + enabled +
+                ", directory='" + directory + '\'' +
+                ", segmentSize=" + segmentSize +
+                ", commitIntervalMillis=" + commitIntervalMillis +
+                '}';
+    }
+
+    public static OutboxSettings fromConfig(Config config) {
+        OutboxSettings settings = new OutboxSettings();
+        if (config.hasPath("enabled")) {
+            settings.setEnabled(config.getBoolean("enabled"));
+        }
+        if (config.hasPath("directory")) {
+            settings.setDirectory(config.getString("directory"));
+        }
+        if (config.hasPath("segment-size")) {
+            settings.setSegmentSize(config.getBytes("segment-size"));
+        }
+        if (config.hasPath("commit-interval")) {
+            settings.setCommitIntervalMillis(config.getDuration("commit-interval", TimeUnit.MILLISECONDS));
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,36 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+/**
+ * Priority of a task on a {@link LaneExecutor}. Tasks with a higher level run first, but tasks with the
+ * same order key always run in the order they were submitted.
+ */
+public final class Priority {
+    /**
+     * Every task at the same level and in the same order, i.e. plain first in, first out.
+     */
+    public static final Priority NONE = new Priority(0, null);
+
+    private final int level;
+    private final Object orderKey;
+
+    public Priority(int level, Object orderKey) {
+        this.level = level;
+        this.orderKey = orderKey;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public Object getOrderKey() {
+        return orderKey;
+    }
+
+    @Override
+    public String toString() {
+        return "Priority{" +
+                "level=" + level +
+                ", orderKey=" + orderKey +
+                '}';
+    }
+}
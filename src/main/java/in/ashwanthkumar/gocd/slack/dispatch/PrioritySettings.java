@@ -0,0 +1,116 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.typesafe.config.Config;
+import in.ashwanthkumar.gocd.slack.GoNotificationMessage;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Priority of the notifications by their status, read from the <code>priorities</code> table and
+ * <code>priority-aging</code> of the <code>dispatch</code> block. Queued notifications with a higher
+ * priority are processed and posted first, and notifications with the lowest priority are the first
+ * to be dropped when the queue is full.
+ */
+public class PrioritySettings {
+    public static final long DEFAULT_AGING_MILLIS = 30 * 1000; // 30 seconds
+
+    private final Map<PipelineStatus, Integer> levels = new EnumMap<>(PipelineStatus.class);
+    private long agingMillis = DEFAULT_AGING_MILLIS;
+
+    public PrioritySettings() {
+        levels.put(PipelineStatus.BROKEN, 6);
+        levels.put(PipelineStatus.FAILED, 5);
+        levels.put(PipelineStatus.FIXED, 4);
+        levels.put(PipelineStatus.CANCELLED, 3);
+        levels.put(PipelineStatus.PASSED, 2);
+        levels.put(PipelineStatus.BUILDING, 1);
+    }
+
+    public int levelOf(PipelineStatus status) {
+        Integer level = status != null ? levels.get(status) : null;
+        return level != null ? level : 0;
+    }
+
+    /**
+     * Priority of a notification which is not processed yet, from its stage result as GoCD sent it.
+     * Broken and fixed are only told apart from failed and passed once the notification is processed.
+     */
+    public int levelOf(GoNotificationMessage message) {
+        String state = message.getStageState();
+        String result = message.getStageResult();
+        if ("BUILDING".equalsIgnoreCase(state) && (result == null || "UNKNOWN".equalsIgnoreCase(result))) {
+            return levelOf(PipelineStatus.BUILDING);
+        }
+        return levelOf(PipelineStatus.fromResult(result));
+    }
+
+    public PrioritySettings setLevel(PipelineStatus status, int level) {
+        levels.put(status, level);
+        return this;
+    }
+
+    /**
+     * How long a queued notification waits before it counts as one priority level higher, so notifications with
+     * a low priority are still sent while higher ones keep coming. 0 to never raise them.
+     */
+    public long getAgingMillis() {
+        return agingMillis;
+    }
+
+    public PrioritySettings setAgingMillis(long agingMillis) {
+        this.agingMillis = agingMillis;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PrioritySettings that = (PrioritySettings) o;
+
+        if (agingMillis != that.agingMillis) return false;
+        return levels.equals(that.levels);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = levels.hashCode();
+        result = 31 * result + (int) (agingMillis ^ (agingMillis >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PrioritySettings{" +
+                "levels=" + levels +
+                ", agingMillis=" + agingMillis +
+                '}';
+    }
+
+    /**
+     * @param config the <code>dispatch</code> block
+     */
+    public static PrioritySettings fromConfig(Config config) {
+        PrioritySettings settings = new PrioritySettings();
+        if (config.hasPath("priorities")) {
+            Config priorities = config.getConfig("priorities");
+            for (PipelineStatus status : PipelineStatus.values()) {
+                String key = status.name().toLowerCase();
+                if (priorities.hasPath(key)) {
+                    settings.setLevel(status, priorities.getInt(key));
+                }
+            }
+        }
+        if (config.hasPath("priority-aging")) {
+            settings.setAgingMillis(config.getDuration("priority-aging", TimeUnit.MILLISECONDS));
+        }
+        if (settings.getAgingMillis() < 0) {
+            throw new IllegalArgumentException("dispatch.priority-aging should not be negative, but was " + settings.getAgingMillis());
+        }
+        return settings;
+    }
+}
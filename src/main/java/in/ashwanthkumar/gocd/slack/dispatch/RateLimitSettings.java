@@ -0,0 +1,119 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.typesafe.config.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How fast notifications may be posted to each webhook, read from the optional <code>rate-limit</code> block
+ * of the configuration. The limits apply to every webhook on its own, <code>webhooks</code> overrides them
+ * for particular webhook urls.
+ */
+public class RateLimitSettings {
+    public static final int DEFAULT_BURST = 1;
+
+    private double perSecond = 0;
+    private int burst = DEFAULT_BURST;
+    private Map<String, RateLimitSettings> webhooks = new HashMap<>();
+
+    /**
+     * Posts per second to a webhook, 0 for no limit. Throttling responses of the webhook are honoured either way.
+     */
+    public double getPerSecond() {
+        return perSecond;
+    }
+
+    public RateLimitSettings setPerSecond(double perSecond) {
+        this.perSecond = perSecond;
+        return this;
+    }
+
+    /**
+     * Posts which can go out right away after the webhook has been idle for a while.
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    public RateLimitSettings setBurst(int burst) {
+        this.burst = burst;
+        return this;
+    }
+
+    public Map<String, RateLimitSettings> getWebhooks() {
+        return webhooks;
+    }
+
+    public RateLimitSettings setWebhooks(Map<String, RateLimitSettings> webhooks) {
+        this.webhooks = webhooks;
+        return this;
+    }
+
+    /**
+     * The limits for the given webhook url.
+     */
+    public RateLimitSettings forWebhook(String webhookUrl) {
+        RateLimitSettings settings = webhooks.get(webhookUrl);
+        return settings != null ? settings : this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        RateLimitSettings that = (RateLimitSettings) o;
+
+        if (Double.compare(that.perSecond, perSecond) != 0) return false;
+        if (burst != that.burst) return false;
+        return webhooks != null ? webhooks.equals(that.webhooks) : that.webhooks == null;
+    }
+
+    @Override
+    public int hashCode() {
+        long temp = Double.doubleToLongBits(perSecond);
+        int result = (int) (temp ^ (temp >>> 32));
+        result = 31 * result + burst;
+        result = 31 * result + (webhooks != null ? webhooks.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitSettings{" +
+                "perSecond=" + perSecond +
+                ", burst=" + burst +
+                ", webhooks=" + webhooks.size() +
+                '}';
+    }
+
+    public static RateLimitSettings fromConfig(Config config) {
+        RateLimitSettings settings = limits(config, new RateLimitSettings());
+        if (config.hasPath("webhooks")) {
+            for (Config webhook : config.getConfigList("webhooks")) {
+                RateLimitSettings inherited = new RateLimitSettings()
+                        .setPerSecond(settings.getPerSecond())
+                        .setBurst(settings.getBurst());
+                settings.getWebhooks().put(webhook.getString("url"), limits(webhook, inherited));
+            }
+        }
+        return settings;
+    }
+
+    private static RateLimitSettings limits(Config config, RateLimitSettings settings) {
+        if (config.hasPath("per-second")) {
+            settings.setPerSecond(config.getDouble("per-second"));
+        }
+        if (config.hasPath("burst")) {
+            settings.setBurst(config.getInt("burst"));
+        }
+        if (settings.getPerSecond() < 0) {
+            throw new IllegalArgumentException("rate-limit.per-second should not be negative, but was " + settings.getPerSecond());
+        }
+        if (settings.getBurst() < 1) {
+            throw new IllegalArgumentException("rate-limit.burst should be at least 1, but was " + settings.getBurst());
+        }
+        return settings;
+    }
+}
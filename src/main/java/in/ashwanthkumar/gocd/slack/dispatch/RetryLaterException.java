@@ -0,0 +1,21 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thrown by a lane task which should be run again later, e.g. when the webhook asked us to slow down or
+ * the post failed with an error worth retrying. The {@link LaneExecutor} keeps the task at the head of its
+ * lane and runs it again after the delay, once its throttle lets it, without holding on to a thread meanwhile.
+ */
+public class RetryLaterException extends Exception {
+    private final long delayNanos;
+
+    public RetryLaterException(long delay, TimeUnit unit, Throwable cause) {
+        super(cause != null ? cause.getMessage() : null, cause);
+        this.delayNanos = unit.toNanos(delay);
+    }
+
+    public long getDelayNanos() {
+        return delayNanos;
+    }
+}
@@ -0,0 +1,125 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.typesafe.config.Config;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How failed webhook posts are retried, read from the optional <code>retry</code> block of the configuration.
+ */
+public class RetrySettings {
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 60 * 1000;
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private String deadLetterFile;
+
+    /**
+     * Posts of a notification, including the first one, before it is written to the dead letter file.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public RetrySettings setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public RetrySettings setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+        return this;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public RetrySettings setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    /**
+     * @return the dead letter file, or null to keep it next to the configuration file
+     */
+    public String getDeadLetterFile() {
+        return deadLetterFile;
+    }
+
+    public RetrySettings setDeadLetterFile(String deadLetterFile) {
+        this.deadLetterFile = deadLetterFile;
+        return this;
+    }
+
+    /**
+     * Exponential backoff with full jitter: a random delay up to initial-backoff * 2^(failures - 1), capped at max-backoff.
+     *
+     * @param failures the number of failed posts so far, at least 1
+     */
+    public long backoffMillis(int failures) {
+        int exponent = Math.min(Math.max(failures - 1, 0), 30);
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis * (1L << exponent));
+        return ThreadLocalRandom.current().nextLong(Math.max(ceiling, 0) + 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        RetrySettings that = (RetrySettings) o;
+
+        if (maxAttempts != that.maxAttempts) return false;
+        if (initialBackoffMillis != that.initialBackoffMillis) return false;
+        if (maxBackoffMillis != that.maxBackoffMillis) return false;
+        return deadLetterFile != null ? deadLetterFile.equals(that.deadLetterFile) : that.deadLetterFile == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = maxAttempts;
+        result = 31 * result + (int) (initialBackoffMillis ^ (initialBackoffMillis >>> 32));
+        result = 31 * result + (int) (maxBackoffMillis ^ (maxBackoffMillis >>> 32));
+        result = 31 * result + (deadLetterFile != null ? deadLetterFile.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RetrySettings{" +
+                "maxAttempts=" + maxAttempts +
+                ", initialBackoffMillis=" + initialBackoffMillis +
+                ", maxBackoffMillis=" + maxBackoffMillis +
+                ", deadLetterFile='" + deadLetterFile + '\'' +
+                '}';
+    }
+
+    public static RetrySettings fromConfig(Config config) {
+        RetrySettings settings = new RetrySettings();
+        if (config.hasPath("max-attempts")) {
+            settings.setMaxAttempts(config.getInt("max-attempts"));
+        }
+        if (config.hasPath("initial-backoff")) {
+            settings.setInitialBackoffMillis(config.getDuration("initial-backoff", TimeUnit.MILLISECONDS));
+        }
+        if (config.hasPath("max-backoff")) {
+            settings.setMaxBackoffMillis(config.getDuration("max-backoff", TimeUnit.MILLISECONDS));
+        }
+        if (config.hasPath("dead-letter-file")) {
+            settings.setDeadLetterFile(config.getString("dead-letter-file"));
+        }
+        if (settings.getMaxAttempts() < 1) {
+            throw new IllegalArgumentException("retry.max-attempts should be at least 1, but was " + settings.getMaxAttempts());
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,81 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Kind of threads the dispatcher runs notifications and webhook calls on.
+ */
+public enum ThreadMode {
+    /**
+     * Fixed size pools of platform threads.
+     */
+    PLATFORM {
+        @Override
+        public ExecutorService newExecutor(int threads, String name) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                    60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    daemonThreads(name));
+            // lets the threads of a replaced dispatcher go away once it is drained
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    },
+    /**
+     * A new virtual thread per task (Java 21+), so notifications blocked on the GoCD API or a webhook
+     * don't hold on to a platform thread. The thread count is ignored. Falls back to {@link #PLATFORM}
+     * on older JVMs.
+     */
+    VIRTUAL {
+        @Override
+        public ExecutorService newExecutor(int threads, String name) {
+            try {
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+                ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+                Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return (ExecutorService) perTask.invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                LOG.warn(String.format("Virtual threads need Java 21 or newer (running on %s), using platform threads for %s",
+                        System.getProperty("java.version"), name));
+                return PLATFORM.newExecutor(threads, name);
+            }
+        }
+    };
+
+    private static final Logger LOG = Logger.getLoggerFor(ThreadMode.class);
+
+    public abstract ExecutorService newExecutor(int threads, String name);
+
+    public static boolean virtualThreadsAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,192 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.google.api.client.http.HttpResponseException;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.net.URI;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket per webhook url, which is also paused for as long as the webhook asks for in the
+ * <code>Retry-After</code> header of a 429 response. Only the throttled webhook is held back.
+ */
+public class WebhookRateLimiter {
+    private static final Logger LOG = Logger.getLoggerFor(WebhookRateLimiter.class);
+
+    public static final int TOO_MANY_REQUESTS = 429;
+    /**
+     * Posts answered with a 429 before giving up on a notification.
+     */
+    public static final int MAX_THROTTLED_ATTEMPTS = 5;
+    static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+    static final long MAX_RETRY_AFTER_MILLIS = 10 * 60 * 1000;
+
+    private final RateLimitSettings settings;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public WebhookRateLimiter(RateLimitSettings settings) {
+        this.settings = settings;
+    }
+
+    public Bucket forWebhook(String webhookUrl) {
+        Bucket bucket = buckets.get(webhookUrl);
+        if (bucket == null) {
+            bucket = new Bucket(webhookUrl, settings.forWebhook(webhookUrl));
+            Bucket existing = buckets.putIfAbsent(webhookUrl, bucket);
+            if (existing != null) {
+                bucket = existing;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * @return true if the error is a 429 response from the webhook
+     */
+    public static boolean isThrottled(Throwable error) {
+        return error instanceof HttpResponseException && ((HttpResponseException) error).getStatusCode() == TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * @return true if any webhook was held back so far
+     */
+    public boolean hasThrottled() {
+        for (Bucket bucket : buckets.values()) {
+            if (bucket.throttledMillis() > 0 || bucket.throttledResponses() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Time spent throttled per webhook, for the webhooks which were throttled at all.
+     */
+    @Override
+    public String toString() {
+        List<String> throttled = new ArrayList<>();
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+            Bucket bucket = entry.getValue();
+            if (bucket.throttledMillis() > 0 || bucket.throttledResponses() > 0) {
+                throttled.add(String.format("%s: %dms, %d responses", mask(entry.getKey()), bucket.throttledMillis(), bucket.throttledResponses()));
+            }
+        }
+        return "WebhookRateLimiter{" +
+                "webhooks=" + buckets.size() +
+                ", throttled=" + throttled +
+                '}';
+    }
+
+    /**
+     * The webhook url is the secret, so only the host and the end of it are shown.
+     */
+    public static String mask(String webhookUrl) {
+        try {
+            String host = URI.create(webhookUrl).getHost();
+            String tail = webhookUrl.length() > 4 ? webhookUrl.substring(webhookUrl.length() - 4) : "";
+            return host + "/..." + tail;
+        } catch (IllegalArgumentException e) {
+            return "(invalid webhook url)";
+        }
+    }
+
+    static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+        long millis;
+        try {
+            millis = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                SimpleDateFormat httpDate = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+                millis = httpDate.parse(retryAfter.trim()).getTime() - System.currentTimeMillis();
+            } catch (ParseException invalid) {
+                LOG.warn("Ignoring invalid Retry-After header " + retryAfter);
+                millis = DEFAULT_RETRY_AFTER_MILLIS;
+            }
+        }
+        return Math.min(Math.max(millis, 0), MAX_RETRY_AFTER_MILLIS);
+    }
+
+    public static class Bucket implements LaneExecutor.Throttle {
+        private final String webhookUrl;
+        private final double perSecond;
+        private final int burst;
+        private final AtomicLong throttledNanos = new AtomicLong();
+        private final AtomicLong throttledResponses = new AtomicLong();
+
+        // guarded by this
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private long pausedUntil = refilledAt;
+        private long blockedSince = -1;
+
+        Bucket(String webhookUrl, RateLimitSettings settings) {
+            this.webhookUrl = webhookUrl;
+            this.perSecond = settings.getPerSecond();
+            this.burst = settings.getBurst();
+            this.tokens = burst;
+        }
+
+        @Override
+        public synchronized long acquire() {
+            long now = System.nanoTime();
+            long wait = 0;
+            if (pausedUntil - now > 0) {
+                wait = pausedUntil - now;
+            } else if (perSecond > 0) {
+                tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * perSecond);
+                refilledAt = now;
+                if (tokens >= 1) {
+                    tokens -= 1;
+                } else {
+                    wait = Math.max(1, (long) ((1 - tokens) / perSecond * 1e9));
+                }
+            }
+            if (wait > 0) {
+                if (blockedSince < 0) {
+                    blockedSince = now;
+                }
+                return wait;
+            }
+            if (blockedSince >= 0) {
+                throttledNanos.addAndGet(now - blockedSince);
+                blockedSince = -1;
+            }
+            return 0;
+        }
+
+        /**
+         * Hold back the webhook after a 429 response, for as long as its <code>Retry-After</code> header asks for.
+         *
+         * @return the error to fail the post with, so it is retried once the webhook is ready again
+         */
+        public RetryLaterException throttled(HttpResponseException response) {
+            long millis = retryAfterMillis(response.getHeaders().getRetryAfter());
+            synchronized (this) {
+                pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+            }
+            throttledResponses.incrementAndGet();
+            LOG.warn(String.format("Webhook %s is throttling us, pausing it for %dms", mask(webhookUrl), millis));
+            return new RetryLaterException(0, TimeUnit.NANOSECONDS, response);
+        }
+
+        public long throttledMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+        }
+
+        public long throttledResponses() {
+            return throttledResponses.get();
+        }
+    }
+}
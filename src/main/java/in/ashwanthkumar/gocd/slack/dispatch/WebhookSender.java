@@ -0,0 +1,73 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.UrlEncodedContent;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.Json;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.IOException;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Posts rendered {@link Delivery deliveries} to their webhook.
+ */
+public class WebhookSender {
+    private static final Logger LOG = Logger.getLoggerFor(WebhookSender.class);
+    private static final int REQUEST_TIMEOUT = 408;
+
+    private final HttpRequestFactory requestFactory;
+
+    public WebhookSender(Proxy proxy) {
+        requestFactory = new NetHttpTransport.Builder()
+                .setProxy(proxy)
+                .build()
+                .createRequestFactory();
+    }
+
+    public void send(Delivery delivery) throws IOException {
+        LOG.debug("Posting " + delivery);
+        HttpContent content;
+        if (delivery.getFormat() == Delivery.Format.SLACK_FORM) {
+            content = new UrlEncodedContent(Collections.singletonMap("payload", delivery.getBody()));
+        } else {
+            content = new ByteArrayContent(Json.MEDIA_TYPE, delivery.getBody().getBytes(StandardCharsets.UTF_8));
+        }
+        // leaves the connection open for the next post to the same host
+        requestFactory.buildPostRequest(new GenericUrl(delivery.getWebhookUrl()), content)
+                .execute()
+                .ignore();
+    }
+
+    /**
+     * Connect to the host of the webhook ahead of the first post, so the post doesn't wait for the TLS handshake.
+     * Only asks the host for the headers of its root, the connection is then kept open for the posts.
+     */
+    public void warmUp(String webhookUrl, int timeoutMillis) throws IOException {
+        GenericUrl root = new GenericUrl(new GenericUrl(webhookUrl).buildAuthority() + "/");
+        requestFactory.buildHeadRequest(root)
+                .setConnectTimeout(timeoutMillis)
+                .setReadTimeout(timeoutMillis)
+                .setThrowExceptionOnExecuteError(false)
+                .execute()
+                .ignore();
+    }
+
+    /**
+     * Network errors, timeouts and server errors are worth another try, other responses like a removed
+     * webhook or a malformed payload would fail the same way again.
+     */
+    public static boolean isRetryable(IOException error) {
+        if (!(error instanceof HttpResponseException)) {
+            return true;
+        }
+        int status = ((HttpResponseException) error).getStatusCode();
+        return status >= 500 || status == REQUEST_TIMEOUT || status == WebhookRateLimiter.TOO_MANY_REQUESTS;
+    }
+}
@@ -9,6 +9,38 @@ public class History {
     @SerializedName("pipelines")
     public Pipeline[] pipelines;
 
+    // size of the JSON the history was read from, for what the history cache holds
+    private transient long approximateSize;
+
+    public long getApproximateSize() {
+        return approximateSize;
+    }
+
+    public History setApproximateSize(long approximateSize) {
+        this.approximateSize = approximateSize;
+        return this;
+    }
+
+    /**
+     * @return true if the history has the given run of the stage, so it was fetched after that run started
+     */
+    public boolean hasStage(int pipelineCounter, String stageName, int stageCounter) {
+        if (pipelines == null) {
+            return false;
+        }
+        for (Pipeline pipeline : pipelines) {
+            if (pipeline.counter != pipelineCounter || pipeline.stages == null) {
+                continue;
+            }
+            for (Stage stage : pipeline.stages) {
+                if (stage.counter == stageCounter && stageName.equals(stage.name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Find the most recent run of the specified stage _before_ this one.
      */
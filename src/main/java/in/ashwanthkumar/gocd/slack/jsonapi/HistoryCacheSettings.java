@@ -0,0 +1,106 @@
+package in.ashwanthkumar.gocd.slack.jsonapi;
+
+import com.typesafe.config.Config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How the history of pipelines fetched from the GoCD API is kept between notifications, read from the optional
+ * <code>history-cache</code> block of the configuration.
+ */
+public class HistoryCacheSettings {
+    public static final int DEFAULT_SIZE = 200;
+    public static final long DEFAULT_TTL_MILLIS = 2 * 60 * 1000; // 2 minutes
+    public static final long DEFAULT_REFRESH_AFTER_MILLIS = 60 * 1000; // 1 minute
+
+    private int size = DEFAULT_SIZE;
+    private long ttlMillis = DEFAULT_TTL_MILLIS;
+    private long refreshAfterMillis = DEFAULT_REFRESH_AFTER_MILLIS;
+
+    /**
+     * How many pipelines to keep the history of, 0 to fetch it for every notification.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public HistoryCacheSettings setSize(int size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * How long a history is used after it was fetched.
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public HistoryCacheSettings setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        return this;
+    }
+
+    /**
+     * Age of a history after which using it fetches it again in the background.
+     */
+    public long getRefreshAfterMillis() {
+        return refreshAfterMillis;
+    }
+
+    public HistoryCacheSettings setRefreshAfterMillis(long refreshAfterMillis) {
+        this.refreshAfterMillis = refreshAfterMillis;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        HistoryCacheSettings that = (HistoryCacheSettings) o;
+
+        if (size != that.size) return false;
+        if (ttlMillis != that.ttlMillis) return false;
+        return refreshAfterMillis == that.refreshAfterMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = size;
+        result = 31 * result + (int) (ttlMillis ^ (ttlMillis >>> 32));
+        result = 31 * result + (int) (refreshAfterMillis ^ (refreshAfterMillis >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryCacheSettings{" +
+                "size=" + size +
+                ", ttlMillis=" + ttlMillis +
+                ", refreshAfterMillis=" + refreshAfterMillis +
+                '}';
+    }
+
+    public static HistoryCacheSettings fromConfig(Config config) {
+        HistoryCacheSettings settings = new HistoryCacheSettings();
+        if (config.hasPath("size")) {
+            settings.setSize(config.getInt("size"));
+        }
+        if (config.hasPath("ttl")) {
+            settings.setTtlMillis(config.getDuration("ttl", TimeUnit.MILLISECONDS));
+        }
+        if (config.hasPath("refresh-after")) {
+            settings.setRefreshAfterMillis(config.getDuration("refresh-after", TimeUnit.MILLISECONDS));
+        } else if (settings.getRefreshAfterMillis() > settings.getTtlMillis()) {
+            settings.setRefreshAfterMillis(settings.getTtlMillis() / 2);
+        }
+        if (settings.getSize() < 0) {
+            throw new IllegalArgumentException("history-cache.size should be 0 or more, but was " + settings.getSize());
+        }
+        if (settings.getRefreshAfterMillis() > settings.getTtlMillis()) {
+            throw new IllegalArgumentException("history-cache.refresh-after should be at most ttl, but was " + settings.getRefreshAfterMillis() + "ms");
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,203 @@
+package in.ashwanthkumar.gocd.slack.jsonapi;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.dispatch.ThreadMode;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The history of the most recently notified pipelines, shared by the notifications of every stage of a pipeline,
+ * so a pipeline whose stages run one after the other isn't fetched from the GoCD API for each of them. The least
+ * recently used pipelines are evicted beyond its size, and a history is only used up to its time to live.
+ * <p>
+ * A history is only used for a stage it already has, it was fetched after the stage started then, so the builds,
+ * approvals and previous runs in it are the ones the notification needs. Otherwise the history is fetched again,
+ * also when it wasn't too old. A history used after its refresh time is fetched again in the background, the
+ * notification goes on with the one it has.
+ */
+public class PipelineHistoryCache {
+    private static final Logger LOG = Logger.getLoggerFor(PipelineHistoryCache.class);
+
+    /**
+     * Fetches the history of a pipeline from the GoCD API.
+     */
+    public interface Loader {
+        History load() throws IOException;
+    }
+
+    private final int capacity;
+    private final long ttlNanos;
+    private final long refreshAfterNanos;
+    // guarded by itself, like the byte count of its entries
+    private final Map<String, Cached> entries;
+    private long bytes;
+    private final ExecutorService refresher;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PipelineHistoryCache(HistoryCacheSettings settings) {
+        this.capacity = settings.getSize();
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(settings.getTtlMillis());
+        this.refreshAfterNanos = TimeUnit.MILLISECONDS.toNanos(settings.getRefreshAfterMillis());
+        this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                if (size() > capacity) {
+                    bytes -= eldest.getValue().history.getApproximateSize();
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        // its thread goes away when idle, so a cache replaced on a reload doesn't keep one
+        this.refresher = capacity > 0 ? ThreadMode.PLATFORM.newExecutor(1, "gocd-slack-history-refresh") : null;
+    }
+
+    /**
+     * The history of a pipeline which has the given run of one of its stages, from the cache if it has one.
+     *
+     * @param key    the pipeline, along with the GoCD server it is on
+     * @param loader fetches the history when the cache has none to use, and in the background to refresh it
+     */
+    public History get(String key, int pipelineCounter, String stageName, int stageCounter, Loader loader) throws IOException {
+        if (capacity == 0) {
+            misses.incrementAndGet();
+            return loader.load();
+        }
+        Cached entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        long age = entry != null ? System.nanoTime() - entry.fetchedAt : Long.MAX_VALUE;
+        if (age >= ttlNanos) {
+            misses.incrementAndGet();
+        } else if (!entry.history.hasStage(pipelineCounter, stageName, stageCounter)) {
+            stale.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+            if (age >= refreshAfterNanos) {
+                refresh(key, entry, loader);
+            }
+            return entry.history;
+        }
+        History history = loader.load();
+        put(key, history);
+        return history;
+    }
+
+    private void refresh(final String key, final Cached entry, final Loader loader) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        put(key, loader.load());
+                        refreshes.incrementAndGet();
+                    } catch (IOException | RuntimeException e) {
+                        LOG.warn("Unable to refresh the history of " + key + ": " + e.getMessage());
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private void put(String key, History history) {
+        if (history == null) {
+            return;
+        }
+        synchronized (entries) {
+            Cached replaced = entries.put(key, new Cached(history));
+            bytes += history.getApproximateSize();
+            if (replaced != null) {
+                bytes -= replaced.history.getApproximateSize();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return about how many bytes the cached histories take, as the size of the JSON they were read from
+     */
+    public long bytesHeld() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return how often a history was in the cache, but didn't have the stage yet
+     */
+    public long staleCount() {
+        return stale.get();
+    }
+
+    public long refreshCount() {
+        return refreshes.get();
+    }
+
+    public long evictionCount() {
+        return evictions.get();
+    }
+
+    public double hitRatio() {
+        long lookups = hitCount() + missCount() + staleCount();
+        return lookups == 0 ? 0 : (double) hitCount() / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Pipeline history cache: %d hits, %d misses, %d stale (%.1f%% hit ratio), %d refreshed, %d evicted, %d of %d cached in about %d bytes",
+                hitCount(), missCount(), staleCount(), hitRatio() * 100, refreshCount(), evictionCount(), size(), capacity, bytesHeld());
+    }
+
+    private static class Cached {
+        private final History history;
+        private final long fetchedAt = System.nanoTime();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Cached(History history) {
+            this.history = history;
+        }
+    }
+}
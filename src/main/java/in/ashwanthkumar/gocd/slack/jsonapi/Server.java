@@ -77,7 +77,11 @@ public class Server {
         URL url = new URL(String.format("%s/go/api/pipelines/%s/history",
                 mRules.getGoAPIServerHost(), pipelineName));
         JsonElement json = getUrl(url);
-        return httpConnectionUtil.convertResponse(json, History.class);
+        History history = httpConnectionUtil.convertResponse(json, History.class);
+        if (history != null && json != null) {
+            history.setApproximateSize(json.toString().length());
+        }
+        return history;
     }
 
     /**
@@ -0,0 +1,179 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigObject;
+import com.typesafe.config.ConfigValueFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A configuration split over the <code>*.conf</code> files of a directory, say one per team. The files are read
+ * in the order of their names: their <code>pipelines</code> are appended one after the other, and for any other
+ * setting a later file overrides an earlier one.
+ * <p>
+ * Each file is read and checked on its own, and only again once it changed. A file which can't be read, or which
+ * has a rule which doesn't make sense, is left out with an error in the log: the version of it read before is
+ * used instead, so a mistake in one file doesn't take down the rules of the others.
+ */
+public class ConfigDirectory {
+    private static final Logger LOG = Logger.getLoggerFor(ConfigDirectory.class);
+    public static final String EXTENSION = ".conf";
+    private static final String PIPELINES = "gocd.slack.pipelines";
+
+    private final File directory;
+    // the last good version of each file by its name, only used by the thread reloading the configuration
+    private final Map<String, Fragment> fragments = new HashMap<>();
+    private boolean complete;
+
+    public ConfigDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Read the files which changed since the last time and merge them with the others.
+     */
+    public Config load() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IllegalStateException("Unable to list the configuration files in " + directory.getAbsolutePath());
+        }
+        Arrays.sort(files);
+        Map<String, Fragment> current = new HashMap<>();
+        Config merged = ConfigFactory.empty();
+        List<Object> pipelines = new ArrayList<>();
+        boolean hasPipelines = false;
+        complete = true;
+        for (File file : files) {
+            if (!file.getName().endsWith(EXTENSION) || file.getName().startsWith(".") || !file.isFile()) {
+                continue;
+            }
+            Fragment fragment = read(file, fragments.get(file.getName()));
+            if (fragment == null) {
+                continue;
+            }
+            current.put(file.getName(), fragment);
+            if (fragment.pipelines != null) {
+                hasPipelines = true;
+                pipelines.addAll(fragment.pipelines);
+            }
+            merged = fragment.settings.withFallback(merged);
+        }
+        fragments.clear();
+        fragments.putAll(current);
+        if (hasPipelines) {
+            merged = merged.withValue(PIPELINES, ConfigValueFactory.fromIterable(pipelines));
+        }
+        return merged;
+    }
+
+    /**
+     * @return the file as read before when it didn't change or can't be read now, null if it was never read
+     */
+    private Fragment read(File file, Fragment previous) {
+        Path realPath;
+        BasicFileAttributes attributes;
+        try {
+            realPath = file.toPath().toRealPath();
+            attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+        } catch (IOException e) {
+            LOG.warn("Unable to read configuration file " + file.getAbsolutePath(), e);
+            complete = false;
+            return previous;
+        }
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (previous != null && previous.isSameFile(realPath, size, lastModified)) {
+            return previous;
+        }
+        try {
+            Config envThenSystem = ConfigFactory.systemEnvironment().withFallback(ConfigFactory.systemProperties());
+            Config config = ConfigFactory.parseFile(file).resolveWith(envThenSystem);
+            validate(config);
+            LOG.info("Read configuration file " + file.getAbsolutePath());
+            return new Fragment(realPath, size, lastModified, config);
+        } catch (RuntimeException e) {
+            complete = false;
+            LOG.error(String.format("Ignoring the changes to %s, %s", file.getAbsolutePath(),
+                    previous != null ? "using the version read before" : "leaving it out"), e);
+            return previous;
+        }
+    }
+
+    /**
+     * Read the rules of the file the way {@link Rules#fromConfig} does, taking what the file doesn't set from the
+     * defaults of the plugin.
+     */
+    private void validate(Config config) {
+        Config withDefaults = config.withFallback(ConfigFactory.defaultReference(getClass().getClassLoader()));
+        PipelineRule.fromConfig(withDefaults.getConfig("gocd.slack.default"));
+        if (config.hasPath(PIPELINES)) {
+            for (Config pipeline : config.getConfigList(PIPELINES)) {
+                PipelineRule.fromConfig(pipeline);
+            }
+        }
+    }
+
+    /**
+     * @return false if the last load left out any changes because a file couldn't be read
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the configuration last read from the file of that name, for tests
+     */
+    Config fragment(String name) {
+        Fragment fragment = fragments.get(name);
+        return fragment != null ? fragment.config : null;
+    }
+
+    /**
+     * A file as it was read, with what it resolved to, its size and its modification time at the time.
+     */
+    private static class Fragment {
+        final Path realPath;
+        final long size;
+        final long lastModified;
+        final Config config;
+        // the file split into its pipelines, as plain maps to append into one list, and everything else
+        final List<Object> pipelines;
+        final Config settings;
+
+        Fragment(Path realPath, long size, long lastModified, Config config) {
+            this.realPath = realPath;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.config = config;
+            if (config.hasPath(PIPELINES)) {
+                this.pipelines = new ArrayList<>();
+                for (ConfigObject pipeline : config.getObjectList(PIPELINES)) {
+                    this.pipelines.add(pipeline.unwrapped());
+                }
+                this.settings = config.withoutPath(PIPELINES);
+            } else {
+                this.pipelines = null;
+                this.settings = config;
+            }
+        }
+
+        boolean isSameFile(Path realPath, long size, long lastModified) {
+            return this.realPath.equals(realPath) && this.size == size && this.lastModified == lastModified;
+        }
+    }
+}
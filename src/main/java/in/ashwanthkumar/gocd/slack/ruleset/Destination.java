@@ -0,0 +1,49 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+/**
+ * Where a notification ends up - the webhook it is posted to and the channel (if any) it is posted in.
+ */
+public class Destination {
+    private final String webhookUrl;
+    private final String channel;
+
+    public Destination(String webhookUrl, String channel) {
+        this.webhookUrl = webhookUrl;
+        this.channel = channel;
+    }
+
+    public String getWebhookUrl() {
+        return webhookUrl;
+    }
+
+    /**
+     * @return the channel (<code>#channel</code>) or user (<code>@user</code>) to post to, or null to post
+     * wherever the webhook is configured to
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Destination that = (Destination) o;
+
+        if (webhookUrl != null ? !webhookUrl.equals(that.webhookUrl) : that.webhookUrl != null) return false;
+        return channel != null ? channel.equals(that.channel) : that.channel == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = webhookUrl != null ? webhookUrl.hashCode() : 0;
+        result = 31 * result + (channel != null ? channel.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return channel == null ? webhookUrl : webhookUrl + " " + channel;
+    }
+}
@@ -0,0 +1,85 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.typesafe.config.Config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for batching the notifications of a rule into one message per destination, read from the
+ * optional <code>digest</code> block of a pipeline rule.
+ */
+public class DigestSettings {
+    public static final long DEFAULT_WINDOW_MILLIS = 30 * 1000; // 30 seconds
+    public static final int DEFAULT_MAX_EVENTS = 20;
+
+    private long windowMillis = DEFAULT_WINDOW_MILLIS;
+    private int maxEvents = DEFAULT_MAX_EVENTS;
+
+    /**
+     * How long notifications are collected before the digest is sent, 0 to send every notification on its own.
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public DigestSettings setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+        return this;
+    }
+
+    /**
+     * Number of notifications which sends the digest right away, without waiting for the window to end.
+     */
+    public int getMaxEvents() {
+        return maxEvents;
+    }
+
+    public DigestSettings setMaxEvents(int maxEvents) {
+        this.maxEvents = maxEvents;
+        return this;
+    }
+
+    public boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DigestSettings that = (DigestSettings) o;
+
+        if (windowMillis != that.windowMillis) return false;
+        return maxEvents == that.maxEvents;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (windowMillis ^ (windowMillis >>> 32));
+        result = 31 * result + maxEvents;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DigestSettings{" +
+                "windowMillis=" + windowMillis +
+                ", maxEvents=" + maxEvents +
+                '}';
+    }
+
+    public static DigestSettings fromConfig(Config config) {
+        DigestSettings settings = new DigestSettings();
+        if (config.hasPath("window")) {
+            settings.setWindowMillis(config.getDuration("window", TimeUnit.MILLISECONDS));
+        }
+        if (config.hasPath("max-events")) {
+            settings.setMaxEvents(config.getInt("max-events"));
+        }
+        if (settings.getMaxEvents() < 1) {
+            throw new IllegalArgumentException("digest.max-events should be at least 1, but was " + settings.getMaxEvents());
+        }
+        return settings;
+    }
+}
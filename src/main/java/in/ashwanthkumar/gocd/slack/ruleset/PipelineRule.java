@@ -1,7 +1,6 @@
 package in.ashwanthkumar.gocd.slack.ruleset;
 
 import com.typesafe.config.Config;
-import in.ashwanthkumar.utils.collections.Iterables;
 import in.ashwanthkumar.utils.collections.Lists;
 import in.ashwanthkumar.utils.func.Predicate;
 import in.ashwanthkumar.utils.lang.StringUtils;
@@ -18,7 +17,13 @@ public class PipelineRule {
     private String channel;
     private String webhookUrl;
     private Set<String> owners = new HashSet<>();
-    private Set<PipelineStatus> status = new HashSet<>();
+    private Set<PipelineStatus> status = EnumSet.noneOf(PipelineStatus.class);
+    private DigestSettings digest;
+    // compiled from the regexes above whenever they are set
+    private StringMatcher nameMatcher;
+    private StringMatcher stageMatcher;
+    private StringMatcher groupMatcher;
+    private StringMatcher labelMatcher;
 
     public PipelineRule() {
     }
@@ -32,11 +37,16 @@ public class PipelineRule {
         this.status = copy.status;
         this.owners = copy.owners;
         this.webhookUrl = copy.webhookUrl;
+        this.digest = copy.digest;
+        this.nameMatcher = copy.nameMatcher;
+        this.stageMatcher = copy.stageMatcher;
+        this.groupMatcher = copy.groupMatcher;
+        this.labelMatcher = copy.labelMatcher;
     }
 
     public PipelineRule(String nameRegex, String stageRegex) {
-        this.nameRegex = nameRegex;
-        this.stageRegex = stageRegex;
+        setNameRegex(nameRegex);
+        setStageRegex(stageRegex);
     }
 
     public String getNameRegex() {
@@ -45,15 +55,43 @@ public class PipelineRule {
 
     public PipelineRule setNameRegex(String nameRegex) {
         this.nameRegex = nameRegex;
+        this.nameMatcher = compile(nameRegex);
         return this;
     }
 
+    StringMatcher getNameMatcher() {
+        return nameMatcher;
+    }
+
+    StringMatcher getStageMatcher() {
+        return stageMatcher;
+    }
+
+    /**
+     * @return the matcher for the group, or null when no group regex is set and any group matches
+     */
+    StringMatcher getGroupMatcher() {
+        return StringUtils.isEmpty(groupRegex) ? null : groupMatcher;
+    }
+
+    StringMatcher getLabelMatcher() {
+        return labelMatcher;
+    }
+
+    /**
+     * @return true if the label of a stage decides whether this rule matches it
+     */
+    boolean usesLabel() {
+        return labelMatcher != null && labelMatcher.getKind() != StringMatcher.Kind.ANY;
+    }
+
     public String getGroupRegex() {
         return groupRegex;
     }
 
     public PipelineRule setGroupRegex(String groupRegex) {
         this.groupRegex = groupRegex;
+        this.groupMatcher = compile(groupRegex);
         return this;
     }
     
@@ -63,6 +101,7 @@ public class PipelineRule {
 
     public PipelineRule setStageRegex(String stageRegex) {
         this.stageRegex = stageRegex;
+        this.stageMatcher = compile(stageRegex);
         return this;
     }
     
@@ -72,6 +111,7 @@ public class PipelineRule {
 
     public PipelineRule setLabelRegex(String labelRegex) {
         this.labelRegex = labelRegex;
+        this.labelMatcher = compile(labelRegex);
         return this;
     }
 
@@ -89,7 +129,7 @@ public class PipelineRule {
     }
 
     public PipelineRule setStatus(Set<PipelineStatus> status) {
-        this.status = status;
+        this.status = status.isEmpty() ? EnumSet.noneOf(PipelineStatus.class) : EnumSet.copyOf(status);
         return this;
     }
 
@@ -111,25 +151,66 @@ public class PipelineRule {
         return this;
     }
 
-    public boolean matches(String pipeline, String stage, String group, String label, final String pipelineState) {
-        return pipeline.matches(nameRegex)
-                && stage.matches(stageRegex)
-                && matchesGroup(group)
-                && Iterables.exists(status, hasStateMatching(pipelineState))
-                && label.matches(labelRegex);
+    /**
+     * @return how notifications of this rule are batched, or null to send each notification on its own
+     */
+    public DigestSettings getDigest() {
+        return digest;
+    }
+
+    public PipelineRule setDigest(DigestSettings digest) {
+        this.digest = digest;
+        return this;
+    }
+
+    public boolean isDigested() {
+        return digest != null && digest.isEnabled();
+    }
+
+    public boolean matches(String pipeline, String stage, String group, String label, String pipelineState) {
+        return matches(pipeline, stage, group, label, PipelineStatus.fromResult(pipelineState));
+    }
+
+    public boolean matches(String pipeline, String stage, String group, String label, PipelineStatus pipelineStatus) {
+        return rejectedBy(pipeline, stage, group, label, pipelineStatus) == null;
+    }
+
+    /**
+     * @return the first check of this rule which doesn't match the stage, or null if the rule matches it
+     */
+    public RuleEvaluation.Check rejectedBy(String pipeline, String stage, String group, String label, PipelineStatus pipelineStatus) {
+        if (!matches(nameMatcher, pipeline)) {
+            return RuleEvaluation.Check.NAME;
+        }
+        if (!matches(stageMatcher, stage)) {
+            return RuleEvaluation.Check.STAGE;
+        }
+        if (!matchesGroup(group)) {
+            return RuleEvaluation.Check.GROUP;
+        }
+        if (!matchesStatus(pipelineStatus)) {
+            return RuleEvaluation.Check.STATUS;
+        }
+        if (!matches(labelMatcher, label)) {
+            return RuleEvaluation.Check.LABEL;
+        }
+        return null;
+    }
+
+    boolean matchesStatus(PipelineStatus pipelineStatus) {
+        return status.contains(pipelineStatus) || status.contains(PipelineStatus.ALL);
     }
 
     private boolean matchesGroup(String group) {
-        return StringUtils.isEmpty(groupRegex) || group.matches(groupRegex);
+        return StringUtils.isEmpty(groupRegex) || groupMatcher.matches(group);
     }
 
-    private Predicate<PipelineStatus> hasStateMatching(final String pipelineState) {
-        return new Predicate<PipelineStatus>() {
-            @Override
-            public Boolean apply(PipelineStatus input) {
-                return input.matches(pipelineState);
-            }
-        };
+    private static boolean matches(StringMatcher matcher, String value) {
+        return matcher != null && matcher.matches(value);
+    }
+
+    private static StringMatcher compile(String regex) {
+        return regex != null ? StringMatcher.compile(regex) : null;
     }
 
     @Override
@@ -147,6 +228,7 @@ public class PipelineRule {
         if (status != null ? !status.equals(that.status) : that.status != null) return false;
         if (owners != null ? !owners.equals(that.owners) : that.owners != null) return false;
         if (webhookUrl != null ? !webhookUrl.equals(that.webhookUrl) : that.webhookUrl != null) return false;
+        if (digest != null ? !digest.equals(that.digest) : that.digest != null) return false;
 
         return true;
     }
@@ -161,6 +243,7 @@ public class PipelineRule {
         result = 31 * result + (status != null ? status.hashCode() : 0);
         result = 31 * result + (owners != null ? owners.hashCode() : 0);
         result = 31 * result + (webhookUrl != null ? webhookUrl.hashCode() : 0);
+        result = 31 * result + (digest != null ? digest.hashCode() : 0);
         return result;
     }
 
@@ -175,6 +258,7 @@ public class PipelineRule {
                 ", status=" + status +
                 ", owners=" + owners +
                 ", webhookUrl=" + webhookUrl +
+                ", digest=" + digest +
                 '}';
     }
 
@@ -193,9 +277,13 @@ public class PipelineRule {
         if (config.hasPath("state")) {
             String stateT = config.getString("state");
             String[] states = stateT.split("\\|");
-            Set<PipelineStatus> status = new HashSet<PipelineStatus>();
+            Set<PipelineStatus> status = EnumSet.noneOf(PipelineStatus.class);
             for (String state : states) {
-                status.add(PipelineStatus.valueOf(state.toUpperCase()));
+                PipelineStatus parsed = PipelineStatus.fromResult(state);
+                if (parsed == null) {
+                    throw new IllegalArgumentException("Unknown state " + state + " in the rule for " + pipelineRule.getNameRegex());
+                }
+                status.add(parsed);
             }
             pipelineRule.setStatus(status);
         }
@@ -214,6 +302,9 @@ public class PipelineRule {
             });
             pipelineRule.getOwners().addAll(nonEmptyOwners);
         }
+        if (config.hasPath("digest")) {
+            pipelineRule.setDigest(DigestSettings.fromConfig(config.getConfig("digest")));
+        }
 
         return pipelineRule;
     }
@@ -226,6 +317,16 @@ public class PipelineRule {
         return pipelineRule;
     }
 
+    /**
+     * A copy of this rule which also mentions the owners of the other rule, used when both rules post to the same destination.
+     */
+    public PipelineRule withOwnersOf(PipelineRule other) {
+        PipelineRule merged = new PipelineRule(this);
+        merged.owners = new HashSet<>(owners);
+        merged.owners.addAll(other.owners);
+        return merged;
+    }
+
     public static PipelineRule merge(PipelineRule pipelineRule, PipelineRule defaultRule) {
         PipelineRule ruleToReturn = new PipelineRule(pipelineRule);
         if (isEmpty(pipelineRule.getNameRegex())) {
@@ -252,6 +353,10 @@ public class PipelineRule {
             ruleToReturn.setWebhookUrl(defaultRule.getWebhookUrl());
         }
 
+        if (pipelineRule.getDigest() == null) {
+            ruleToReturn.setDigest(defaultRule.getDigest());
+        }
+
         if (pipelineRule.getStatus().isEmpty()) {
             ruleToReturn.setStatus(defaultRule.getStatus());
         } else {
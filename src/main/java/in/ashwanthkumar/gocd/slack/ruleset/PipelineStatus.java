@@ -97,8 +97,24 @@ public enum PipelineStatus {
         }
     }
 
+    private static final PipelineStatus[] VALUES = values();
+
     public boolean matches(String state) {
-        return this == ALL || this == PipelineStatus.valueOf(state.toUpperCase());
+        return this == ALL || this == fromResult(state);
+    }
+
+    /**
+     * Parse a stage result, ignoring its case, without creating a string.
+     *
+     * @return null if there is no status of that name, which only rules for all states match
+     */
+    public static PipelineStatus fromResult(String result) {
+        for (PipelineStatus status : VALUES) {
+            if (status.name().equalsIgnoreCase(result)) {
+                return status;
+            }
+        }
+        return null;
     }
 
     public abstract void handle(PipelineListener listener, PipelineRule rule, GoNotificationMessage message) throws Exception;
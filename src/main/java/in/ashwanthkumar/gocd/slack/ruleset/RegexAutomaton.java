@@ -0,0 +1,667 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches a string against many regexes in a single pass, telling which of them match the whole string same as
+ * {@link String#matches(String)} would.
+ * <p>
+ * The regexes are compiled into one NFA, which is turned into a DFA lazily: a DFA state is only built the first
+ * time a string reaches it, and remembered for the strings after it. Only the plain constructs are compiled, that
+ * is literals, <code>.</code>, character classes, <code>\d \w \s</code>, groups, alternation and greedy or lazy
+ * quantifiers. Regexes using anything else, like backreferences, lookarounds or flags, are matched on their own.
+ */
+public class RegexAutomaton {
+    // a lazy DFA keeping more states than this starts over, so odd regexes can't use up the memory
+    private static final int MAX_DFA_STATES = 10000;
+    // a regex expanding to more NFA states than this, say with a large {n,m}, is matched on its own
+    private static final int MAX_NFA_STATES_PER_REGEX = 2000;
+
+    private final int size;
+    private final List<StringMatcher> matchers;
+    // regexes matching null, which the regex engine would choke on
+    private final BitSet matchingNull = new BitSet();
+    // regexes matched on their own
+    private final BitSet fallback = new BitSet();
+    private final Nfa nfa = new Nfa();
+    private final int start;
+    // guarded by this
+    private final Map<DState, DState> dfa = new HashMap<>();
+    private DState initial;
+
+    /**
+     * @param matchers the compiled regexes, a null one never matches
+     */
+    public RegexAutomaton(List<StringMatcher> matchers) {
+        this.size = matchers.size();
+        this.matchers = new ArrayList<>(matchers);
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            StringMatcher matcher = matchers.get(i);
+            if (matcher == null) {
+                continue;
+            }
+            if (matcher.getKind() == StringMatcher.Kind.ANY) {
+                matchingNull.set(i);
+            }
+            int mark = nfa.size();
+            try {
+                Node node = new Parser(matcher.getRegex()).parse();
+                int regexStart = node.compile(nfa, nfa.accept(i));
+                if (nfa.size() - mark > MAX_NFA_STATES_PER_REGEX) {
+                    throw new Unsupported();
+                }
+                starts.add(regexStart);
+            } catch (Unsupported e) {
+                nfa.truncate(mark);
+                fallback.set(i);
+            }
+        }
+        this.start = nfa.split(toArray(starts));
+    }
+
+    /**
+     * @return which of the regexes match the whole value, by position
+     */
+    public BitSet matches(String value) {
+        if (value == null) {
+            return (BitSet) matchingNull.clone();
+        }
+        BitSet matched = new BitSet();
+        if (hasSurrogates(value)) {
+            // the automaton works on chars, so a regex would see a code point as two of them
+            for (int i = 0; i < size; i++) {
+                if (matchers.get(i) != null && matchers.get(i).matches(value)) {
+                    matched.set(i);
+                }
+            }
+            return matched;
+        }
+        matched.or(run(value));
+        for (int i = fallback.nextSetBit(0); i >= 0; i = fallback.nextSetBit(i + 1)) {
+            if (matchers.get(i).matches(value)) {
+                matched.set(i);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * @return how many of the regexes are matched on their own rather than by the automaton
+     */
+    public int fallbackCount() {
+        return fallback.cardinality();
+    }
+
+    private synchronized BitSet run(String value) {
+        if (initial == null) {
+            initial = state(closure(new int[]{start}));
+        }
+        DState state = initial;
+        for (int i = 0; i < value.length() && state.nfaStates.length > 0; i++) {
+            state = next(state, value.charAt(i));
+        }
+        return state.accepts;
+    }
+
+    private DState next(DState state, char c) {
+        DState next = state.get(c);
+        if (next != null) {
+            return next;
+        }
+        List<Integer> moved = new ArrayList<>();
+        for (int s : state.nfaStates) {
+            if (nfa.type[s] == Nfa.CHAR && nfa.chars[s].contains(c)) {
+                moved.add(nfa.outs[s][0]);
+            }
+        }
+        if (dfa.size() >= MAX_DFA_STATES) {
+            dfa.clear();
+            initial = null;
+        }
+        next = state(closure(toArray(moved)));
+        state.put(c, next);
+        return next;
+    }
+
+    private DState state(int[] nfaStates) {
+        DState state = new DState(nfaStates);
+        DState known = dfa.get(state);
+        if (known != null) {
+            return known;
+        }
+        for (int s : nfaStates) {
+            if (nfa.type[s] == Nfa.ACCEPT) {
+                state.accepts.set(nfa.accepts[s]);
+            }
+        }
+        dfa.put(state, state);
+        return state;
+    }
+
+    private int[] closure(int[] from) {
+        BitSet seen = new BitSet();
+        int[] stack = new int[nfa.size()];
+        int top = 0;
+        for (int s : from) {
+            if (!seen.get(s)) {
+                seen.set(s);
+                stack[top++] = s;
+            }
+        }
+        while (top > 0) {
+            int s = stack[--top];
+            if (nfa.type[s] == Nfa.SPLIT) {
+                for (int out : nfa.outs[s]) {
+                    if (!seen.get(out)) {
+                        seen.set(out);
+                        stack[top++] = out;
+                    }
+                }
+            }
+        }
+        // only the states which consume a char or accept tell DFA states apart
+        List<Integer> kept = new ArrayList<>();
+        for (int s = seen.nextSetBit(0); s >= 0; s = seen.nextSetBit(s + 1)) {
+            if (nfa.type[s] != Nfa.SPLIT) {
+                kept.add(s);
+            }
+        }
+        return toArray(kept);
+    }
+
+    private static boolean hasSurrogates(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isSurrogate(value.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static class DState {
+        final int[] nfaStates;
+        final BitSet accepts = new BitSet();
+        final DState[] ascii = new DState[128];
+        Map<Character, DState> others;
+
+        DState(int[] nfaStates) {
+            this.nfaStates = nfaStates;
+        }
+
+        DState get(char c) {
+            if (c < 128) {
+                return ascii[c];
+            }
+            return others != null ? others.get(c) : null;
+        }
+
+        void put(char c, DState next) {
+            if (c < 128) {
+                ascii[c] = next;
+                return;
+            }
+            if (others == null) {
+                others = new HashMap<>();
+            }
+            others.put(c, next);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof DState && Arrays.equals(nfaStates, ((DState) o).nfaStates);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(nfaStates);
+        }
+    }
+
+    /**
+     * NFA states in parallel arrays: a state either consumes a char of a set, splits into several states
+     * without consuming anything, or accepts for one of the regexes.
+     */
+    private static class Nfa {
+        static final int CHAR = 0;
+        static final int SPLIT = 1;
+        static final int ACCEPT = 2;
+
+        int[] type = new int[64];
+        CharSet[] chars = new CharSet[64];
+        int[][] outs = new int[64][];
+        int[] accepts = new int[64];
+        private int count;
+
+        int size() {
+            return count;
+        }
+
+        void truncate(int size) {
+            count = size;
+        }
+
+        int chars(CharSet set, int out) {
+            int s = add(CHAR);
+            chars[s] = set;
+            outs[s] = new int[]{out};
+            return s;
+        }
+
+        int split(int... to) {
+            int s = add(SPLIT);
+            outs[s] = to;
+            return s;
+        }
+
+        int accept(int regex) {
+            int s = add(ACCEPT);
+            accepts[s] = regex;
+            return s;
+        }
+
+        private int add(int stateType) {
+            if (count == type.length) {
+                int grown = count * 2;
+                type = Arrays.copyOf(type, grown);
+                chars = Arrays.copyOf(chars, grown);
+                outs = Arrays.copyOf(outs, grown);
+                accepts = Arrays.copyOf(accepts, grown);
+            }
+            type[count] = stateType;
+            chars[count] = null;
+            outs[count] = null;
+            return count++;
+        }
+    }
+
+    /**
+     * A set of chars as sorted, disjoint, inclusive ranges.
+     */
+    static class CharSet {
+        private static final CharSet DIGITS = new CharSet(new int[]{'0', '9'});
+        private static final CharSet WORD = new CharSet(new int[]{'0', '9', 'A', 'Z', '_', '_', 'a', 'z'});
+        private static final CharSet SPACE = new CharSet(new int[]{'\t', '\r', ' ', ' '});
+        // . matches anything but a line terminator
+        private static final CharSet DOT = new CharSet(new int[]{'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029}).complement();
+
+        private final int[] ranges;
+
+        CharSet(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        static CharSet of(char c) {
+            return new CharSet(new int[]{c, c});
+        }
+
+        boolean contains(char c) {
+            for (int i = 0; i < ranges.length && ranges[i] <= c; i += 2) {
+                if (c <= ranges[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        CharSet complement() {
+            List<Integer> complement = new ArrayList<>();
+            int from = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > from) {
+                    complement.add(from);
+                    complement.add(ranges[i] - 1);
+                }
+                from = ranges[i + 1] + 1;
+            }
+            if (from <= Character.MAX_VALUE) {
+                complement.add(from);
+                complement.add((int) Character.MAX_VALUE);
+            }
+            return new CharSet(toArray(complement));
+        }
+
+        static CharSet union(List<int[]> parts) {
+            List<int[]> sorted = new ArrayList<>();
+            for (int[] part : parts) {
+                for (int i = 0; i < part.length; i += 2) {
+                    sorted.add(new int[]{part[i], part[i + 1]});
+                }
+            }
+            Collections.sort(sorted, new Comparator<int[]>() {
+                @Override
+                public int compare(int[] a, int[] b) {
+                    return Integer.compare(a[0], b[0]);
+                }
+            });
+            List<Integer> merged = new ArrayList<>();
+            for (int[] range : sorted) {
+                int last = merged.size() - 1;
+                if (last > 0 && range[0] <= merged.get(last) + 1) {
+                    merged.set(last, Math.max(merged.get(last), range[1]));
+                } else {
+                    merged.add(range[0]);
+                    merged.add(range[1]);
+                }
+            }
+            return new CharSet(toArray(merged));
+        }
+    }
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private interface Node {
+        /**
+         * Add the states matching this node to the NFA, continuing with the given state.
+         *
+         * @return the state to start matching this node from
+         */
+        int compile(Nfa nfa, int next);
+    }
+
+    private static class Chars implements Node {
+        final CharSet set;
+
+        Chars(CharSet set) {
+            this.set = set;
+        }
+
+        @Override
+        public int compile(Nfa nfa, int next) {
+            return nfa.chars(set, next);
+        }
+    }
+
+    private static class Sequence implements Node {
+        final List<Node> nodes;
+
+        Sequence(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public int compile(Nfa nfa, int next) {
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                next = nodes.get(i).compile(nfa, next);
+            }
+            return next;
+        }
+    }
+
+    private static class Alternation implements Node {
+        final List<Node> alternatives;
+
+        Alternation(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        public int compile(Nfa nfa, int next) {
+            int[] starts = new int[alternatives.size()];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = alternatives.get(i).compile(nfa, next);
+            }
+            return nfa.split(starts);
+        }
+    }
+
+    private static class Repeat implements Node {
+        static final int UNBOUNDED = -1;
+
+        final Node node;
+        final int min;
+        final int max;
+
+        Repeat(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public int compile(Nfa nfa, int next) {
+            if (max == UNBOUNDED) {
+                // a loop: either go round the node again or carry on
+                int loop = nfa.split();
+                // compiling the node may grow the arrays of the NFA, so only look them up after it
+                int body = node.compile(nfa, loop);
+                nfa.outs[loop] = new int[]{body, next};
+                next = loop;
+            } else {
+                for (int i = min; i < max; i++) {
+                    next = nfa.split(node.compile(nfa, next), next);
+                }
+            }
+            for (int i = 0; i < min; i++) {
+                next = node.compile(nfa, next);
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Parses the constructs the automaton can compile, throwing {@link Unsupported} for anything else. Only
+     * regexes which {@link java.util.regex.Pattern} has already accepted are parsed.
+     */
+    private static class Parser {
+        private static final int MAX_REPEAT = 100;
+
+        private final String regex;
+        private int at;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        Node parse() {
+            if (regex.startsWith("^")) {
+                // only anchors the first alternative, which starts at the start of the string anyway
+                at++;
+            }
+            Node node = alternation();
+            if (at != regex.length()) {
+                throw new Unsupported();
+            }
+            return node;
+        }
+
+        private Node alternation() {
+            List<Node> alternatives = new ArrayList<>();
+            alternatives.add(sequence());
+            while (at < regex.length() && regex.charAt(at) == '|') {
+                at++;
+                alternatives.add(sequence());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+        }
+
+        private Node sequence() {
+            List<Node> nodes = new ArrayList<>();
+            while (at < regex.length() && regex.charAt(at) != '|' && regex.charAt(at) != ')') {
+                if (regex.charAt(at) == '$' && at == regex.length() - 1) {
+                    // matches(...) has to reach the end of the string anyway
+                    at++;
+                    break;
+                }
+                nodes.add(quantified(atom()));
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new Sequence(nodes);
+        }
+
+        private Node quantified(Node node) {
+            if (at >= regex.length()) {
+                return node;
+            }
+            int min;
+            int max;
+            char c = regex.charAt(at);
+            if (c == '*') {
+                min = 0;
+                max = Repeat.UNBOUNDED;
+                at++;
+            } else if (c == '+') {
+                min = 1;
+                max = Repeat.UNBOUNDED;
+                at++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                at++;
+            } else if (c == '{') {
+                int close = regex.indexOf('}', at);
+                if (close < 0) {
+                    throw new Unsupported();
+                }
+                String[] bounds = regex.substring(at + 1, close).split(",", -1);
+                try {
+                    min = Integer.parseInt(bounds[0]);
+                    max = bounds.length == 1 ? min : bounds[1].isEmpty() ? Repeat.UNBOUNDED : Integer.parseInt(bounds[1]);
+                } catch (NumberFormatException e) {
+                    throw new Unsupported();
+                }
+                if (bounds.length > 2 || min > MAX_REPEAT || max > MAX_REPEAT || (max != Repeat.UNBOUNDED && max < min)) {
+                    throw new Unsupported();
+                }
+                at = close + 1;
+            } else {
+                return node;
+            }
+            if (at < regex.length()) {
+                char modifier = regex.charAt(at);
+                if (modifier == '?') {
+                    // lazy only changes which match is found, not whether there is one
+                    at++;
+                } else if (modifier == '+' || modifier == '*' || modifier == '{') {
+                    throw new Unsupported();
+                }
+            }
+            return new Repeat(node, min, max);
+        }
+
+        private Node atom() {
+            char c = regex.charAt(at++);
+            switch (c) {
+                case '(':
+                    if (regex.startsWith("?:", at)) {
+                        at += 2;
+                    } else if (at < regex.length() && regex.charAt(at) == '?') {
+                        throw new Unsupported();
+                    }
+                    Node group = alternation();
+                    if (at >= regex.length() || regex.charAt(at) != ')') {
+                        throw new Unsupported();
+                    }
+                    at++;
+                    return group;
+                case '[':
+                    return new Chars(charClass());
+                case '.':
+                    return new Chars(CharSet.DOT);
+                case '\\':
+                    return new Chars(escape());
+                case '^':
+                case '$':
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                case '}':
+                case ']':
+                case ')':
+                    throw new Unsupported();
+                default:
+                    if (Character.isSurrogate(c)) {
+                        throw new Unsupported();
+                    }
+                    return new Chars(CharSet.of(c));
+            }
+        }
+
+        private CharSet escape() {
+            if (at >= regex.length()) {
+                throw new Unsupported();
+            }
+            char c = regex.charAt(at++);
+            switch (c) {
+                case 'd':
+                    return CharSet.DIGITS;
+                case 'D':
+                    return CharSet.DIGITS.complement();
+                case 'w':
+                    return CharSet.WORD;
+                case 'W':
+                    return CharSet.WORD.complement();
+                case 's':
+                    return CharSet.SPACE;
+                case 'S':
+                    return CharSet.SPACE.complement();
+                default:
+                    // an escaped letter or digit is a construct of its own, anything else stands for itself
+                    if (c < 128 && !Character.isLetterOrDigit(c)) {
+                        return CharSet.of(c);
+                    }
+                    throw new Unsupported();
+            }
+        }
+
+        private CharSet charClass() {
+            boolean negated = false;
+            if (at < regex.length() && regex.charAt(at) == '^') {
+                negated = true;
+                at++;
+            }
+            List<int[]> parts = new ArrayList<>();
+            boolean first = true;
+            while (true) {
+                if (at >= regex.length()) {
+                    throw new Unsupported();
+                }
+                char c = regex.charAt(at);
+                if (c == ']' && !first) {
+                    at++;
+                    break;
+                }
+                if (c == ']' || c == '[' || regex.startsWith("&&", at) || Character.isSurrogate(c)) {
+                    throw new Unsupported();
+                }
+                first = false;
+                at++;
+                if (c == '\\') {
+                    parts.add(escape().ranges);
+                    continue;
+                }
+                if (at + 1 < regex.length() && regex.charAt(at) == '-' && regex.charAt(at + 1) != ']') {
+                    char to = regex.charAt(at + 1);
+                    if (to == '\\' || to == '[' || Character.isSurrogate(to) || to < c) {
+                        throw new Unsupported();
+                    }
+                    at += 2;
+                    parts.add(new int[]{c, to});
+                } else {
+                    parts.add(new int[]{c, c});
+                }
+            }
+            CharSet set = CharSet.union(parts);
+            return negated ? set.complement() : set;
+        }
+    }
+}
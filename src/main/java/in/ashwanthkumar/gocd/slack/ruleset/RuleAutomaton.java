@@ -0,0 +1,86 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Finds the matching rules with one {@link RegexAutomaton} per field: a single pass over the pipeline name
+ * gives every rule whose name regex matches it, which is narrowed down by the rules whose stage, group and
+ * label regexes match. The status of the rules left is checked last, in rule order.
+ */
+public class RuleAutomaton implements RuleLookup {
+    private static Logger LOGGER = Logger.getLoggerFor(RuleAutomaton.class);
+
+    private final List<PipelineRule> rules;
+    private final RegexAutomaton names;
+    private final RegexAutomaton stages;
+    private final RegexAutomaton groups;
+    // rules without a group regex, matching any group
+    private final BitSet anyGroup = new BitSet();
+    private final RegexAutomaton labels;
+    private final boolean labelled;
+
+    public RuleAutomaton(List<PipelineRule> rules) {
+        this.rules = new ArrayList<>(rules);
+        List<StringMatcher> nameMatchers = new ArrayList<>();
+        List<StringMatcher> stageMatchers = new ArrayList<>();
+        List<StringMatcher> groupMatchers = new ArrayList<>();
+        List<StringMatcher> labelMatchers = new ArrayList<>();
+        boolean labelled = false;
+        for (int i = 0; i < this.rules.size(); i++) {
+            PipelineRule rule = this.rules.get(i);
+            nameMatchers.add(rule.getNameMatcher());
+            stageMatchers.add(rule.getStageMatcher());
+            groupMatchers.add(rule.getGroupMatcher());
+            if (rule.getGroupMatcher() == null) {
+                anyGroup.set(i);
+            }
+            labelMatchers.add(rule.getLabelMatcher());
+            labelled |= rule.usesLabel();
+        }
+        this.names = new RegexAutomaton(nameMatchers);
+        this.stages = new RegexAutomaton(stageMatchers);
+        this.groups = new RegexAutomaton(groupMatchers);
+        this.labels = new RegexAutomaton(labelMatchers);
+        this.labelled = labelled;
+        int fallbacks = names.fallbackCount() + stages.fallbackCount() + groups.fallbackCount() + labels.fallbackCount();
+        if (fallbacks > 0) {
+            LOGGER.info(String.format("%d rule regexes can't be compiled into the rule automaton and are matched on their own", fallbacks));
+        }
+    }
+
+    @Override
+    public List<PipelineRule> find(String pipeline, String stage, String group, String label, PipelineStatus pipelineStatus, boolean all) {
+        List<PipelineRule> found = new ArrayList<>();
+        BitSet matched = names.matches(pipeline);
+        if (!matched.isEmpty()) {
+            matched.and(stages.matches(stage));
+        }
+        if (!matched.isEmpty()) {
+            BitSet groupMatched = groups.matches(group);
+            groupMatched.or(anyGroup);
+            matched.and(groupMatched);
+        }
+        if (!matched.isEmpty()) {
+            matched.and(labels.matches(label));
+        }
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            PipelineRule rule = rules.get(i);
+            if (rule.matchesStatus(pipelineStatus)) {
+                found.add(rule);
+                if (!all) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public boolean isLabelled() {
+        return labelled;
+    }
+}
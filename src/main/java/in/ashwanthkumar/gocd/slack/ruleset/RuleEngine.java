@@ -0,0 +1,29 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.List;
+
+/**
+ * How the rules matching a stage are found.
+ */
+public enum RuleEngine {
+    /**
+     * Look the rules up by pipeline name or name prefix, running the regexes of the rules left one by one.
+     */
+    INDEX {
+        @Override
+        public RuleLookup lookup(List<PipelineRule> rules) {
+            return new RuleIndex(rules);
+        }
+    },
+    /**
+     * Match all the regexes of a field in one pass, for very large rule sets with lots of real regexes.
+     */
+    AUTOMATON {
+        @Override
+        public RuleLookup lookup(List<PipelineRule> rules) {
+            return new RuleAutomaton(rules);
+        }
+    };
+
+    public abstract RuleLookup lookup(List<PipelineRule> rules);
+}
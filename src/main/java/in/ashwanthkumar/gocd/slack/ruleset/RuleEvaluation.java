@@ -0,0 +1,56 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+/**
+ * How a rule fared against a stage: which of its checks rejected the stage, if any, and how long it took.
+ */
+public class RuleEvaluation {
+    /**
+     * The checks of a rule, in the order they run.
+     */
+    public enum Check {
+        NAME, STAGE, GROUP, STATUS, LABEL
+    }
+
+    private final int position;
+    private final PipelineRule rule;
+    private final Check rejectedBy;
+    private final long nanos;
+
+    public RuleEvaluation(int position, PipelineRule rule, Check rejectedBy, long nanos) {
+        this.position = position;
+        this.rule = rule;
+        this.rejectedBy = rejectedBy;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return where the rule is in the configured rules, from 0
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public PipelineRule getRule() {
+        return rule;
+    }
+
+    /**
+     * @return the first check which didn't match, or null if the rule matched
+     */
+    public Check getRejectedBy() {
+        return rejectedBy;
+    }
+
+    public boolean isMatched() {
+        return rejectedBy == null;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%d %s in %dns: %s", position, isMatched() ? "matched" : "rejected by " + rejectedBy, nanos, rule);
+    }
+}
@@ -0,0 +1,155 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Narrows the pipeline rules down to the ones whose name regex can match a pipeline, so finding the rules
+ * for a notification doesn't run every rule's regexes. Rules naming a pipeline are looked up by name, rules
+ * for a name prefix (<code>release-.*</code>) in a trie walked along the pipeline name, and only the rules
+ * with any other regex are always candidates.
+ * <p>
+ * Candidates are returned in the order of the rules, so the first matching candidate is the first matching rule.
+ */
+public class RuleIndex implements RuleLookup {
+    private static final int[] NONE = new int[0];
+
+    private final List<PipelineRule> rules;
+    private final Map<String, int[]> byName = new HashMap<>();
+    private final Node prefixes = new Node();
+    private final int[] residual;
+    private final boolean labelled;
+
+    public RuleIndex(List<PipelineRule> rules) {
+        this.rules = new ArrayList<>(rules);
+        Map<String, List<Integer>> names = new HashMap<>();
+        List<Integer> others = new ArrayList<>();
+        boolean labelled = false;
+        for (int i = 0; i < this.rules.size(); i++) {
+            labelled |= this.rules.get(i).usesLabel();
+            StringMatcher matcher = this.rules.get(i).getNameMatcher();
+            StringMatcher.Kind kind = matcher != null ? matcher.getKind() : null;
+            if (kind == StringMatcher.Kind.LITERAL) {
+                List<Integer> named = names.get(matcher.getLiteral());
+                if (named == null) {
+                    named = new ArrayList<>();
+                    names.put(matcher.getLiteral(), named);
+                }
+                named.add(i);
+            } else if (kind == StringMatcher.Kind.PREFIX) {
+                prefixes.add(matcher.getLiteral(), 0, i);
+            } else if (matcher != null) {
+                others.add(i);
+            }
+            // a rule without a name regex never matches
+        }
+        for (Map.Entry<String, List<Integer>> entry : names.entrySet()) {
+            byName.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        prefixes.seal();
+        residual = toArray(others);
+        this.labelled = labelled;
+    }
+
+    @Override
+    public List<PipelineRule> find(String pipeline, String stage, String group, String label, PipelineStatus pipelineStatus, boolean all) {
+        List<PipelineRule> found = new ArrayList<>();
+        for (int candidate : candidates(pipeline)) {
+            PipelineRule rule = rules.get(candidate);
+            if (rule.matches(pipeline, stage, group, label, pipelineStatus)) {
+                found.add(rule);
+                if (!all) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return positions of the rules whose name regex may match the pipeline, in ascending order
+     */
+    int[] candidates(String pipeline) {
+        List<int[]> parts = new ArrayList<>();
+        int size = residual.length;
+        if (residual.length > 0) {
+            parts.add(residual);
+        }
+        if (pipeline != null) {
+            int[] named = byName.get(pipeline);
+            if (named != null) {
+                parts.add(named);
+                size += named.length;
+            }
+            Node node = prefixes;
+            for (int i = 0; node != null; i++) {
+                if (node.rules.length > 0) {
+                    parts.add(node.rules);
+                    size += node.rules.length;
+                }
+                node = i < pipeline.length() ? node.children.get(pipeline.charAt(i)) : null;
+            }
+        }
+        if (parts.isEmpty()) {
+            return NONE;
+        } else if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        int[] candidates = new int[size];
+        int at = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, candidates, at, part.length);
+            at += part.length;
+        }
+        Arrays.sort(candidates);
+        return candidates;
+    }
+
+    @Override
+    public boolean isLabelled() {
+        return labelled;
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private List<Integer> building = new ArrayList<>();
+        // rules whose prefix ends at this node
+        private int[] rules = NONE;
+
+        void add(String prefix, int at, int rule) {
+            if (at == prefix.length()) {
+                building.add(rule);
+                return;
+            }
+            Node child = children.get(prefix.charAt(at));
+            if (child == null) {
+                child = new Node();
+                children.put(prefix.charAt(at), child);
+            }
+            child.add(prefix, at + 1, rule);
+        }
+
+        void seal() {
+            rules = toArray(building);
+            building = null;
+            for (Node child : children.values()) {
+                child.seal();
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.List;
+
+/**
+ * Finds the pipeline rules matching a stage, built once for the configured rules.
+ */
+public interface RuleLookup {
+    /**
+     * @return the matching rules, in order, or just the first one unless all of them are asked for
+     */
+    List<PipelineRule> find(String pipeline, String stage, String group, String label, PipelineStatus pipelineStatus, boolean all);
+
+    /**
+     * @return false if every rule matches any label, so the label doesn't change which rules are found
+     */
+    boolean isLabelled();
+}
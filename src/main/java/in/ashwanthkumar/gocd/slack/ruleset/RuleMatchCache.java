@@ -0,0 +1,134 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the rules found for the most recently seen stages, evicting the least recently used ones beyond
+ * its capacity. It belongs to one {@link Rules}, so a reloaded configuration starts with an empty cache.
+ */
+public class RuleMatchCache {
+    private final int capacity;
+    // guarded by itself
+    private final Map<Key, List<PipelineRule>> matches;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity how many stages to remember, 0 to not cache anything
+     */
+    public RuleMatchCache(final int capacity) {
+        this.capacity = capacity;
+        this.matches = new LinkedHashMap<Key, List<PipelineRule>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<PipelineRule>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the rules found for the stage before, or null if they have to be found again
+     */
+    public List<PipelineRule> get(Key key) {
+        if (capacity == 0) {
+            return null;
+        }
+        List<PipelineRule> found;
+        synchronized (matches) {
+            found = matches.get(key);
+        }
+        if (found != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return found;
+    }
+
+    public void put(Key key, List<PipelineRule> found) {
+        if (capacity == 0) {
+            return;
+        }
+        synchronized (matches) {
+            matches.put(key, found);
+        }
+    }
+
+    public void clear() {
+        synchronized (matches) {
+            matches.clear();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        synchronized (matches) {
+            return matches.size();
+        }
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Rule match cache: %d hits, %d misses, %d of %d cached", hitCount(), missCount(), size(), capacity);
+    }
+
+    /**
+     * The stage coordinates the rules were found for.
+     */
+    public static class Key {
+        private final String pipeline;
+        private final String stage;
+        private final String group;
+        private final String label;
+        private final PipelineStatus pipelineStatus;
+
+        /**
+         * @param label null when no rule looks at the label, so every label of a stage shares one entry
+         */
+        public Key(String pipeline, String stage, String group, String label, PipelineStatus pipelineStatus) {
+            this.pipeline = pipeline;
+            this.stage = stage;
+            this.group = group;
+            this.label = label;
+            this.pipelineStatus = pipelineStatus;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (pipeline != null ? !pipeline.equals(key.pipeline) : key.pipeline != null) return false;
+            if (stage != null ? !stage.equals(key.stage) : key.stage != null) return false;
+            if (group != null ? !group.equals(key.group) : key.group != null) return false;
+            if (label != null ? !label.equals(key.label) : key.label != null) return false;
+            return pipelineStatus == key.pipelineStatus;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = pipeline != null ? pipeline.hashCode() : 0;
+            result = 31 * result + (stage != null ? stage.hashCode() : 0);
+            result = 31 * result + (group != null ? group.hashCode() : 0);
+            result = 31 * result + (label != null ? label.hashCode() : 0);
+            result = 31 * result + (pipelineStatus != null ? pipelineStatus.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigParseOptions;
+import com.typesafe.config.ConfigRenderOptions;
+import com.typesafe.config.ConfigSyntax;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The rules read from a configuration, saved next to it so the plugin can start with them without parsing and
+ * resolving the configuration again. The snapshot has the pipeline rules as they were compiled, with their
+ * statuses as a bitmask, and every other setting as resolved JSON. It is only used while the hash it was saved
+ * with still matches the configuration files, the defaults of the plugin and the <code>gocd.*</code> system
+ * properties.
+ * <p>
+ * A configuration which substitutes environment variables or includes other files can change without any of its
+ * files changing, so it isn't saved at all.
+ */
+public class RuleSnapshot {
+    private static final Logger LOG = Logger.getLoggerFor(RuleSnapshot.class);
+    public static final String EXTENSION = ".snapshot";
+    private static final int MAGIC = 0x474f4e53; // GONS
+    private static final int VERSION = 1;
+
+    private RuleSnapshot() {
+    }
+
+    /**
+     * @return where the snapshot of the given configuration file or directory is saved
+     */
+    public static File fileFor(File config) {
+        return new File(config.getAbsolutePath() + EXTENSION);
+    }
+
+    /**
+     * Hash of everything the rules of the configuration are read from.
+     *
+     * @return null if the configuration substitutes or includes anything, the rules can't be saved then
+     */
+    public static byte[] hash(File config) throws IOException {
+        MessageDigest digest = sha256();
+        update(digest, "version " + VERSION + " " + Arrays.toString(PipelineStatus.values()));
+        for (String resource : new String[]{"reference.conf", "application.conf", "application.json", "application.properties"}) {
+            Enumeration<URL> urls = RuleSnapshot.class.getClassLoader().getResources(resource);
+            while (urls.hasMoreElements()) {
+                try (InputStream in = urls.nextElement().openStream()) {
+                    digest.update(IOUtils.toByteArray(in));
+                }
+            }
+        }
+        TreeMap<String, String> properties = new TreeMap<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("gocd.")) {
+                properties.put(name, System.getProperty(name));
+            }
+        }
+        update(digest, properties.toString());
+        List<File> files = new ArrayList<>();
+        if (config.isDirectory()) {
+            File[] children = config.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.getName().endsWith(ConfigDirectory.EXTENSION) && !child.getName().startsWith(".") && child.isFile()) {
+                        files.add(child);
+                    }
+                }
+            }
+        } else {
+            files.add(config);
+        }
+        for (File file : files) {
+            byte[] content = Files.readAllBytes(file.toPath());
+            String text = new String(content, StandardCharsets.ISO_8859_1);
+            if (text.contains("${") || text.contains("include")) {
+                return null;
+            }
+            update(digest, file.getName());
+            digest.update(content);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Save the rules, replacing the snapshot in one go. Like the configuration, the snapshot has the credentials
+     * of the GoCD server and the webhooks, so it is only readable by its owner.
+     */
+    public static void write(File snapshot, byte[] hash, Rules rules) throws IOException {
+        Config config = rules.getConfig();
+        if (config == null) {
+            throw new IllegalArgumentException("Only rules read from a configuration can be saved");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(hash.length);
+        out.write(hash);
+        writeString(out, config.withoutPath("pipelines").root().render(ConfigRenderOptions.concise()));
+        List<PipelineRule> pipelineRules = rules.getPipelineRules();
+        out.writeInt(pipelineRules.size());
+        for (PipelineRule rule : pipelineRules) {
+            writeString(out, rule.getNameRegex());
+            writeString(out, rule.getStageRegex());
+            writeString(out, rule.getGroupRegex());
+            writeString(out, rule.getLabelRegex());
+            writeString(out, rule.getChannel());
+            writeString(out, rule.getWebhookUrl());
+            int statuses = 0;
+            for (PipelineStatus status : rule.getStatus()) {
+                statuses |= 1 << status.ordinal();
+            }
+            out.writeInt(statuses);
+            out.writeInt(rule.getOwners().size());
+            for (String owner : rule.getOwners()) {
+                writeString(out, owner);
+            }
+            DigestSettings digest = rule.getDigest();
+            out.writeBoolean(digest != null);
+            if (digest != null) {
+                out.writeLong(digest.getWindowMillis());
+                out.writeInt(digest.getMaxEvents());
+            }
+        }
+        out.flush();
+
+        Path target = snapshot.getAbsoluteFile().toPath();
+        Path temporary = Files.createTempFile(target.getParent(), snapshot.getName(), ".tmp");
+        try {
+            Files.write(temporary, bytes.toByteArray());
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Read the rules back from the snapshot, mapping it into memory.
+     *
+     * @return null if there is no snapshot, it is of another version or it was saved for another configuration
+     */
+    public static Rules read(File snapshot, byte[] hash) {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                LOG.info("Ignoring rule snapshot " + snapshot.getAbsolutePath() + " saved by another version of the plugin");
+                return null;
+            }
+            byte[] saved = new byte[Math.min(in.getInt(), hash.length + 1)];
+            in.get(saved);
+            if (!Arrays.equals(saved, hash)) {
+                LOG.info("Configuration changed since rule snapshot " + snapshot.getAbsolutePath() + " was saved");
+                return null;
+            }
+            Config settings = ConfigFactory.parseString(readString(in), ConfigParseOptions.defaults().setSyntax(ConfigSyntax.JSON));
+            PipelineStatus[] statuses = PipelineStatus.values();
+            int count = in.getInt();
+            List<PipelineRule> pipelineRules = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                PipelineRule rule = new PipelineRule()
+                        .setNameRegex(readString(in))
+                        .setStageRegex(readString(in))
+                        .setGroupRegex(readString(in))
+                        .setLabelRegex(readString(in))
+                        .setChannel(readString(in))
+                        .setWebhookUrl(readString(in));
+                int mask = in.getInt();
+                Set<PipelineStatus> status = EnumSet.noneOf(PipelineStatus.class);
+                for (PipelineStatus candidate : statuses) {
+                    if ((mask & 1 << candidate.ordinal()) != 0) {
+                        status.add(candidate);
+                    }
+                }
+                rule.setStatus(status);
+                int owners = in.getInt();
+                Set<String> ownerSet = new HashSet<>();
+                for (int o = 0; o < owners; o++) {
+                    ownerSet.add(readString(in));
+                }
+                rule.setOwners(ownerSet);
+                if (in.get() != 0) {
+                    rule.setDigest(new DigestSettings().setWindowMillis(in.getLong()).setMaxEvents(in.getInt()));
+                }
+                pipelineRules.add(rule);
+            }
+            return Rules.fromSnapshot(settings, pipelineRules);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to read rule snapshot " + snapshot.getAbsolutePath() + ", reading the configuration instead", e);
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
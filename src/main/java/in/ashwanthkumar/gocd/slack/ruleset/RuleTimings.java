@@ -0,0 +1,165 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import in.ashwanthkumar.gocd.slack.dispatch.ThreadMode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How long each rule takes to evaluate, sampled from the rule lookups: every so many lookups, every rule is
+ * evaluated against the stage and timed, so a rule with a pathological regex shows up whether or not the
+ * lookups would have run it. The rules are timed on a background thread, so the sampled lookup costs no more
+ * than the others.
+ */
+public class RuleTimings {
+    private static final int SLOWEST_LOGGED = 5;
+
+    private final List<PipelineRule> rules;
+    private final int sampleRate;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLongArray totalNanos;
+    private final AtomicLongArray maxNanos;
+    private final AtomicBoolean sampling = new AtomicBoolean();
+
+    /**
+     * @param sampleRate time the rules for one in this many lookups, 0 to never time them
+     */
+    public RuleTimings(List<PipelineRule> rules, int sampleRate) {
+        this.rules = new ArrayList<>(rules);
+        this.sampleRate = sampleRate;
+        this.totalNanos = new AtomicLongArray(rules.size());
+        this.maxNanos = new AtomicLongArray(rules.size());
+    }
+
+    /**
+     * Count a lookup.
+     *
+     * @return true if the rules should be timed for it
+     */
+    public boolean sample() {
+        return sampleRate > 0 && lookups.getAndIncrement() % sampleRate == 0;
+    }
+
+    /**
+     * Time the rules on the background thread rather than on the lookup's. The sample is skipped while the one
+     * before it is still being taken, so samples don't pile up behind a slow rule.
+     *
+     * @param explain evaluates every rule against the stage of the lookup, see {@link Rules#explain}
+     */
+    public void recordLater(final Callable<List<RuleEvaluation>> explain) {
+        if (!sampling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Sampler.INSTANCE.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        record(explain.call());
+                    } catch (Exception e) {
+                        // a rule which fails to evaluate fails the lookups as well, they report it
+                    } finally {
+                        sampling.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sampling.set(false);
+        }
+    }
+
+    public void record(List<RuleEvaluation> evaluations) {
+        for (RuleEvaluation evaluation : evaluations) {
+            int position = evaluation.getPosition();
+            long nanos = evaluation.getNanos();
+            totalNanos.addAndGet(position, nanos);
+            long max;
+            while ((max = maxNanos.get(position)) < nanos && !maxNanos.compareAndSet(position, max, nanos)) {
+                // lost to another sample, try again
+            }
+        }
+        samples.incrementAndGet();
+    }
+
+    public long sampleCount() {
+        return samples.get();
+    }
+
+    /**
+     * @return the rules taking the longest on average, slowest first
+     */
+    public List<Timing> slowest(int count) {
+        List<Timing> timings = new ArrayList<>();
+        long sampled = samples.get();
+        if (sampled == 0) {
+            return timings;
+        }
+        for (int i = 0; i < rules.size(); i++) {
+            timings.add(new Timing(i, rules.get(i), totalNanos.get(i) / sampled, maxNanos.get(i)));
+        }
+        Collections.sort(timings, new Comparator<Timing>() {
+            @Override
+            public int compare(Timing a, Timing b) {
+                return Long.compare(b.meanNanos, a.meanNanos);
+            }
+        });
+        return timings.subList(0, Math.min(count, timings.size()));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format("Slowest rules over %d sampled lookups:", sampleCount()));
+        for (Timing timing : slowest(SLOWEST_LOGGED)) {
+            builder.append("\n  ").append(timing);
+        }
+        return builder.toString();
+    }
+
+    private static class Sampler {
+        static final ExecutorService INSTANCE = ThreadMode.PLATFORM.newExecutor(1, "gocd-slack-rule-timings");
+    }
+
+    public static class Timing {
+        private final int position;
+        private final PipelineRule rule;
+        private final long meanNanos;
+        private final long maxNanos;
+
+        Timing(int position, PipelineRule rule, long meanNanos, long maxNanos) {
+            this.position = position;
+            this.rule = rule;
+            this.meanNanos = meanNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public PipelineRule getRule() {
+            return rule;
+        }
+
+        public long getMeanNanos() {
+            return meanNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d mean %dns, max %dns: %s", position, meanNanos, maxNanos, rule);
+        }
+    }
+}
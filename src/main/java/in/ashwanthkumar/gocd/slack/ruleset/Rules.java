@@ -2,23 +2,38 @@ package in.ashwanthkumar.gocd.slack.ruleset;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigObject;
 import in.ashwanthkumar.gocd.slack.PipelineListener;
+import in.ashwanthkumar.gocd.slack.dispatch.CircuitBreakerSettings;
+import in.ashwanthkumar.gocd.slack.dispatch.DispatchSettings;
+import in.ashwanthkumar.gocd.slack.dispatch.OutboxSettings;
+import in.ashwanthkumar.gocd.slack.dispatch.RateLimitSettings;
+import in.ashwanthkumar.gocd.slack.dispatch.RetrySettings;
+import in.ashwanthkumar.gocd.slack.jsonapi.HistoryCacheSettings;
+import in.ashwanthkumar.gocd.slack.jsonapi.PipelineHistoryCache;
 import in.ashwanthkumar.utils.collections.Lists;
 import in.ashwanthkumar.utils.func.Function;
-import in.ashwanthkumar.utils.func.Predicate;
 import in.ashwanthkumar.utils.lang.StringUtils;
-import in.ashwanthkumar.utils.lang.option.Option;
 
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import static in.ashwanthkumar.gocd.slack.ruleset.PipelineRule.merge;
 
 public class Rules {
 
     private static Logger LOGGER = Logger.getLoggerFor(Rules.class);
+    private static final int DEFAULT_RULE_MATCH_CACHE_SIZE = 1000;
+    private static final int DEFAULT_RULE_TIMING_SAMPLE_RATE = 100;
+    private static final long DEFAULT_WARM_UP_TIMEOUT_MILLIS = 5 * 1000;
 
     private boolean enabled;
     private String webHookUrl;
@@ -34,11 +49,26 @@ public class Rules {
     private boolean displayMaterialChanges;
     private boolean processAllRules;
     private boolean truncateChanges;
+    private long warmUpTimeoutMillis = DEFAULT_WARM_UP_TIMEOUT_MILLIS;
 
     private Proxy proxy;
+    private DispatchSettings dispatchSettings = new DispatchSettings();
+    private OutboxSettings outboxSettings = new OutboxSettings();
+    private RateLimitSettings rateLimitSettings = new RateLimitSettings();
+    private RetrySettings retrySettings = new RetrySettings();
+    private CircuitBreakerSettings circuitBreakerSettings = new CircuitBreakerSettings();
+    private HistoryCacheSettings historyCacheSettings = new HistoryCacheSettings();
+    private PipelineHistoryCache historyCache = new PipelineHistoryCache(historyCacheSettings);
 
     private List<PipelineRule> pipelineRules = new ArrayList<PipelineRule>();
+    private RuleEngine ruleEngine = RuleEngine.INDEX;
+    private RuleLookup ruleLookup = ruleEngine.lookup(pipelineRules);
+    private RuleMatchCache ruleMatchCache = new RuleMatchCache(DEFAULT_RULE_MATCH_CACHE_SIZE);
+    private int ruleTimingSampleRate = DEFAULT_RULE_TIMING_SAMPLE_RATE;
+    private RuleTimings ruleTimings = new RuleTimings(pipelineRules, ruleTimingSampleRate);
     private PipelineListener pipelineListener;
+    // the gocd.slack tree the rules were read from, compared with on a reload
+    private Config config;
 
     public boolean isEnabled() {
         return enabled;
@@ -91,6 +121,9 @@ public class Rules {
 
     public Rules setPipelineRules(List<PipelineRule> pipelineRules) {
         this.pipelineRules = pipelineRules;
+        this.ruleLookup = ruleEngine.lookup(pipelineRules);
+        this.ruleMatchCache.clear();
+        this.ruleTimings = new RuleTimings(pipelineRules, ruleTimingSampleRate);
         return this;
     }
 
@@ -167,6 +200,7 @@ public class Rules {
 
     public Rules setProcessAllRules(boolean processAllRules) {
         this.processAllRules = processAllRules;
+        this.ruleMatchCache.clear();
         return this;
     }
 
@@ -179,6 +213,49 @@ public class Rules {
         return this;
     }
 
+    /**
+     * @return how long the plugin waits at start for the connections to the webhooks and the GoCD API to open,
+     * 0 to not open them ahead of the first notification
+     */
+    public long getWarmUpTimeoutMillis() {
+        return warmUpTimeoutMillis;
+    }
+
+    public Rules setWarmUpTimeoutMillis(long warmUpTimeoutMillis) {
+        this.warmUpTimeoutMillis = warmUpTimeoutMillis;
+        return this;
+    }
+
+    public RuleEngine getRuleEngine() {
+        return ruleEngine;
+    }
+
+    public Rules setRuleEngine(RuleEngine ruleEngine) {
+        this.ruleEngine = ruleEngine;
+        this.ruleLookup = ruleEngine.lookup(pipelineRules);
+        this.ruleMatchCache.clear();
+        return this;
+    }
+
+    public RuleMatchCache getRuleMatchCache() {
+        return ruleMatchCache;
+    }
+
+    public Rules setRuleMatchCacheSize(int size) {
+        this.ruleMatchCache = new RuleMatchCache(size);
+        return this;
+    }
+
+    public RuleTimings getRuleTimings() {
+        return ruleTimings;
+    }
+
+    public Rules setRuleTimingSampleRate(int sampleRate) {
+        this.ruleTimingSampleRate = sampleRate;
+        this.ruleTimings = new RuleTimings(pipelineRules, sampleRate);
+        return this;
+    }
+
     public Proxy getProxy() {
         return proxy;
     }
@@ -188,30 +265,202 @@ public class Rules {
         return this;
     }
 
+    public DispatchSettings getDispatchSettings() {
+        return dispatchSettings;
+    }
+
+    public Rules setDispatchSettings(DispatchSettings dispatchSettings) {
+        this.dispatchSettings = dispatchSettings;
+        return this;
+    }
+
+    public OutboxSettings getOutboxSettings() {
+        return outboxSettings;
+    }
+
+    public Rules setOutboxSettings(OutboxSettings outboxSettings) {
+        this.outboxSettings = outboxSettings;
+        return this;
+    }
+
+    public RateLimitSettings getRateLimitSettings() {
+        return rateLimitSettings;
+    }
+
+    public Rules setRateLimitSettings(RateLimitSettings rateLimitSettings) {
+        this.rateLimitSettings = rateLimitSettings;
+        return this;
+    }
+
+    public RetrySettings getRetrySettings() {
+        return retrySettings;
+    }
+
+    public Rules setRetrySettings(RetrySettings retrySettings) {
+        this.retrySettings = retrySettings;
+        return this;
+    }
+
+    public CircuitBreakerSettings getCircuitBreakerSettings() {
+        return circuitBreakerSettings;
+    }
+
+    public Rules setCircuitBreakerSettings(CircuitBreakerSettings circuitBreakerSettings) {
+        this.circuitBreakerSettings = circuitBreakerSettings;
+        return this;
+    }
+
+    public HistoryCacheSettings getHistoryCacheSettings() {
+        return historyCacheSettings;
+    }
+
+    public Rules setHistoryCacheSettings(HistoryCacheSettings historyCacheSettings) {
+        this.historyCacheSettings = historyCacheSettings;
+        this.historyCache = new PipelineHistoryCache(historyCacheSettings);
+        return this;
+    }
+
+    /**
+     * @return the pipeline history cache, which is kept across reloads as long as its settings don't change
+     */
+    public PipelineHistoryCache getHistoryCache() {
+        return historyCache;
+    }
+
+    /**
+     * Same as {@link #setPipelineRules(List)}, but keeps the rule engine, cache and timings of the previous rules
+     * when the rules are the very same instances, in the same order, and looked up with the same engine.
+     */
+    private Rules setPipelineRules(List<PipelineRule> pipelineRules, Rules previous) {
+        if (previous == null || previous.ruleEngine != ruleEngine || !sameInstances(previous.pipelineRules, pipelineRules)) {
+            return setPipelineRules(pipelineRules);
+        }
+        this.pipelineRules = previous.pipelineRules;
+        this.ruleLookup = previous.ruleLookup;
+        if (previous.processAllRules == processAllRules && previous.ruleMatchCache.getCapacity() == ruleMatchCache.getCapacity()) {
+            this.ruleMatchCache = previous.ruleMatchCache;
+        }
+        this.ruleTimings = previous.ruleTimingSampleRate == ruleTimingSampleRate
+                ? previous.ruleTimings : new RuleTimings(pipelineRules, ruleTimingSampleRate);
+        return this;
+    }
+
+    private static boolean sameInstances(List<PipelineRule> previous, List<PipelineRule> next) {
+        if (previous.size() != next.size()) {
+            return false;
+        }
+        for (int i = 0; i < next.size(); i++) {
+            if (previous.get(i) != next.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public PipelineListener getPipelineListener() {
         return pipelineListener;
     }
 
-    public List<PipelineRule> find(final String pipeline, final String stage, final String group, final String label, final String pipelineStatus) {
-        Predicate<PipelineRule> predicate = new Predicate<PipelineRule>() {
-            public Boolean apply(PipelineRule input) {
-                return input.matches(pipeline, stage, group, label, pipelineStatus);
-            }
-        };
-
-        if(processAllRules) {
-            return Lists.filter(pipelineRules, predicate);
-        } else {
-            List<PipelineRule> found = new ArrayList<PipelineRule>();
-            Option<PipelineRule> match = Lists.find(pipelineRules, predicate);
-            if(match.isDefined()) {
-                found.add(match.get());
-            }
-            return found;
+    /**
+     * Webhook and channel a notification for this rule is posted to, falling back to the global settings
+     * for whatever the rule doesn't override.
+     */
+    public Destination destinationFor(PipelineRule rule) {
+        String webhookUrl = StringUtils.isNotEmpty(rule.getWebhookUrl()) ? rule.getWebhookUrl() : getWebHookUrl();
+        String channel = null;
+        if (isChannel(rule.getChannel())) {
+            channel = rule.getChannel();
+        } else if (isChannel(getSlackChannel())) {
+            channel = getSlackChannel();
+        }
+        return new Destination(webhookUrl, channel);
+    }
+
+    private static boolean isChannel(String channel) {
+        return StringUtils.startsWith(channel, "#") || StringUtils.startsWith(channel, "@");
+    }
+
+    /**
+     * Rules matching the stage, in the order they are configured: all of them with process-all-rules, otherwise
+     * just the first. Looked up with the rule engine, built when the rules are set, and remembered for the
+     * stages seen most recently.
+     */
+    public List<PipelineRule> find(String pipeline, String stage, String group, String label, String pipelineStatus) {
+        return find(pipeline, stage, group, label, PipelineStatus.fromResult(pipelineStatus));
+    }
+
+    public List<PipelineRule> find(final String pipeline, final String stage, final String group, final String label, final PipelineStatus pipelineStatus) {
+        RuleLookup lookup = ruleLookup;
+        RuleMatchCache cache = ruleMatchCache;
+        // .* doesn't match a label with a line terminator, so such a label always goes in the key
+        String labelKey = lookup.isLabelled() || !StringMatcher.ANY.matches(label) ? label : null;
+        RuleMatchCache.Key key = new RuleMatchCache.Key(pipeline, stage, group, labelKey, pipelineStatus);
+        RuleTimings timings = ruleTimings;
+        if (timings.sample()) {
+            timings.recordLater(new Callable<List<RuleEvaluation>>() {
+                @Override
+                public List<RuleEvaluation> call() {
+                    return explain(pipeline, stage, group, label, pipelineStatus);
+                }
+            });
+        }
+        List<PipelineRule> found = cache.get(key);
+        if (found == null) {
+            found = Collections.unmodifiableList(lookup.find(pipeline, stage, group, label, pipelineStatus, processAllRules));
+            cache.put(key, found);
+        }
+        return found;
+    }
+
+    /**
+     * Evaluate every rule against the stage, in order, telling which check rejected each rule and how long the
+     * rule took. Unlike {@link #find} it doesn't stop at the first match and goes around the rule engine and cache.
+     */
+    public List<RuleEvaluation> explain(String pipeline, String stage, String group, String label, PipelineStatus pipelineStatus) {
+        List<PipelineRule> rules = pipelineRules;
+        List<RuleEvaluation> evaluations = new ArrayList<>(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            PipelineRule rule = rules.get(i);
+            long start = System.nanoTime();
+            RuleEvaluation.Check rejectedBy = rule.rejectedBy(pipeline, stage, group, label, pipelineStatus);
+            evaluations.add(new RuleEvaluation(i, rule, rejectedBy, System.nanoTime() - start));
         }
+        return evaluations;
+    }
+
+    public List<RuleEvaluation> explain(String pipeline, String stage, String group, String label, String pipelineStatus) {
+        return explain(pipeline, stage, group, label, PipelineStatus.fromResult(pipelineStatus));
     }
 
     public static Rules fromConfig(Config config) {
+        return fromConfig(config, null);
+    }
+
+    /**
+     * Read the rules again after the configuration changed, reusing what the previous rules had built for the
+     * parts of the configuration which are still the same: the previous rules as a whole when nothing changed,
+     * otherwise the compiled pipeline rules, their rule engine and cache, and the webhook client, rate limiter
+     * and circuit breakers of the listener, and the pipeline history cache.
+     *
+     * @param previous the rules read from the configuration before, or null to read everything from scratch
+     */
+    public static Rules fromConfig(Config config, Rules previous) {
+        if (previous != null && previous.config != null && previous.config.root().equals(config.root())) {
+            return previous;
+        }
+        return fromConfig(config, previous, null);
+    }
+
+    /**
+     * Rules with pipeline rules which were compiled before, read back from a {@link RuleSnapshot}.
+     *
+     * @param settings every setting but the pipelines
+     */
+    static Rules fromSnapshot(Config settings, List<PipelineRule> pipelineRules) {
+        return fromConfig(settings, null, pipelineRules);
+    }
+
+    private static Rules fromConfig(Config config, Rules previous, List<PipelineRule> compiledRules) {
         boolean isEnabled = config.getBoolean("enabled");
 
         String webhookUrl = config.getString("webhookUrl");
@@ -265,11 +514,31 @@ public class Rules {
             processAllRules = config.getBoolean("process-all-rules");
         }
 
+        int ruleMatchCacheSize = DEFAULT_RULE_MATCH_CACHE_SIZE;
+        if (config.hasPath("rule-match-cache-size")) {
+            ruleMatchCacheSize = config.getInt("rule-match-cache-size");
+        }
+
+        int ruleTimingSampleRate = DEFAULT_RULE_TIMING_SAMPLE_RATE;
+        if (config.hasPath("rule-timing-sample-rate")) {
+            ruleTimingSampleRate = config.getInt("rule-timing-sample-rate");
+        }
+
+        RuleEngine ruleEngine = RuleEngine.INDEX;
+        if (config.hasPath("rule-engine")) {
+            ruleEngine = RuleEngine.valueOf(config.getString("rule-engine").toUpperCase());
+        }
+
         boolean truncateChanges = true;
         if(config.hasPath("truncate-changes")) {
             truncateChanges = config.getBoolean("truncate-changes");
         }
 
+        long warmUpTimeoutMillis = DEFAULT_WARM_UP_TIMEOUT_MILLIS;
+        if (config.hasPath("warm-up-timeout")) {
+            warmUpTimeoutMillis = config.getDuration("warm-up-timeout", TimeUnit.MILLISECONDS);
+        }
+
         Proxy proxy = null;
         if (config.hasPath("proxy")) {
             Config proxyConfig = config.getConfig("proxy");
@@ -282,13 +551,33 @@ public class Rules {
             }
         }
 
-        final PipelineRule defaultRule = PipelineRule.fromConfig(config.getConfig("default"), channel);
+        DispatchSettings dispatchSettings = new DispatchSettings();
+        if (config.hasPath("dispatch")) {
+            dispatchSettings = DispatchSettings.fromConfig(config.getConfig("dispatch"));
+        }
 
-        List<PipelineRule> pipelineRules = Lists.map((List<Config>) config.getConfigList("pipelines"), new Function<Config, PipelineRule>() {
-            public PipelineRule apply(Config input) {
-                return merge(PipelineRule.fromConfig(input), defaultRule);
-            }
-        });
+        OutboxSettings outboxSettings = new OutboxSettings();
+        if (config.hasPath("outbox")) {
+            outboxSettings = OutboxSettings.fromConfig(config.getConfig("outbox"));
+        }
+
+        RateLimitSettings rateLimitSettings = new RateLimitSettings();
+        if (config.hasPath("rate-limit")) {
+            rateLimitSettings = RateLimitSettings.fromConfig(config.getConfig("rate-limit"));
+        }
+        RetrySettings retrySettings = new RetrySettings();
+        if (config.hasPath("retry")) {
+            retrySettings = RetrySettings.fromConfig(config.getConfig("retry"));
+        }
+        CircuitBreakerSettings circuitBreakerSettings = new CircuitBreakerSettings();
+        if (config.hasPath("circuit-breaker")) {
+            circuitBreakerSettings = CircuitBreakerSettings.fromConfig(config.getConfig("circuit-breaker"));
+        }
+        HistoryCacheSettings historyCacheSettings = new HistoryCacheSettings();
+        if (config.hasPath("history-cache")) {
+            historyCacheSettings = HistoryCacheSettings.fromConfig(config.getConfig("history-cache"));
+        }
+        List<PipelineRule> pipelineRules = compiledRules != null ? compiledRules : pipelineRules(config, channel, previous);
 
         Rules rules = new Rules()
                 .setEnabled(isEnabled)
@@ -296,7 +585,7 @@ public class Rules {
                 .setSlackChannel(channel)
                 .setSlackDisplayName(displayName)
                 .setSlackUserIcon(iconURL)
-                .setPipelineRules(pipelineRules)
+                .setRuleEngine(ruleEngine)
                 .setGoServerHost(serverHost)
                 .setGoAPIServerHost(apiServerHost)
                 .setGoLogin(login)
@@ -305,10 +594,29 @@ public class Rules {
                 .setDisplayConsoleLogLinks(displayConsoleLogLinks)
                 .setDisplayMaterialChanges(displayMaterialChanges)
                 .setProcessAllRules(processAllRules)
+                .setRuleMatchCacheSize(ruleMatchCacheSize)
+                .setRuleTimingSampleRate(ruleTimingSampleRate)
                 .setTruncateChanges(truncateChanges)
-                .setProxy(proxy);
+                .setWarmUpTimeoutMillis(warmUpTimeoutMillis)
+                .setProxy(proxy)
+                .setDispatchSettings(dispatchSettings)
+                .setOutboxSettings(outboxSettings)
+                .setRateLimitSettings(rateLimitSettings)
+                .setRetrySettings(retrySettings)
+                .setCircuitBreakerSettings(circuitBreakerSettings)
+                .setHistoryCacheSettings(historyCacheSettings)
+                .setPipelineRules(pipelineRules, previous);
+        // rules read back from a snapshot have no pipelines to compare a reload with
+        rules.config = compiledRules == null ? config : null;
+        if (previous != null && previous.historyCacheSettings.equals(historyCacheSettings)) {
+            rules.historyCache = previous.historyCache;
+        }
+        if (previous != null) {
+            LOGGER.info(String.format("Reused %d of %d pipeline rules from the previous configuration", reused(previous.pipelineRules, rules.pipelineRules), rules.pipelineRules.size()));
+        }
         try {
-            rules.pipelineListener = Class.forName(config.getString("listener")).asSubclass(PipelineListener.class).getConstructor(Rules.class).newInstance(rules);
+            Class<? extends PipelineListener> listener = Class.forName(config.getString("listener")).asSubclass(PipelineListener.class);
+            rules.pipelineListener = newListener(listener, rules, previous != null ? previous.pipelineListener : null);
         } catch (Exception e) {
             LOGGER.error("Exception while initializing pipeline listener", e);
             throw new RuntimeException(e);
@@ -316,4 +624,80 @@ public class Rules {
 
         return rules;
     }
+
+    /**
+     * The pipeline rules of the configuration, merged with its default rule. The ones which are configured the
+     * same as in the previous rules are taken from those instead of being compiled again.
+     */
+    private static List<PipelineRule> pipelineRules(Config config, String channel, Rules previous) {
+        final PipelineRule defaultRule = PipelineRule.fromConfig(config.getConfig("default"), channel);
+        final Map<ConfigObject, PipelineRule> compiled = previous != null ? previous.rulesByConfig(config) : Collections.<ConfigObject, PipelineRule>emptyMap();
+
+        return Lists.map((List<Config>) config.getConfigList("pipelines"), new Function<Config, PipelineRule>() {
+            public PipelineRule apply(Config input) {
+                PipelineRule unchanged = compiled.get(input.root());
+                return unchanged != null ? unchanged : merge(PipelineRule.fromConfig(input), defaultRule);
+            }
+        });
+    }
+
+    /**
+     * @return the gocd.slack tree the rules were read from, or null when they were read from a snapshot
+     */
+    Config getConfig() {
+        return config;
+    }
+
+    private static PipelineListener newListener(Class<? extends PipelineListener> listener, Rules rules, PipelineListener previous) throws Exception {
+        if (previous != null) {
+            try {
+                return listener.getConstructor(Rules.class, PipelineListener.class).newInstance(rules, previous);
+            } catch (NoSuchMethodException e) {
+                // a listener which can't take over from the previous one starts from scratch
+            }
+        }
+        return listener.getConstructor(Rules.class).newInstance(rules);
+    }
+
+    /**
+     * The compiled pipeline rules by the configuration they were read from, for a reload of the given
+     * configuration to reuse. Empty when the default rule or the channel changed, since every rule is merged with those.
+     */
+    private Map<ConfigObject, PipelineRule> rulesByConfig(Config next) {
+        if (config == null
+                || !config.getObject("default").equals(next.getObject("default"))
+                || !channelOf(config).equals(channelOf(next))) {
+            return Collections.emptyMap();
+        }
+        List<? extends ConfigObject> sources = config.getObjectList("pipelines");
+        if (sources.size() != pipelineRules.size()) {
+            // the rules were set by hand since
+            return Collections.emptyMap();
+        }
+        Map<ConfigObject, PipelineRule> compiled = new HashMap<>(sources.size() * 2);
+        for (int i = 0; i < sources.size(); i++) {
+            if (!compiled.containsKey(sources.get(i))) {
+                compiled.put(sources.get(i), pipelineRules.get(i));
+            }
+        }
+        return compiled;
+    }
+
+    private static String channelOf(Config config) {
+        return config.hasPath("channel") ? config.getString("channel") : "";
+    }
+
+    private static int reused(List<PipelineRule> previous, List<PipelineRule> next) {
+        Map<PipelineRule, Boolean> seen = new IdentityHashMap<>();
+        for (PipelineRule rule : previous) {
+            seen.put(rule, Boolean.TRUE);
+        }
+        int reused = 0;
+        for (PipelineRule rule : next) {
+            if (seen.containsKey(rule)) {
+                reused++;
+            }
+        }
+        return reused;
+    }
 }
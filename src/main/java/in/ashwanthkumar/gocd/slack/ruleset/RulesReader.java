@@ -17,14 +17,35 @@ public class RulesReader {
         return new RulesReader().load(file);
     }
 
+    /**
+     * Read the file again, reusing whatever the previous rules built for the parts which haven't changed.
+     *
+     * @return the previous rules themselves if nothing changed
+     */
+    public static Rules read(File file, Rules previous) {
+        return new RulesReader().load(file, previous);
+    }
+
+    /**
+     * Read the files of a configuration directory which changed and merge them with the others, reusing whatever
+     * the previous rules built for the parts which haven't changed.
+     */
+    public static Rules read(ConfigDirectory directory, Rules previous) {
+        return new RulesReader().load(directory.load(), previous);
+    }
+
     public static Rules read(String file) {
         return new RulesReader().load(ConfigFactory.parseResources(file));
     }
 
     protected Rules load(Config config) {
+        return load(config, null);
+    }
+
+    protected Rules load(Config config, Rules previous) {
         Config envThenSystem = ConfigFactory.systemEnvironment().withFallback(ConfigFactory.systemProperties());
         Config configWithFallback = config.withFallback(ConfigFactory.load(getClass().getClassLoader())).resolveWith(envThenSystem);
-        return Rules.fromConfig(configWithFallback.getConfig("gocd.slack"));
+        return Rules.fromConfig(configWithFallback.getConfig("gocd.slack"), previous);
     }
 
     public Rules load() {
@@ -34,4 +55,8 @@ public class RulesReader {
     public Rules load(File file) {
         return load(ConfigFactory.parseFile(file));
     }
+
+    public Rules load(File file, Rules previous) {
+        return load(ConfigFactory.parseFile(file), previous);
+    }
 }
@@ -0,0 +1,112 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.regex.Pattern;
+
+/**
+ * Matches a whole string against one of the regexes of a {@link PipelineRule}, compiled once when the rule is
+ * configured rather than for every notification. Regexes which are <code>.*</code>, a plain name, or a plain
+ * name followed by <code>.*</code> are recognised and matched without the regex engine. Like the regex engine,
+ * <code>.*</code> doesn't match line terminators.
+ */
+public abstract class StringMatcher {
+    public enum Kind {
+        ANY, LITERAL, PREFIX, REGEX
+    }
+
+    private static final String ANY_REGEX = ".*";
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    public static final StringMatcher ANY = new StringMatcher(Kind.ANY, ANY_REGEX, "") {
+        @Override
+        public boolean matches(String value) {
+            return value == null || !hasLineTerminator(value, 0);
+        }
+    };
+
+    private final Kind kind;
+    private final String regex;
+    private final String literal;
+
+    private StringMatcher(Kind kind, String regex, String literal) {
+        this.kind = kind;
+        this.regex = regex;
+        this.literal = literal;
+    }
+
+    /**
+     * @return true if the whole value matches, same as {@link String#matches(String)}
+     */
+    public abstract boolean matches(String value);
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getRegex() {
+        return regex;
+    }
+
+    /**
+     * @return the name a {@link Kind#LITERAL} matcher equals or a {@link Kind#PREFIX} matcher starts with
+     */
+    public String getLiteral() {
+        return literal;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + regex;
+    }
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException if the regex is invalid
+     */
+    public static StringMatcher compile(String regex) {
+        if (ANY_REGEX.equals(regex)) {
+            return ANY;
+        }
+        if (isLiteral(regex)) {
+            return new StringMatcher(Kind.LITERAL, regex, regex) {
+                @Override
+                public boolean matches(String value) {
+                    return getLiteral().equals(value);
+                }
+            };
+        }
+        final String prefix = regex.endsWith(ANY_REGEX) ? regex.substring(0, regex.length() - ANY_REGEX.length()) : null;
+        if (prefix != null && isLiteral(prefix)) {
+            return new StringMatcher(Kind.PREFIX, regex, prefix) {
+                @Override
+                public boolean matches(String value) {
+                    return value != null && value.startsWith(getLiteral()) && !hasLineTerminator(value, getLiteral().length());
+                }
+            };
+        }
+        final Pattern pattern = Pattern.compile(regex);
+        return new StringMatcher(Kind.REGEX, regex, null) {
+            @Override
+            public boolean matches(String value) {
+                return value != null && pattern.matcher(value).matches();
+            }
+        };
+    }
+
+    private static boolean hasLineTerminator(String value, int from) {
+        for (int i = from; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLiteral(String regex) {
+        for (int i = 0; i < regex.length(); i++) {
+            if (METACHARACTERS.indexOf(regex.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
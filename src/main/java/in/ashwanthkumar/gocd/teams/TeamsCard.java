@@ -17,6 +17,10 @@ public class TeamsCard {
         this.schema.title = title;
     }
 
+    public String getTitle() {
+        return this.schema.title;
+    }
+
     public void addFact(String name, String value) {
         this.factSection.facts.add(new MessageCardSchema.Fact(name, value));
     }
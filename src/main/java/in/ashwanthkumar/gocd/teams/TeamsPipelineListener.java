@@ -3,14 +3,17 @@ package in.ashwanthkumar.gocd.teams;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import in.ashwanthkumar.gocd.slack.GoNotificationMessage;
 import in.ashwanthkumar.gocd.slack.PipelineListener;
+import in.ashwanthkumar.gocd.slack.dispatch.Delivery;
+import in.ashwanthkumar.gocd.slack.dispatch.DigestEvent;
 import in.ashwanthkumar.gocd.slack.jsonapi.Pipeline;
 import in.ashwanthkumar.gocd.slack.jsonapi.Stage;
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
 import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
 import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 
-import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.List;
 
 /**
  * To enable this for Teams support add the following line to your config:
@@ -20,11 +23,13 @@ import java.net.URISyntaxException;
  */
 public class TeamsPipelineListener extends PipelineListener {
     private static final Logger LOG = Logger.getLoggerFor(TeamsPipelineListener.class);
-    private final TeamsWebhook teams;
 
     public TeamsPipelineListener(Rules rules) {
         super(rules);
-        teams = new TeamsWebhook(rules.getProxy());
+    }
+
+    public TeamsPipelineListener(Rules rules, PipelineListener previous) {
+        super(rules, previous);
     }
 
     private String getWebhook(PipelineRule rule) {
@@ -36,8 +41,14 @@ public class TeamsPipelineListener extends PipelineListener {
         }
     }
 
-    private void sendMessage(PipelineRule rule, GoNotificationMessage message, PipelineStatus status)
-            throws URISyntaxException, IOException {
+    @Override
+    protected Destination destinationFor(PipelineRule rule) {
+        // Teams webhooks are bound to a channel
+        return new Destination(getWebhook(rule), null);
+    }
+
+    @Override
+    protected Delivery render(PipelineRule rule, PipelineStatus status, GoNotificationMessage message) throws URISyntaxException {
         final TeamsCard card = new TeamsCard();
         card.setColor(MessageCardSchema.Color.findColor(status));
         card.addLinkAction("Details", message.goServerUrl(rules.getGoServerHost()));
@@ -58,37 +69,56 @@ public class TeamsPipelineListener extends PipelineListener {
             LOG.warn("Problem with build details", ex);
         }
 
-        teams.send(getWebhook(rule), card);
+        return new Delivery(getWebhook(rule), Delivery.Format.JSON, card.toString(), card.getTitle());
     }
 
+    /**
+     * One card with a fact per stage, without the build details which would need a GoCD API call for each stage.
+     */
+    @Override
+    protected Delivery renderDigest(Destination destination, List<DigestEvent> events) {
+        final TeamsCard card = new TeamsCard();
+        card.setTitle(String.format("%d stage updates", events.size()));
+        MessageCardSchema.Color color = MessageCardSchema.Color.NONE;
+        for (DigestEvent event : events) {
+            PipelineStatus status = event.getStatus();
+            card.addFact(event.getMessage().fullyQualifiedJobName(), String.format("%s %s", status.verb(), status).trim());
+            MessageCardSchema.Color eventColor = MessageCardSchema.Color.findColor(status);
+            if (color != MessageCardSchema.Color.RED && eventColor != MessageCardSchema.Color.NONE) {
+                color = eventColor;
+            }
+        }
+        card.setColor(color);
+        return new Delivery(destination.getWebhookUrl(), Delivery.Format.JSON, card.toString(), card.getTitle());
+    }
 
     @Override
     public void onBuilding(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        sendMessage(rule, message, PipelineStatus.BUILDING);
+        send(render(rule, PipelineStatus.BUILDING, message));
     }
 
     @Override
     public void onPassed(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        sendMessage(rule, message, PipelineStatus.PASSED);
+        send(render(rule, PipelineStatus.PASSED, message));
     }
 
     @Override
     public void onFailed(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        sendMessage(rule, message, PipelineStatus.FAILED);
+        send(render(rule, PipelineStatus.FAILED, message));
     }
 
     @Override
     public void onBroken(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        sendMessage(rule, message, PipelineStatus.BROKEN);
+        send(render(rule, PipelineStatus.BROKEN, message));
     }
 
     @Override
     public void onFixed(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        sendMessage(rule, message, PipelineStatus.FIXED);
+        send(render(rule, PipelineStatus.FIXED, message));
     }
 
     @Override
     public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
-        sendMessage(rule, message, PipelineStatus.CANCELLED);
+        send(render(rule, PipelineStatus.CANCELLED, message));
     }
 }
@@ -0,0 +1,105 @@
+package in.ashwanthkumar.gocd.slack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ConfigWatcherTest {
+    private Path directory;
+    private ConfigWatcher watcher;
+    private final Semaphore changes = new Semaphore(0);
+    private final Runnable onChange = new Runnable() {
+        @Override
+        public void run() {
+            changes.release();
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("config-watcher");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (watcher != null) {
+            watcher.stop();
+        }
+        Files.walk(directory).sorted(java.util.Collections.<Path>reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @Test
+    public void shouldReloadOnceAFileRenamedIntoPlaceSettles() throws Exception {
+        Path config = write(directory.resolve("go_notify.conf"), "enabled = true");
+        watcher = new ConfigWatcher(config.toFile(), 100, 60000, onChange).start();
+        assertThat("loads on start", changes.tryAcquire(5, TimeUnit.SECONDS), is(true));
+
+        Path written = write(directory.resolve("go_notify.conf.tmp"), "enabled = false");
+        Files.move(written, config, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        assertThat("reloads after the rename", changes.tryAcquire(5, TimeUnit.SECONDS), is(true));
+        assertThat("reloads once", changes.tryAcquire(500, TimeUnit.MILLISECONDS), is(false));
+    }
+
+    @Test
+    public void shouldReloadWhenASymlinkedConfigMapIsSwapped() throws Exception {
+        // the layout Kubernetes uses for a ConfigMap volume
+        write(directory.resolve("..v1").resolve("go_notify.conf"), "enabled = true");
+        write(directory.resolve("..v2").resolve("go_notify.conf"), "enabled = false, channel = \"#builds\"");
+        Files.createSymbolicLink(directory.resolve("..data"), Paths.get("..v1"));
+        Path config = Files.createSymbolicLink(directory.resolve("go_notify.conf"), Paths.get("..data/go_notify.conf"));
+        watcher = new ConfigWatcher(config.toFile(), 100, 60000, onChange).start();
+        assertThat("loads on start", changes.tryAcquire(5, TimeUnit.SECONDS), is(true));
+
+        Path swapped = Files.createSymbolicLink(directory.resolve("..data_tmp"), Paths.get("..v2"));
+        Files.move(swapped, directory.resolve("..data"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        assertThat("reloads after the swap", changes.tryAcquire(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void shouldNoticeChangesByPollingAsWell() throws Exception {
+        Path config = write(directory.resolve("go_notify.conf"), "enabled = true");
+        watcher = new ConfigWatcher(config.toFile(), 50, 200, onChange).start();
+        assertThat("loads on start", changes.tryAcquire(5, TimeUnit.SECONDS), is(true));
+
+        Files.setLastModifiedTime(config, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        assertThat("reloads after the change", changes.tryAcquire(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void shouldReloadWhenAFileInAWatchedDirectoryChanges() throws Exception {
+        Path conf = write(directory.resolve("conf.d").resolve("10-api.conf"), "gocd.slack.pipelines = []");
+        watcher = new ConfigWatcher(conf.getParent().toFile(), 100, 60000, onChange).start();
+        assertThat("loads on start", changes.tryAcquire(5, TimeUnit.SECONDS), is(true));
+
+        Files.write(conf, "gocd.slack.pipelines = [{ name = \"api\" }]".getBytes(StandardCharsets.UTF_8));
+        assertThat("reloads after the change", changes.tryAcquire(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void shouldOnlyReloadAFileStartedAsLoadedOnceItChanges() throws Exception {
+        Path config = write(directory.resolve("go_notify.conf"), "enabled = true");
+        watcher = new ConfigWatcher(config.toFile(), 50, 60000, onChange).startLoaded();
+        assertThat("doesn't load on start", changes.tryAcquire(500, TimeUnit.MILLISECONDS), is(false));
+
+        write(config, "enabled = false");
+        assertThat("reloads after the change", changes.tryAcquire(5, TimeUnit.SECONDS), is(true));
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
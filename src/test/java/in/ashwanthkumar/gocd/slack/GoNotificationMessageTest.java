@@ -11,6 +11,8 @@ import java.util.List;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class GoNotificationMessageTest {
@@ -133,6 +135,25 @@ public class GoNotificationMessageTest {
         assertThat(revisions.size(), is(2));
     }
 
+    @Test
+    public void shouldFetchChangesOnlyOnceForAllRules() throws Exception {
+        Server server = mock(Server.class);
+        Pipeline pipeline = pipeline(PIPELINE_NAME, 10);
+        pipeline.buildCause = new BuildCause();
+        pipeline.buildCause.materialRevisions = new MaterialRevision[0];
+        when(server.getPipelineInstance(PIPELINE_NAME, 10)).thenReturn(pipeline);
+
+        GoNotificationMessage message = new GoNotificationMessage(
+                TestUtils.createMockServerFactory(server),
+                info(PIPELINE_NAME, 10)
+        );
+
+        message.fetchChanges(new Rules());
+        message.fetchChanges(new Rules());
+
+        verify(server, times(1)).getPipelineInstance(PIPELINE_NAME, 10);
+    }
+
     private static Pipeline pipeline(String name, int counter) {
         Pipeline pipeline = new Pipeline();
         pipeline.name = name;
@@ -1,6 +1,7 @@
 package in.ashwanthkumar.gocd.slack;
 
 import in.ashwanthkumar.gocd.slack.jsonapi.*;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 import in.ashwanthkumar.gocd.slack.util.TestUtils;
 import org.junit.Test;
@@ -330,6 +331,7 @@ public class GoNotificationMessage_FixStageTest {
         message.tryToFixStageResult(new Rules());
 
         assertThat(message.getStageResult(), is(expectedStatus));
+        assertThat(message.getStageStatus(), is(PipelineStatus.fromResult(expectedStatus)));
     }
 
     /**
@@ -0,0 +1,168 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import in.ashwanthkumar.utils.collections.Sets;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PipelineListenerTest {
+
+    @Test
+    public void shouldNotifyEveryMatchingRuleInParallelEvenWhenOneFails() throws Exception {
+        Rules rules = new Rules()
+                .setWebHookUrl("https://hooks.slack.com/services/x")
+                .setProcessAllRules(true)
+                .setPipelineRules(asList(rule("#team"), rule("#broken"), rule("#release")));
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        final List<String> notified = Collections.synchronizedList(new ArrayList<String>());
+        PipelineListener listener = new RecordingListener(rules) {
+            @Override
+            public void onFailed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+                if (rule.getChannel().equals("#broken")) {
+                    throw new IOException("#broken is down");
+                }
+                bothRunning.countDown();
+                if (bothRunning.await(5, TimeUnit.SECONDS)) {
+                    notified.add(rule.getChannel());
+                }
+            }
+        };
+
+        try {
+            listener.notify(failed());
+            fail("the failure of #broken should be reported");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("#broken is down"));
+        }
+        Collections.sort(notified);
+        assertThat(notified, is(asList("#release", "#team")));
+    }
+
+    @Test
+    public void shouldNotifyEachDestinationOnceWithTheOwnersOfAllItsRules() throws Exception {
+        Rules rules = new Rules()
+                .setWebHookUrl("https://hooks.slack.com/services/x")
+                .setProcessAllRules(true)
+                .setPipelineRules(asList(
+                        rule("#team").setOwners(Sets.of("alice")),
+                        rule("#release"),
+                        rule("#team").setOwners(Sets.of("bob"))));
+        final List<String> notified = Collections.synchronizedList(new ArrayList<String>());
+        PipelineListener listener = new RecordingListener(rules) {
+            @Override
+            public void onFailed(PipelineRule rule, GoNotificationMessage message) {
+                List<String> owners = new ArrayList<>(rule.getOwners());
+                Collections.sort(owners);
+                notified.add(rule.getChannel() + " " + owners);
+            }
+        };
+
+        listener.notify(failed());
+
+        Collections.sort(notified);
+        assertThat(notified, is(asList("#release []", "#team [alice, bob]")));
+    }
+
+    @Test
+    public void shouldShutDownItsLanesOnCloseUnlessTheNextListenerTookThemOver() throws Exception {
+        Rules rules = new Rules()
+                .setWebHookUrl("https://hooks.slack.com/services/x")
+                .setPipelineRules(asList(rule("#team")));
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        ThreadRecordingListener first = new ThreadRecordingListener(rules, null, threads);
+        ThreadRecordingListener next = new ThreadRecordingListener(rules, first, threads);
+        first.close();
+        next.notify(failed());
+        next.close();
+        next.notify(failed());
+
+        assertThat(threads.size(), is(2));
+        assertThat(threads.get(0).startsWith("gocd-slack-fan-out"), is(true));
+        // the pool is gone, so the lane was handed to the shared one
+        assertThat(threads.get(1).startsWith("gocd-slack-lane-deferred"), is(true));
+    }
+
+    private static PipelineRule rule(String channel) {
+        return new PipelineRule("pipeline", ".*")
+                .setLabelRegex(".*")
+                .setChannel(channel)
+                .setStatus(EnumSet.of(PipelineStatus.FAILED));
+    }
+
+    private static GoNotificationMessage failed() {
+        GoNotificationMessage message = mock(GoNotificationMessage.class);
+        when(message.getPipelineName()).thenReturn("pipeline");
+        when(message.getStageName()).thenReturn("build");
+        when(message.getPipelineGroup()).thenReturn("group");
+        when(message.getPipelineLabel()).thenReturn("1");
+        when(message.getStageState()).thenReturn("Failed");
+        when(message.getStageResult()).thenReturn("Failed");
+        when(message.getStageStatus()).thenReturn(PipelineStatus.FAILED);
+        when(message.fullyQualifiedJobName()).thenReturn("pipeline/1/build/1");
+        return message;
+    }
+
+    private static class ThreadRecordingListener extends RecordingListener {
+        private final List<String> threads;
+
+        ThreadRecordingListener(Rules rules, PipelineListener previous, List<String> threads) {
+            super(rules, previous);
+            this.threads = threads;
+        }
+
+        @Override
+        public void onFailed(PipelineRule rule, GoNotificationMessage message) {
+            threads.add(Thread.currentThread().getName());
+        }
+    }
+
+    private static class RecordingListener extends PipelineListener {
+        RecordingListener(Rules rules) {
+            super(rules);
+        }
+
+        RecordingListener(Rules rules, PipelineListener previous) {
+            super(rules, previous);
+        }
+
+        @Override
+        public void onBuilding(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+
+        @Override
+        public void onPassed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+
+        @Override
+        public void onFailed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+
+        @Override
+        public void onBroken(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+
+        @Override
+        public void onFixed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+
+        @Override
+        public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+    }
+}
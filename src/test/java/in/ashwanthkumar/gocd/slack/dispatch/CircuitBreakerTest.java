@@ -0,0 +1,107 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.junit.Test;
+
+import java.net.ConnectException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    private final CircuitBreakerSettings settings = new CircuitBreakerSettings()
+            .setEnabled(true)
+            .setFailureRate(0.5)
+            .setMinimumPosts(4)
+            .setWindowSize(4)
+            .setOpenMillis(50);
+
+    @Test
+    public void shouldOpenOnceTheFailureRateIsReached() {
+        CircuitBreaker breaker = new CircuitBreaker("hooks.slack.com", settings);
+        breaker.succeeded();
+        breaker.failed(new ConnectException());
+        breaker.succeeded();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        breaker.failed(new ConnectException());
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.openedCount(), is(1L));
+        assertTrue(breaker.acquire() > 0);
+        assertThat(breaker.tryAcquire(), is(false));
+        assertThat(breaker.rejectedCount(), is(1L));
+    }
+
+    @Test
+    public void shouldNotCountResponsesWhichShowTheHostIsUp() {
+        CircuitBreaker breaker = new CircuitBreaker("hooks.slack.com", settings);
+        for (int i = 0; i < 10; i++) {
+            breaker.failed(status(404));
+            breaker.failed(status(429));
+        }
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void shouldLetASingleProbeThroughAfterTheOpenPeriod() throws Exception {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(60);
+
+        assertThat(breaker.acquire(), is(0L));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertTrue(breaker.acquire() > 0);
+
+        breaker.succeeded();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.acquire(), is(0L));
+    }
+
+    @Test
+    public void shouldOpenAgainWhenTheProbeFails() throws Exception {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(60);
+
+        assertThat(breaker.acquire(), is(0L));
+        breaker.failed(status(503));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.openedCount(), is(2L));
+        assertTrue(breaker.acquire() > 0);
+    }
+
+    @Test
+    public void shouldLetAnotherProbeThroughWhenTheProbeWasNotPosted() throws Exception {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(60);
+
+        assertThat(breaker.acquire(), is(0L));
+        breaker.released();
+        assertThat(breaker.acquire(), is(0L));
+    }
+
+    @Test
+    public void shouldShareTheBreakerOfAHost() {
+        CircuitBreakers breakers = new CircuitBreakers(settings);
+        CircuitBreaker breaker = breakers.forWebhook("https://hooks.slack.com/services/a");
+        assertThat(breakers.forWebhook("https://hooks.slack.com/services/b"), sameInstance(breaker));
+        assertThat(breakers.forWebhook("https://outlook.office.com/webhook/c"), not(sameInstance(breaker)));
+        assertThat(new CircuitBreakers(new CircuitBreakerSettings()).forWebhook("https://hooks.slack.com/services/a"), nullValue());
+    }
+
+    private CircuitBreaker opened() {
+        CircuitBreaker breaker = new CircuitBreaker("hooks.slack.com", settings);
+        for (int i = 0; i < 4; i++) {
+            breaker.failed(new ConnectException());
+        }
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        return breaker;
+    }
+
+    private static HttpResponseException status(int code) {
+        return new HttpResponseException.Builder(code, null, new HttpHeaders()).build();
+    }
+}
@@ -0,0 +1,97 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DeadLettersTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadBackWhatWasWritten() throws IOException {
+        DeadLetters letters = new DeadLetters(new File(folder.getRoot(), "go_notify.deadletter"));
+        letters.write(new Delivery("https://hooks.slack.com/services/a", Delivery.Format.SLACK_FORM, "{\"text\":\"one\"}", "one"), new SocketTimeoutException("timed out"));
+        letters.write(new Delivery("https://outlook.office.com/webhook/b", Delivery.Format.JSON, "{\"text\":\"two\"}", "two"), new IOException("reset"));
+        assertThat(letters.writtenCount(), is(2L));
+
+        List<DeadLetters.Letter> read = DeadLetters.read(letters.getFile());
+        assertThat(read.size(), is(2));
+        assertThat(read.get(0).getError(), is("java.net.SocketTimeoutException: timed out"));
+        Delivery first = read.get(0).toDelivery();
+        assertThat(first.getWebhookUrl(), is("https://hooks.slack.com/services/a"));
+        assertThat(first.getFormat(), is(Delivery.Format.SLACK_FORM));
+        assertThat(first.getBody(), is("{\"text\":\"one\"}"));
+        assertThat(read.get(1).toDelivery().getFormat(), is(Delivery.Format.JSON));
+    }
+
+    @Test
+    public void shouldWriteBackDeliveriesWhichFailAgainOnReplay() throws IOException {
+        File file = new File(folder.getRoot(), "go_notify.deadletter");
+        DeadLetters letters = new DeadLetters(file);
+        letters.write(new Delivery("https://hooks.slack.com/services/a", Delivery.Format.SLACK_FORM, "ok", "ok"), new IOException("down"));
+        letters.write(new Delivery("https://hooks.slack.com/services/a", Delivery.Format.SLACK_FORM, "broken", "broken"), new IOException("down"));
+
+        WebhookSender sender = mock(WebhookSender.class);
+        doThrow(new HttpResponseException.Builder(500, "Server Error", new HttpHeaders()).build())
+                .when(sender).send(argThat(new org.hamcrest.BaseMatcher<Delivery>() {
+                    @Override
+                    public boolean matches(Object item) {
+                        return item instanceof Delivery && "broken".equals(((Delivery) item).getBody());
+                    }
+
+                    @Override
+                    public void describeTo(org.hamcrest.Description description) {
+                        description.appendText("the broken delivery");
+                    }
+                }));
+
+        assertThat(new DeadLetterReplay(sender).replay(file), is(1));
+        verify(sender, times(2)).send(any(Delivery.class));
+        assertThat(new File(file.getPath() + DeadLetterReplay.REPLAYING_SUFFIX).exists(), is(false));
+        List<DeadLetters.Letter> left = DeadLetters.read(file);
+        assertThat(left.size(), is(1));
+        assertThat(left.get(0).toDelivery().getBody(), is("broken"));
+    }
+
+    @Test
+    public void shouldKeepBackoffWithinTheCeiling() {
+        RetrySettings settings = new RetrySettings().setInitialBackoffMillis(100).setMaxBackoffMillis(1000);
+        for (int i = 0; i < 100; i++) {
+            assertThat(settings.backoffMillis(1) <= 100, is(true));
+            assertThat(settings.backoffMillis(3) <= 400, is(true));
+            assertThat(settings.backoffMillis(50) <= 1000, is(true));
+            assertThat(settings.backoffMillis(50) >= 0, is(true));
+        }
+    }
+
+    @Test
+    public void shouldOnlyRetryErrorsWhichMayGoAway() {
+        assertThat(WebhookSender.isRetryable(new SocketTimeoutException()), is(true));
+        assertThat(WebhookSender.isRetryable(status(503)), is(true));
+        assertThat(WebhookSender.isRetryable(status(429)), is(true));
+        assertThat(WebhookSender.isRetryable(status(408)), is(true));
+        assertThat(WebhookSender.isRetryable(status(404)), is(false));
+        assertThat(WebhookSender.isRetryable(status(400)), is(false));
+    }
+
+    private static HttpResponseException status(int code) {
+        return new HttpResponseException.Builder(code, null, new HttpHeaders()).build();
+    }
+}
@@ -0,0 +1,88 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
+import in.ashwanthkumar.gocd.slack.ruleset.DigestSettings;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static in.ashwanthkumar.gocd.slack.dispatch.NotificationDispatcherTest.message;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class DigesterTest {
+    private static final Destination CHANNEL = new Destination("https://hooks.slack.com/services/", "#gocd");
+    private static final Destination OTHER_CHANNEL = new Destination("https://hooks.slack.com/services/", "#builds");
+
+    @Test
+    public void shouldSendDigestOnceItIsFull() {
+        RecordingSink sink = new RecordingSink(1);
+        Digester digester = new Digester(sink);
+        DigestSettings settings = new DigestSettings().setWindowMillis(60000).setMaxEvents(2);
+
+        digester.add(CHANNEL, event("first"), settings);
+        digester.add(OTHER_CHANNEL, event("other"), settings);
+        assertThat(sink.digests.size(), is(0));
+        digester.add(CHANNEL, event("second"), settings);
+
+        assertThat(sink.digests.size(), is(1));
+        assertThat(sink.digests.get(0).size(), is(2));
+        assertThat(digester.pendingEvents(), is(1));
+        digester.close();
+    }
+
+    @Test
+    public void shouldSendDigestAfterTheWindow() throws Exception {
+        RecordingSink sink = new RecordingSink(1);
+        Digester digester = new Digester(sink);
+
+        digester.add(CHANNEL, event("first"), new DigestSettings().setWindowMillis(50).setMaxEvents(10));
+        digester.add(CHANNEL, event("second"), new DigestSettings().setWindowMillis(50).setMaxEvents(10));
+
+        assertTrue(sink.sent.await(5, TimeUnit.SECONDS));
+        assertThat(sink.digests.get(0).size(), is(2));
+        assertThat(digester.pendingEvents(), is(0));
+        digester.close();
+    }
+
+    @Test
+    public void shouldSendPendingDigestsOnClose() {
+        RecordingSink sink = new RecordingSink(2);
+        Digester digester = new Digester(sink);
+        DigestSettings settings = new DigestSettings().setWindowMillis(60000).setMaxEvents(10);
+
+        digester.add(CHANNEL, event("first"), settings);
+        digester.add(OTHER_CHANNEL, event("other"), settings);
+        digester.close();
+        assertThat(sink.digests.size(), is(2));
+
+        digester.add(CHANNEL, event("late"), settings);
+        assertThat(sink.digests.size(), is(3));
+        assertThat(digester.pendingEvents(), is(0));
+    }
+
+    private static DigestEvent event(String pipeline) {
+        return new DigestEvent(new PipelineRule(pipeline, ".*"), PipelineStatus.FAILED, message(pipeline));
+    }
+
+    private static class RecordingSink implements Digester.Sink {
+        final List<List<DigestEvent>> digests = new ArrayList<>();
+        final CountDownLatch sent;
+
+        RecordingSink(int expected) {
+            this.sent = new CountDownLatch(expected);
+        }
+
+        @Override
+        public synchronized void flush(Destination destination, List<DigestEvent> events) {
+            digests.add(events);
+            sent.countDown();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LaneExecutorTest {
+
+    @Test
+    public void shouldRunTasksOfALaneInOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        LaneExecutor lanes = new LaneExecutor(pool);
+        final List<Integer> seen = Collections.synchronizedList(new ArrayList<Integer>());
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final int value = i;
+            futures.add(lanes.submit("#channel", new Callable<Void>() {
+                @Override
+                public Void call() {
+                    seen.add(value);
+                    return null;
+                }
+            }));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(seen.get(i), is(i));
+        }
+        assertThat(lanes.activeLanes(), is(0));
+    }
+
+    @Test
+    public void shouldRunDifferentLanesInParallel() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        LaneExecutor lanes = new LaneExecutor(pool);
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        Callable<Boolean> task = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                bothRunning.countDown();
+                return bothRunning.await(5, TimeUnit.SECONDS);
+            }
+        };
+
+        CompletableFuture<Boolean> first = lanes.submit("#first", task);
+        CompletableFuture<Boolean> second = lanes.submit("#second", task);
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertTrue(second.get(10, TimeUnit.SECONDS));
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldRunInlineWithDirectLanes() throws Exception {
+        CompletableFuture<String> result = LaneExecutor.direct().submit("#channel", new Callable<String>() {
+            @Override
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        });
+        assertThat(result.isDone(), is(true));
+        assertThat(result.get(), is(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void shouldGiveTheCallingThreadBackWhileADirectLaneWaitsForARetry() throws Exception {
+        final String caller = Thread.currentThread().getName();
+        final AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Void> attempted = new CompletableFuture<>();
+
+        CompletableFuture<String> result = LaneExecutor.direct().submit("#channel", LaneExecutor.Throttle.NONE, Priority.NONE, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new RetryLaterException(50, TimeUnit.MILLISECONDS, null);
+                }
+                return Thread.currentThread().getName();
+            }
+        }, attempted);
+
+        assertThat(attempted.isDone(), is(true));
+        assertThat(result.isDone(), is(false));
+        assertThat(attempts.get(), is(1));
+        assertThat(result.get(5, TimeUnit.SECONDS).equals(caller), is(false));
+        assertThat(attempts.get(), is(3));
+    }
+
+    @Test
+    public void shouldNotRunTheTasksOfAShutDownExecutorOnTheSubmittingThread() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        pool.shutdown();
+        LaneExecutor lanes = new LaneExecutor(pool);
+        final String caller = Thread.currentThread().getName();
+        final AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<String> result = lanes.submit("#channel", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if (attempts.incrementAndGet() < 2) {
+                    throw new RetryLaterException(50, TimeUnit.MILLISECONDS, null);
+                }
+                return Thread.currentThread().getName();
+            }
+        });
+
+        assertThat(result.get(5, TimeUnit.SECONDS).equals(caller), is(false));
+        assertThat(attempts.get(), is(2));
+    }
+
+    @Test
+    public void shouldKeepOtherLanesRunningWhileOneIsThrottled() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        LaneExecutor lanes = new LaneExecutor(pool);
+        final AtomicLong releaseAt = new AtomicLong(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200));
+        LaneExecutor.Throttle throttle = new LaneExecutor.Throttle() {
+            @Override
+            public long acquire() {
+                return Math.max(0, releaseAt.get() - System.nanoTime());
+            }
+        };
+
+        CompletableFuture<String> throttled = lanes.submit("#throttled", throttle, new Callable<String>() {
+            @Override
+            public String call() {
+                return "throttled";
+            }
+        });
+        CompletableFuture<String> other = lanes.submit("#other", new Callable<String>() {
+            @Override
+            public String call() {
+                return "other";
+            }
+        });
+
+        assertThat(other.get(100, TimeUnit.MILLISECONDS), is("other"));
+        assertThat(throttled.isDone(), is(false));
+        assertThat(throttled.get(5, TimeUnit.SECONDS), is("throttled"));
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldRetryTaskAfterTheRequestedDelay() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        LaneExecutor lanes = new LaneExecutor(pool);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<Integer> result = lanes.submit("#channel", new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new RetryLaterException(10, TimeUnit.MILLISECONDS, null);
+                }
+                return attempts.get();
+            }
+        });
+
+        assertThat(result.get(5, TimeUnit.SECONDS), is(3));
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldRunTheMostUrgentTaskFirstKeepingTheOrderOfAnOrderKey() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        LaneExecutor lanes = new LaneExecutor(pool);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final List<String> seen = Collections.synchronizedList(new ArrayList<String>());
+        lanes.submit("#blocker", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                blocking.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        });
+        // the other tasks would otherwise be more urgent than the blocker if the thread hasn't taken it yet
+        assertTrue(blocking.await(5, TimeUnit.SECONDS));
+
+        lanes.submit("#channel", LaneExecutor.Throttle.NONE, new Priority(1, "first"), recording(seen, "first building"));
+        lanes.submit("#channel", LaneExecutor.Throttle.NONE, new Priority(2, "second"), recording(seen, "second passed"));
+        lanes.submit("#channel", LaneExecutor.Throttle.NONE, new Priority(5, "first"), recording(seen, "first failed"));
+        CompletableFuture<Void> last = lanes.submit("#other", LaneExecutor.Throttle.NONE, new Priority(6, "third"), recording(seen, "third broken"));
+        release.countDown();
+        last.get(5, TimeUnit.SECONDS);
+        while (lanes.activeLanes() > 0) {
+            Thread.sleep(5);
+        }
+        pool.shutdown();
+
+        assertThat(seen.toString(), is("[third broken, second passed, first building, first failed]"));
+    }
+
+    @Test
+    public void shouldRaiseThePriorityOfTasksWhichWaitedLong() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        LaneExecutor lanes = new LaneExecutor(pool, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final List<String> seen = Collections.synchronizedList(new ArrayList<String>());
+        lanes.submit("#blocker", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                blocking.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        });
+        // the other tasks would otherwise be more urgent than the blocker if the thread hasn't taken it yet
+        assertTrue(blocking.await(5, TimeUnit.SECONDS));
+
+        lanes.submit("#channel", LaneExecutor.Throttle.NONE, new Priority(1, "old"), recording(seen, "old"));
+        Thread.sleep(100);
+        lanes.submit("#channel", LaneExecutor.Throttle.NONE, new Priority(3, "new"), recording(seen, "new"));
+        release.countDown();
+        while (lanes.activeLanes() > 0) {
+            Thread.sleep(5);
+        }
+        pool.shutdown();
+
+        assertThat(seen.toString(), is("[old, new]"));
+    }
+
+    private static Callable<Void> recording(final List<String> seen, final String name) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                seen.add(name);
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,238 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import in.ashwanthkumar.gocd.slack.GoNotificationMessage;
+import in.ashwanthkumar.gocd.slack.PipelineListener;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NotificationDispatcherTest {
+
+    @Test
+    public void shouldRunListenerOnWorkerThread() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(new DispatchSettings().setAsync(true));
+        PipelineListener listener = listener();
+
+        assertThat(dispatcher.dispatch(listener, message("pipeline")), is(true));
+        dispatcher.shutdown();
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+
+        verify(listener, times(1)).notifyAsync(any(GoNotificationMessage.class), any(LaneExecutor.class));
+        assertThat(dispatcher.acceptedCount(), is(1L));
+        assertThat(dispatcher.completedCount(), is(1L));
+    }
+
+    @Test
+    public void shouldRejectWhenQueueIsFull() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(new DispatchSettings().setAsync(true).setWorkers(1).setQueueSize(1));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        PipelineListener listener = listener();
+        doAnswer(new Answer<CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                return CompletableFuture.completedFuture(null);
+            }
+        }).when(listener).notifyAsync(any(GoNotificationMessage.class), any(LaneExecutor.class));
+
+        assertThat(dispatcher.dispatch(listener, message("first")), is(true));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertThat(dispatcher.dispatch(listener, message("second")), is(true));
+        assertThat(dispatcher.queueDepth(), is(1));
+        assertThat(dispatcher.dispatch(listener, message("third")), is(false));
+        assertThat(dispatcher.rejectedCount(), is(1L));
+
+        release.countDown();
+        dispatcher.shutdown();
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+        assertThat(dispatcher.completedCount(), is(2L));
+    }
+
+    @Test
+    public void shouldDeliverWithVirtualThreadsOrFallBackToPlatformThreads() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(new DispatchSettings().setAsync(true).setThreads(ThreadMode.VIRTUAL));
+        PipelineListener listener = listener();
+
+        assertThat(dispatcher.dispatch(listener, message("first")), is(true));
+        assertThat(dispatcher.dispatch(listener, message("second")), is(true));
+        dispatcher.shutdown();
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+
+        verify(listener, times(2)).notifyAsync(any(GoNotificationMessage.class), any(LaneExecutor.class));
+        assertThat(dispatcher.completedCount(), is(2L));
+    }
+
+    @Test
+    public void shouldReplaceQueuedNotificationOfSameStageRun() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(new DispatchSettings().setAsync(true).setWorkers(1).setCoalesceWindowMillis(60000));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        PipelineListener listener = listener();
+        GoNotificationMessage running = message("pipeline");
+        GoNotificationMessage building = message("pipeline");
+        GoNotificationMessage passed = message("pipeline");
+        doAnswer(new Answer<CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                return CompletableFuture.completedFuture(null);
+            }
+        }).when(listener).notifyAsync(eq(running), any(LaneExecutor.class));
+        final AtomicInteger delivered = new AtomicInteger();
+        Runnable onDelivered = new Runnable() {
+            @Override
+            public void run() {
+                delivered.incrementAndGet();
+            }
+        };
+
+        assertThat(dispatcher.dispatch(listener, running, onDelivered), is(true));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertThat(dispatcher.dispatch(listener, building, onDelivered), is(true));
+        assertThat(dispatcher.dispatch(listener, passed, onDelivered), is(true));
+        assertThat(dispatcher.coalescedCount(), is(1L));
+        assertThat(dispatcher.queueDepth(), is(1));
+
+        release.countDown();
+        dispatcher.shutdown();
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+        verify(listener, never()).notifyAsync(eq(building), any(LaneExecutor.class));
+        verify(listener, times(1)).notifyAsync(eq(passed), any(LaneExecutor.class));
+        assertThat(delivered.get(), is(3));
+    }
+
+    @Test
+    public void shouldWaitForDeliveriesStillInFlight() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(new DispatchSettings().setAsync(true));
+        PipelineListener listener = listener();
+        final CompletableFuture<Void> delivery = new CompletableFuture<>();
+        when(listener.notifyAsync(any(GoNotificationMessage.class), any(LaneExecutor.class))).thenReturn(delivery);
+        final AtomicInteger delivered = new AtomicInteger();
+
+        assertThat(dispatcher.dispatch(listener, message("pipeline"), new Runnable() {
+            @Override
+            public void run() {
+                delivered.incrementAndGet();
+            }
+        }), is(true));
+        dispatcher.shutdown();
+        assertThat(dispatcher.awaitTermination(200, TimeUnit.MILLISECONDS), is(false));
+        assertThat(dispatcher.inFlight(), is(1));
+        assertThat(delivered.get(), is(0));
+
+        delivery.complete(null);
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+        assertThat(delivered.get(), is(1));
+        assertThat(dispatcher.completedCount(), is(1L));
+    }
+
+    @Test
+    public void shouldBeDoneWithANotificationWhichFailedForGood() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(new DispatchSettings().setAsync(true));
+        PipelineListener listener = listener();
+        GoNotificationMessage unknown = message("unknown");
+        when(listener.notifyAsync(eq(unknown), any(LaneExecutor.class))).thenThrow(new IllegalArgumentException("No pipeline status Unknown"));
+        final AtomicInteger done = new AtomicInteger();
+        Runnable onDelivered = new Runnable() {
+            @Override
+            public void run() {
+                done.incrementAndGet();
+            }
+        };
+
+        assertThat(dispatcher.dispatch(listener, unknown, onDelivered), is(true));
+        assertThat(dispatcher.dispatch(listener, message("pipeline"), onDelivered), is(true));
+        dispatcher.shutdown();
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertThat(done.get(), is(2));
+        assertThat(dispatcher.failedCount(), is(1L));
+        assertThat(dispatcher.completedCount(), is(1L));
+    }
+
+    @Test
+    public void shouldDropBuildingNotificationsFirstWhenTheQueueIsFull() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(new DispatchSettings().setAsync(true).setWorkers(1).setQueueSize(2));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        PipelineListener listener = listener();
+        GoNotificationMessage running = message("running", "Building", "Unknown");
+        GoNotificationMessage building = message("first", "Building", "Unknown");
+        GoNotificationMessage passed = message("second", "Passed", "Passed");
+        GoNotificationMessage failed = message("third", "Failed", "Failed");
+        doAnswer(new Answer<CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                return CompletableFuture.completedFuture(null);
+            }
+        }).when(listener).notifyAsync(eq(running), any(LaneExecutor.class));
+        final AtomicInteger delivered = new AtomicInteger();
+        Runnable onDelivered = new Runnable() {
+            @Override
+            public void run() {
+                delivered.incrementAndGet();
+            }
+        };
+
+        assertThat(dispatcher.dispatch(listener, running, onDelivered), is(true));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertThat(dispatcher.dispatch(listener, building, onDelivered), is(true));
+        assertThat(dispatcher.dispatch(listener, passed, onDelivered), is(true));
+        assertThat(dispatcher.dispatch(listener, failed, onDelivered), is(true));
+        assertThat(dispatcher.shedCount(), is(1L));
+        assertThat(delivered.get(), is(1));
+        assertThat(dispatcher.dispatch(listener, message("fourth", "Building", "Unknown"), onDelivered), is(false));
+        assertThat(dispatcher.queueDepth(), is(2));
+
+        release.countDown();
+        dispatcher.shutdown();
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+        verify(listener, never()).notifyAsync(eq(building), any(LaneExecutor.class));
+        verify(listener, times(1)).notifyAsync(eq(passed), any(LaneExecutor.class));
+        verify(listener, times(1)).notifyAsync(eq(failed), any(LaneExecutor.class));
+        assertThat(delivered.get(), is(4));
+        assertThat(dispatcher.queueDepth(), is(0));
+    }
+
+    static PipelineListener listener() {
+        PipelineListener listener = mock(PipelineListener.class);
+        when(listener.notifyAsync(any(GoNotificationMessage.class), any(LaneExecutor.class))).thenReturn(CompletableFuture.<Void>completedFuture(null));
+        return listener;
+    }
+
+    static GoNotificationMessage message(String pipeline) {
+        GoNotificationMessage message = mock(GoNotificationMessage.class);
+        when(message.getPipelineName()).thenReturn(pipeline);
+        when(message.fullyQualifiedJobName()).thenReturn(pipeline + "/1/build/1");
+        return message;
+    }
+
+    static GoNotificationMessage message(String pipeline, String state, String result) {
+        GoNotificationMessage message = message(pipeline);
+        when(message.getStageState()).thenReturn(state);
+        when(message.getStageResult()).thenReturn(result);
+        return message;
+    }
+}
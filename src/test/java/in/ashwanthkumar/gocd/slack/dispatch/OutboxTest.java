@@ -0,0 +1,74 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class OutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRecoverEntriesWhichWereNotMarkedDone() throws IOException {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory, new OutboxSettings());
+        long first = outbox.append("first");
+        long second = outbox.append("second");
+        long third = outbox.append("third");
+        outbox.markDone(second);
+        outbox.close();
+
+        Outbox reopened = new Outbox(directory, new OutboxSettings());
+        assertThat(reopened.recovered().size(), is(2));
+        assertThat(reopened.recovered().get(0).getId(), is(first));
+        assertThat(reopened.recovered().get(0).getPayload(), is("first"));
+        assertThat(reopened.recovered().get(1).getId(), is(third));
+        assertThat(reopened.recovered().get(1).getPayload(), is("third"));
+
+        long fourth = reopened.append("fourth");
+        assertThat(fourth > third, is(true));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldDeleteSegmentsOnceEverythingInThemIsDone() throws IOException {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory, new OutboxSettings().setSegmentSize(64));
+        long first = outbox.append("a notification which fills up a segment on its own, almost");
+        long second = outbox.append("another notification which fills up a segment on its own");
+        assertThat(outbox.segmentCount(), is(3));
+
+        outbox.markDone(second);
+        assertThat(outbox.segmentCount(), is(3));
+        outbox.markDone(first);
+        assertThat(outbox.segmentCount(), is(1));
+        outbox.close();
+
+        assertThat(new Outbox(directory, new OutboxSettings()).recovered().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldIgnorePartiallyWrittenRecords() throws IOException {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory, new OutboxSettings());
+        outbox.append("complete");
+        outbox.close();
+
+        File[] segments = directory.listFiles();
+        try (FileOutputStream out = new FileOutputStream(segments[0], true)) {
+            out.write(new byte[]{0, 0, 0, 42, 1, 0, 0});
+        }
+
+        Outbox reopened = new Outbox(directory, new OutboxSettings());
+        assertThat(reopened.recovered().size(), is(1));
+        assertThat(reopened.recovered().get(0).getPayload(), is("complete"));
+        reopened.close();
+    }
+}
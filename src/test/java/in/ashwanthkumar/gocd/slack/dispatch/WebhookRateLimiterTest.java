@@ -0,0 +1,55 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class WebhookRateLimiterTest {
+    private static final String WEBHOOK = "https://hooks.slack.com/services/T00/B00/abcd";
+    private static final String OTHER_WEBHOOK = "https://hooks.slack.com/services/T00/B01/efgh";
+
+    @Test
+    public void shouldAllowBurstThenHoldBackWebhook() {
+        WebhookRateLimiter limiter = new WebhookRateLimiter(new RateLimitSettings().setPerSecond(1).setBurst(2));
+        WebhookRateLimiter.Bucket bucket = limiter.forWebhook(WEBHOOK);
+
+        assertThat(bucket.acquire(), is(0L));
+        assertThat(bucket.acquire(), is(0L));
+        assertTrue(bucket.acquire() > 0);
+        assertThat(limiter.forWebhook(OTHER_WEBHOOK).acquire(), is(0L));
+    }
+
+    @Test
+    public void shouldNotLimitWithoutRate() {
+        WebhookRateLimiter.Bucket bucket = new WebhookRateLimiter(new RateLimitSettings()).forWebhook(WEBHOOK);
+        for (int i = 0; i < 100; i++) {
+            assertThat(bucket.acquire(), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldReadLimitsPerWebhookFromConfig() {
+        RateLimitSettings settings = RateLimitSettings.fromConfig(ConfigFactory.parseString(
+                "per-second = 1, burst = 3, webhooks = [{ url = \"" + WEBHOOK + "\", per-second = 0.5 }]"));
+
+        assertThat(settings.forWebhook(WEBHOOK), is(new RateLimitSettings().setPerSecond(0.5).setBurst(3)));
+        assertThat(settings.forWebhook(OTHER_WEBHOOK).getPerSecond(), is(1.0));
+    }
+
+    @Test
+    public void shouldParseRetryAfter() {
+        assertThat(WebhookRateLimiter.retryAfterMillis("30"), is(30000L));
+        assertThat(WebhookRateLimiter.retryAfterMillis(null), is(WebhookRateLimiter.DEFAULT_RETRY_AFTER_MILLIS));
+        assertThat(WebhookRateLimiter.retryAfterMillis("soon"), is(WebhookRateLimiter.DEFAULT_RETRY_AFTER_MILLIS));
+        assertThat(WebhookRateLimiter.retryAfterMillis("Thu, 01 Jan 1970 00:00:00 GMT"), is(0L));
+        assertThat(WebhookRateLimiter.retryAfterMillis("86400"), is(WebhookRateLimiter.MAX_RETRY_AFTER_MILLIS));
+    }
+
+    @Test
+    public void shouldMaskWebhookUrl() {
+        assertThat(WebhookRateLimiter.mask(WEBHOOK), is("hooks.slack.com/...abcd"));
+    }
+}
@@ -0,0 +1,134 @@
+package in.ashwanthkumar.gocd.slack.jsonapi;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class PipelineHistoryCacheTest {
+
+    @Test
+    public void shouldShareTheHistoryBetweenStagesItHas() throws Exception {
+        PipelineHistoryCache cache = new PipelineHistoryCache(new HistoryCacheSettings());
+        CountingLoader loader = new CountingLoader(history(10, "build", 1, 100), history(10, "build", 1, 100));
+
+        History first = cache.get("server up42", 10, "build", 1, loader);
+        History second = cache.get("server up42", 10, "build", 1, loader);
+
+        assertThat(second, sameInstance(first));
+        assertThat(loader.count.get(), is(1));
+        assertThat(cache.hitCount(), is(1L));
+        assertThat(cache.missCount(), is(1L));
+        assertThat(cache.hitRatio(), is(0.5));
+        assertThat(cache.bytesHeld(), is(100L));
+    }
+
+    @Test
+    public void shouldFetchAgainForAStageTheHistoryDoesNotHaveYet() throws Exception {
+        PipelineHistoryCache cache = new PipelineHistoryCache(new HistoryCacheSettings());
+        History next = history(10, "deploy", 1, 300);
+        CountingLoader loader = new CountingLoader(history(10, "build", 1, 100), next);
+
+        cache.get("server up42", 10, "build", 1, loader);
+        History fetched = cache.get("server up42", 10, "deploy", 1, loader);
+
+        assertThat(fetched, sameInstance(next));
+        assertThat(loader.count.get(), is(2));
+        assertThat(cache.staleCount(), is(1L));
+        assertThat(cache.bytesHeld(), is(300L));
+    }
+
+    @Test
+    public void shouldFetchAgainOnceTheHistoryExpired() throws Exception {
+        PipelineHistoryCache cache = new PipelineHistoryCache(new HistoryCacheSettings().setTtlMillis(20).setRefreshAfterMillis(20));
+        CountingLoader loader = new CountingLoader(history(10, "build", 1, 100), history(10, "build", 1, 100));
+
+        cache.get("server up42", 10, "build", 1, loader);
+        Thread.sleep(50);
+        cache.get("server up42", 10, "build", 1, loader);
+
+        assertThat(loader.count.get(), is(2));
+        assertThat(cache.missCount(), is(2L));
+    }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedPipeline() throws Exception {
+        PipelineHistoryCache cache = new PipelineHistoryCache(new HistoryCacheSettings().setSize(2));
+        CountingLoader loader = new CountingLoader(history(1, "build", 1, 100), history(1, "build", 1, 200),
+                history(1, "build", 1, 400), history(1, "build", 1, 800));
+
+        cache.get("server a", 1, "build", 1, loader);
+        cache.get("server b", 1, "build", 1, loader);
+        cache.get("server a", 1, "build", 1, loader);
+        cache.get("server c", 1, "build", 1, loader);
+        cache.get("server a", 1, "build", 1, loader);
+        cache.get("server b", 1, "build", 1, loader);
+
+        assertThat(loader.count.get(), is(4));
+        assertThat(cache.evictionCount(), is(2L));
+        assertThat(cache.size(), is(2));
+        assertThat(cache.bytesHeld(), is(900L));
+    }
+
+    @Test
+    public void shouldRefreshTheHistoryInTheBackground() throws Exception {
+        PipelineHistoryCache cache = new PipelineHistoryCache(new HistoryCacheSettings().setTtlMillis(60000).setRefreshAfterMillis(10));
+        History first = history(10, "build", 1, 100);
+        History refreshed = history(10, "build", 1, 150);
+        CountingLoader loader = new CountingLoader(first, refreshed);
+
+        cache.get("server up42", 10, "build", 1, loader);
+        Thread.sleep(30);
+        assertThat(cache.get("server up42", 10, "build", 1, loader), sameInstance(first));
+        for (int i = 0; i < 100 && cache.refreshCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(cache.refreshCount(), is(1L));
+        assertThat(cache.get("server up42", 10, "build", 1, loader), sameInstance(refreshed));
+        assertThat(cache.bytesHeld(), is(150L));
+        assertThat(cache.hitCount(), is(2L));
+    }
+
+    @Test
+    public void shouldFetchEveryTimeWithoutASize() throws Exception {
+        PipelineHistoryCache cache = new PipelineHistoryCache(new HistoryCacheSettings().setSize(0));
+        CountingLoader loader = new CountingLoader(history(10, "build", 1, 100), history(10, "build", 1, 100));
+
+        cache.get("server up42", 10, "build", 1, loader);
+        cache.get("server up42", 10, "build", 1, loader);
+
+        assertThat(loader.count.get(), is(2));
+        assertThat(cache.size(), is(0));
+    }
+
+    private static History history(int pipelineCounter, String stageName, int stageCounter, long size) {
+        Stage stage = new Stage();
+        stage.name = stageName;
+        stage.counter = stageCounter;
+        Pipeline pipeline = new Pipeline();
+        pipeline.counter = pipelineCounter;
+        pipeline.stages = new Stage[]{stage};
+        History history = new History().setApproximateSize(size);
+        history.pipelines = new Pipeline[]{pipeline};
+        return history;
+    }
+
+    private static class CountingLoader implements PipelineHistoryCache.Loader {
+        private final History[] histories;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private CountingLoader(History... histories) {
+            this.histories = histories;
+        }
+
+        @Override
+        public History load() throws IOException {
+            return histories[count.getAndIncrement()];
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.typesafe.config.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ConfigDirectoryTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("go_notify.conf.d");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walk(directory).sorted(Collections.<Path>reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @Test
+    public void shouldAppendThePipelinesOfTheFilesInTheOrderOfTheirNames() throws IOException {
+        write("00-global.conf", "gocd.slack {\n server-host = \"http://localhost:8153/\"\n webhookUrl = \"https://hooks.slack.com/services/\"\n channel = \"#builds\"\n}");
+        write("20-web.conf", "gocd.slack.pipelines = [{ name = \"web\" }]");
+        write("10-api.conf", "gocd.slack.pipelines = [{ name = \"api\" }, { name = \"api-docs\" }]");
+        write("README.md", "not a configuration file");
+
+        Rules rules = RulesReader.read(new ConfigDirectory(directory.toFile()), null);
+
+        assertThat(rules.getGoServerHost(), is("http://localhost:8153/"));
+        assertThat(rules.getPipelineRules().size(), is(3));
+        assertThat(rules.getPipelineRules().get(0).getNameRegex(), is("api"));
+        assertThat(rules.getPipelineRules().get(1).getNameRegex(), is("api-docs"));
+        assertThat(rules.getPipelineRules().get(2).getNameRegex(), is("web"));
+        assertThat(rules.getPipelineRules().get(2).getChannel(), is("#builds"));
+    }
+
+    @Test
+    public void shouldLetALaterFileOverrideSettings() throws IOException {
+        write("00-global.conf", "gocd.slack.channel = \"#builds\"");
+        write("99-local.conf", "gocd.slack.channel = \"#local\"");
+
+        Config config = new ConfigDirectory(directory.toFile()).load();
+
+        assertThat(config.getString("gocd.slack.channel"), is("#local"));
+    }
+
+    @Test
+    public void shouldOnlyReadTheFilesWhichChanged() throws IOException {
+        write("10-api.conf", "gocd.slack.pipelines = [{ name = \"api\" }]");
+        write("20-web.conf", "gocd.slack.pipelines = [{ name = \"web\" }]");
+        ConfigDirectory configDirectory = new ConfigDirectory(directory.toFile());
+        configDirectory.load();
+        Config api = configDirectory.fragment("10-api.conf");
+
+        modify("20-web.conf", "gocd.slack.pipelines = [{ name = \"web\" }, { name = \"web-assets\" }]");
+        Config merged = configDirectory.load();
+
+        assertThat(configDirectory.fragment("10-api.conf"), sameInstance(api));
+        assertThat(merged.getConfigList("gocd.slack.pipelines").size(), is(3));
+    }
+
+    @Test
+    public void shouldKeepTheLastGoodVersionOfABrokenFile() throws IOException {
+        write("10-api.conf", "gocd.slack.pipelines = [{ name = \"api\" }]");
+        write("20-web.conf", "gocd.slack.pipelines = [{ name = \"web\" }]");
+        ConfigDirectory configDirectory = new ConfigDirectory(directory.toFile());
+        configDirectory.load();
+
+        modify("10-api.conf", "gocd.slack.pipelines = [{ name = \"api\", state = \"exploded\" }]");
+        modify("20-web.conf", "gocd.slack.pipelines = [{ name = \"web-v2\" }]");
+        write("30-new.conf", "gocd.slack.pipelines = [{ name = \"new\" ");
+        Config merged = configDirectory.load();
+
+        assertThat(merged.getConfigList("gocd.slack.pipelines").size(), is(2));
+        assertThat(merged.getConfigList("gocd.slack.pipelines").get(0).getString("name"), is("api"));
+        assertThat(merged.getConfigList("gocd.slack.pipelines").get(1).getString("name"), is("web-v2"));
+    }
+
+    @Test
+    public void shouldLeaveOutARemovedFile() throws IOException {
+        write("10-api.conf", "gocd.slack.pipelines = [{ name = \"api\" }]");
+        write("20-web.conf", "gocd.slack.pipelines = [{ name = \"web\" }]");
+        ConfigDirectory configDirectory = new ConfigDirectory(directory.toFile());
+        configDirectory.load();
+
+        Files.delete(directory.resolve("10-api.conf"));
+        Config merged = configDirectory.load();
+
+        assertThat(merged.getConfigList("gocd.slack.pipelines").size(), is(1));
+        assertThat(configDirectory.fragment("10-api.conf"), nullValue());
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void modify(String name, String content) throws IOException {
+        Path file = directory.resolve(name);
+        long lastModified = file.toFile().lastModified();
+        write(name, content);
+        // a modification within the resolution of the file system clock could go unnoticed
+        file.toFile().setLastModified(lastModified + 2000);
+    }
+}
@@ -44,6 +44,19 @@ public class PipelineRuleTest {
         assertThat(mergedRule.getOwners(), is(Sets.of("ashwanthkumar", "gobot")));
     }
 
+    @Test
+    public void shouldTakeDigestFromDefaultsUnlessRuleHasOne() {
+        PipelineRule defaultRule = PipelineRule.fromConfig(ConfigFactory.parseString(
+                "name = \".*\", digest { window = 10s, max-events = 5 }"));
+        PipelineRule inherited = PipelineRule.merge(PipelineRule.fromConfig(ConfigFactory.parseString("name = \"a\"")), defaultRule);
+        PipelineRule disabled = PipelineRule.merge(PipelineRule.fromConfig(ConfigFactory.parseString(
+                "name = \"b\", digest { window = 0s }")), defaultRule);
+
+        assertThat(inherited.getDigest(), is(new DigestSettings().setWindowMillis(10000).setMaxEvents(5)));
+        assertTrue(inherited.isDigested());
+        assertFalse(disabled.isDigested());
+    }
+
     @Test
     public void shouldMatchThePipelineAndStageAgainstRegex() {
         PipelineRule pipelineRule = new PipelineRule("gocd-.*", ".*").setGroupRegex("ci").setLabelRegex(".*").setStatus(Sets.of(FAILED, PASSED));
@@ -54,5 +67,29 @@ public class PipelineRuleTest {
         assertFalse(pipelineRule.matches("gocd", "publish", "ci", ".*", "failed"));
     }
 
+    @Test
+    public void shouldMergeOwnersWithoutChangingEitherRule() {
+        PipelineRule team = new PipelineRule("gocd", ".*").setChannel("#team").setOwners(Sets.of("alice"));
+        PipelineRule release = new PipelineRule("gocd", "publish").setChannel("#team").setOwners(Sets.of("bob"));
+
+        PipelineRule merged = team.withOwnersOf(release);
 
-}
\ No newline at end of file
+        assertThat(merged.getOwners(), is(Sets.of("alice", "bob")));
+        assertThat(merged.getChannel(), is("#team"));
+        assertThat(merged.getStageRegex(), is(".*"));
+        assertThat(team.getOwners(), is(Sets.of("alice")));
+        assertThat(release.getOwners(), is(Sets.of("bob")));
+    }
+
+    @Test
+    public void shouldMatchStatusesWhateverTheirCase() {
+        PipelineRule rule = new PipelineRule(".*", ".*").setLabelRegex(".*").setStatus(Sets.of(FAILED, PASSED));
+        assertTrue(rule.matches("p", "s", "g", "1", "failed"));
+        assertTrue(rule.matches("p", "s", "g", "1", PipelineStatus.PASSED));
+        assertFalse(rule.matches("p", "s", "g", "1", "Broken"));
+        assertFalse(rule.matches("p", "s", "g", "1", "Failing"));
+
+        rule.setStatus(Sets.of(PipelineStatus.ALL));
+        assertTrue(rule.matches("p", "s", "g", "1", "Failing"));
+    }
+}
@@ -0,0 +1,123 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RegexAutomatonTest {
+    private static final List<String> REGEXES = Arrays.asList(
+            ".*", "", "build", "build.*", "b.ild", "build|test", "(build|test)-[0-9]+", "release-\\d{1,3}",
+            "up.*c14", "x\\.y", "[^a-c]+", "[a-c-]*z", "\\w+\\s\\w+", "a?b+c*", "(?:ab){2,}", "a{2}", "a{0,2}b",
+            "^start.*", ".*end$", "(a|)b", "[\\d\\-]+", "a.*?b", "\\S*", "[]a]", "(a)\\1", "(?i)build", "a(?=b)b",
+            "\\bword\\b", "a*+b", "[a-z&&[^b]]+", "\\Qa.b\\E", "\\p{Lower}+", "a{150}"
+    );
+    private static final List<String> VALUES = Arrays.asList(
+            "", "build", "builds", "test", "b-ild", "BUILD", "build-42", "test-", "release-7", "release-1234", "upc14",
+            "up-1-c14", "x.y", "xzy", "zzz", "abz", "-z", "hello world", "hello\tworld", "abc", "bb", "abab",
+            "ababab", "aa", "aab", "ab", "b", "start-here", "the end", "the end\n", "12-34", "aXXb", "a\nb", "]",
+            "a", "aa", "word", "a.b", "lower", "\u2028", "a\u0085b"
+    );
+
+    @Test
+    public void shouldMatchTheSameAsStringMatches() {
+        List<StringMatcher> matchers = new ArrayList<>();
+        for (String regex : REGEXES) {
+            matchers.add(StringMatcher.compile(regex));
+        }
+        RegexAutomaton automaton = new RegexAutomaton(matchers);
+        for (int round = 0; round < 2; round++) {
+            // the second round goes through the DFA states the first one built
+            for (String value : VALUES) {
+                BitSet matched = automaton.matches(value);
+                for (int i = 0; i < REGEXES.size(); i++) {
+                    assertThat(REGEXES.get(i) + " against " + value, matched.get(i), is(value.matches(REGEXES.get(i))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldKeepLoopsWhenTheAutomatonGrowsWhileCompilingThem() {
+        for (int before = 0; before < 140; before++) {
+            List<StringMatcher> matchers = new ArrayList<>();
+            for (int i = 0; i < before; i++) {
+                matchers.add(StringMatcher.compile("x"));
+            }
+            matchers.add(StringMatcher.compile("(a|b)*-"));
+            matchers.add(StringMatcher.compile("c+d"));
+            RegexAutomaton automaton = new RegexAutomaton(matchers);
+            assertThat("(a|b)*- after " + before + " rules", automaton.matches("ab-").get(before), is(true));
+            assertThat("c+d after " + before + " rules", automaton.matches("ccd").get(before + 1), is(true));
+        }
+    }
+
+    @Test
+    public void shouldMatchTheSameAsPatternForRandomRegexes() {
+        Random random = new Random(42);
+        List<String> regexes = new ArrayList<>();
+        List<StringMatcher> matchers = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String regex = randomRegex(random, 3);
+            regexes.add(regex);
+            matchers.add(StringMatcher.compile(regex));
+        }
+        RegexAutomaton automaton = new RegexAutomaton(matchers);
+        for (int v = 0; v < 500; v++) {
+            StringBuilder value = new StringBuilder();
+            for (int c = random.nextInt(8); c > 0; c--) {
+                value.append("ab-c".charAt(random.nextInt(4)));
+            }
+            BitSet matched = automaton.matches(value.toString());
+            for (int i = 0; i < regexes.size(); i++) {
+                assertThat(regexes.get(i) + " against " + value, matched.get(i),
+                        is(Pattern.compile(regexes.get(i)).matcher(value).matches()));
+            }
+        }
+    }
+
+    private static String randomRegex(Random random, int depth) {
+        switch (depth == 0 ? 0 : random.nextInt(6)) {
+            case 0:
+                return String.valueOf("ab-c.".charAt(random.nextInt(5)));
+            case 1:
+                return randomRegex(random, depth - 1) + randomRegex(random, depth - 1);
+            case 2:
+                return "(" + randomRegex(random, depth - 1) + "|" + randomRegex(random, depth - 1) + ")";
+            case 3:
+                return "(" + randomRegex(random, depth - 1) + ")*";
+            case 4:
+                return "(" + randomRegex(random, depth - 1) + ")+";
+            default:
+                return "(" + randomRegex(random, depth - 1) + "){0,2}";
+        }
+    }
+
+    @Test
+    public void shouldMatchConstructsTheAutomatonCantExpressOnTheirOwn() {
+        RegexAutomaton automaton = new RegexAutomaton(Arrays.asList(
+                StringMatcher.compile("(a)\\1"),
+                StringMatcher.compile("(?i)build"),
+                StringMatcher.compile("build|test"),
+                StringMatcher.compile("a{2000}")
+        ));
+        assertThat(automaton.fallbackCount(), is(3));
+        assertThat(automaton.matches("aa").get(0), is(true));
+        assertThat(automaton.matches("BUILD").get(1), is(true));
+        assertThat(automaton.matches("test").get(2), is(true));
+    }
+
+    @Test
+    public void shouldMatchCodePointsLikeTheRegexEngine() {
+        RegexAutomaton automaton = new RegexAutomaton(Arrays.asList(StringMatcher.compile("a.b"), null));
+        assertThat(automaton.matches("a\uD83D\uDE00b").get(0), is(true));
+        assertThat(automaton.matches("a\uD83D\uDE00b").get(1), is(false));
+    }
+}
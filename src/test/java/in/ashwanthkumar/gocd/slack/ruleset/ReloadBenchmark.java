@@ -0,0 +1,121 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Compares reading a configuration of 5k rules from scratch to reloading it after one rule changed, after
+ * nothing changed, and to starting with the rules read back from a {@link RuleSnapshot}. Most rules name a single pipeline, with some prefix rules and a few real regexes, as in
+ * {@link RuleIndexBenchmark}. Run its main method with the test classpath.
+ */
+public class ReloadBenchmark {
+    private static final int RULES = 5000;
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws IOException {
+        Config original = config(-1);
+        Config changed = config(RULES / 2);
+        RulesReader reader = new RulesReader();
+        Rules previous = reader.load(original);
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            full(reader, changed);
+            incremental(reader, changed, previous);
+            incremental(reader, original, previous);
+        }
+        report("full", full(reader, changed));
+        report("one rule changed", incremental(reader, changed, previous));
+        report("unchanged", incremental(reader, original, previous));
+
+        File file = File.createTempFile("go_notify", ".conf");
+        File snapshot = RuleSnapshot.fileFor(file);
+        try {
+            Files.write(file.toPath(), text(-1).getBytes(StandardCharsets.UTF_8));
+            RuleSnapshot.write(snapshot, RuleSnapshot.hash(file), previous);
+            for (int warmup = 0; warmup < 3; warmup++) {
+                start(file);
+                startFromSnapshot(file, snapshot);
+            }
+            report("start, full read", start(file));
+            report("start, snapshot", startFromSnapshot(file, snapshot));
+        } finally {
+            file.delete();
+            snapshot.delete();
+        }
+    }
+
+    private static long start(File file) {
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            check(RulesReader.read(file));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long startFromSnapshot(File file, File snapshot) throws IOException {
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            check(RuleSnapshot.read(snapshot, RuleSnapshot.hash(file)));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long full(RulesReader reader, Config config) {
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            check(reader.load(config));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long incremental(RulesReader reader, Config config, Rules previous) {
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            check(reader.load(config, previous));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @param changed the rule posting to another channel, or -1 for none
+     */
+    private static Config config(int changed) {
+        return ConfigFactory.parseString(text(changed));
+    }
+
+    private static String text(int changed) {
+        StringBuilder config = new StringBuilder("gocd.slack {\n")
+                .append("  server-host = \"http://localhost:8153/\"\n")
+                .append("  webhookUrl = \"https://hooks.slack.com/services/\"\n")
+                .append("  default.channel = \"#builds\"\n")
+                .append("  pipelines = [\n");
+        for (int i = 0; i < RULES; i++) {
+            String name;
+            if (i % 100 == 99) {
+                name = "(build|deploy)-" + i + "-[a-z]+";
+            } else if (i % 10 == 9) {
+                name = "team-" + i + "-.*";
+            } else {
+                name = "pipeline-" + i;
+            }
+            config.append("    { name = \"").append(name).append("\", state = \"failed|broken\"")
+                    .append(", channel = \"").append(i == changed ? "#changed" : "#team-" + (i % 50)).append("\" }\n");
+        }
+        return config.append("  ]\n}\n").toString();
+    }
+
+    private static void check(Rules rules) {
+        if (rules == null || rules.getPipelineRules().size() != RULES) {
+            throw new IllegalStateException("expected " + RULES + " rules, read " + rules.getPipelineRules().size());
+        }
+    }
+
+    private static void report(String name, long elapsedNanos) {
+        System.out.printf("%-18s %10.2f ms per reload%n", name, elapsedNanos / 1e6 / ROUNDS);
+    }
+}
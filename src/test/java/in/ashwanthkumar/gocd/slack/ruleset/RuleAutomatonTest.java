@@ -0,0 +1,47 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static in.ashwanthkumar.utils.collections.Sets.of;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RuleAutomatonTest {
+    private static final List<PipelineRule> RULES = Arrays.asList(
+            rule("release-.*", "deploy", ".*", PipelineStatus.FAILED),
+            rule("release-(api|web)", ".*", ".*", PipelineStatus.FAILED),
+            rule(".*", "build|test", ".*", PipelineStatus.BROKEN),
+            rule("(a)\\\\1", ".*", ".*", PipelineStatus.ALL),
+            rule("release-api", ".*", "1\\\\..*", PipelineStatus.FAILED),
+            rule("web", ".*", ".*", PipelineStatus.PASSED).setGroupRegex("")
+    );
+
+    @Test
+    public void shouldFindTheSameRulesAsTheIndex() {
+        RuleLookup automaton = new RuleAutomaton(RULES);
+        RuleLookup index = new RuleIndex(RULES);
+        for (String pipeline : Arrays.asList("release-api", "release-web", "aa", "web", "other")) {
+            for (String stage : Arrays.asList("deploy", "build", "test")) {
+                for (String label : Arrays.asList("1.0", "2.0")) {
+                    for (PipelineStatus status : Arrays.asList(PipelineStatus.FAILED, PipelineStatus.BROKEN, PipelineStatus.PASSED)) {
+                        String stageRun = pipeline + "/" + stage + "/" + label + "/" + status;
+                        assertThat(stageRun, automaton.find(pipeline, stage, "ci", label, status, true), is(index.find(pipeline, stage, "ci", label, status, true)));
+                        assertThat(stageRun, automaton.find(pipeline, stage, "ci", label, status, false), is(index.find(pipeline, stage, "ci", label, status, false)));
+                    }
+                }
+            }
+        }
+        assertThat(automaton.isLabelled(), is(true));
+    }
+
+    private static PipelineRule rule(String name, String stage, String label, PipelineStatus status) {
+        return new PipelineRule(name, stage)
+                .setGroupRegex("c.*")
+                .setLabelRegex(label)
+                .setChannel("#" + name)
+                .setStatus(of(status));
+    }
+}
@@ -0,0 +1,92 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static in.ashwanthkumar.utils.collections.Sets.of;
+
+/**
+ * Compares finding the rules for a stage by scanning 10k rules to looking them up through a {@link RuleIndex} and
+ * a {@link RuleAutomaton}.
+ * Most rules name a single pipeline, as they do when a rule is generated per pipeline, with some prefix rules and
+ * a few real regexes. Run its main method with the test classpath.
+ */
+public class RuleIndexBenchmark {
+    private static final int RULES = 10000;
+    private static final int ROUNDS = 2000;
+
+    public static void main(String[] args) {
+        List<PipelineRule> rules = new ArrayList<>();
+        Set<PipelineStatus> statuses = of(PipelineStatus.FAILED, PipelineStatus.BROKEN);
+        for (int i = 0; i < RULES; i++) {
+            String name;
+            if (i % 100 == 99) {
+                name = "(build|deploy)-" + i + "-[a-z]+";
+            } else if (i % 10 == 9) {
+                name = "team-" + i + "-.*";
+            } else {
+                name = "pipeline-" + i;
+            }
+            rules.add(new PipelineRule(name, ".*").setGroupRegex(".*").setLabelRegex(".*").setStatus(statuses));
+        }
+        RuleLookup index = new RuleIndex(rules);
+        RuleLookup automaton = new RuleAutomaton(rules);
+
+        for (boolean all : new boolean[]{false, true}) {
+            for (int warmup = 0; warmup < 3; warmup++) {
+                scan(rules, all);
+                lookup(index, all);
+                lookup(automaton, all);
+            }
+            report("scan", all, scan(rules, all));
+            report("index", all, lookup(index, all));
+            report("automaton", all, lookup(automaton, all));
+        }
+    }
+
+    private static long scan(List<PipelineRule> rules, boolean all) {
+        long found = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            String pipeline = pipeline(round);
+            for (PipelineRule rule : rules) {
+                if (rule.matches(pipeline, "deploy", "ci", "42", PipelineStatus.FAILED)) {
+                    found++;
+                    if (!all) {
+                        break;
+                    }
+                }
+            }
+        }
+        return check(found, System.nanoTime() - start);
+    }
+
+    private static long lookup(RuleLookup index, boolean all) {
+        long found = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            found += index.find(pipeline(round), "deploy", "ci", "42", PipelineStatus.FAILED, all).size();
+        }
+        return check(found, System.nanoTime() - start);
+    }
+
+    private static String pipeline(int round) {
+        int rule = (round * 7919) % RULES;
+        if (rule % 100 == 99) {
+            return "deploy-" + rule + "-web";
+        }
+        return rule % 10 == 9 ? "team-" + rule + "-web" : "pipeline-" + rule;
+    }
+
+    private static long check(long found, long elapsed) {
+        if (found < ROUNDS) {
+            throw new IllegalStateException("expected a rule for every pipeline, found " + found);
+        }
+        return elapsed;
+    }
+
+    private static void report(String name, boolean all, long elapsedNanos) {
+        System.out.printf("%-9s %-10s %10.1f us per notification%n", name, all ? "all rules" : "first rule", elapsedNanos / 1000.0 / ROUNDS);
+    }
+}
@@ -0,0 +1,63 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static in.ashwanthkumar.utils.collections.Sets.of;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RuleIndexTest {
+    private static final List<PipelineRule> RULES = Arrays.asList(
+            rule("release-.*", "#release"),
+            rule("release-api", "#api"),
+            rule(".*", "#everything"),
+            rule("rel.*", "#rel"),
+            rule("release-(api|web)", "#release-apps"),
+            rule("release-api", "#api-again"),
+            rule("web", "#web"),
+            rule("", "#never")
+    );
+
+    @Test
+    public void shouldOnlyOfferRulesWhoseNameCanMatch() {
+        RuleIndex index = new RuleIndex(RULES);
+        assertThat(index.candidates("release-api"), is(new int[]{0, 1, 2, 3, 4, 5}));
+        assertThat(index.candidates("web"), is(new int[]{2, 4, 6}));
+        assertThat(index.candidates("r"), is(new int[]{2, 4}));
+        assertThat(index.candidates(""), is(new int[]{2, 4, 7}));
+    }
+
+    @Test
+    public void shouldFindTheSameRulesAsScanningThemInOrder() {
+        RuleIndex index = new RuleIndex(RULES);
+        for (String pipeline : Arrays.asList("release-api", "release-web", "release-", "rel", "re", "web", "webs", "", "other")) {
+            assertThat(pipeline, index.find(pipeline, "build", "ci", "1", PipelineStatus.FAILED, true), is(scan(pipeline, true)));
+            assertThat(pipeline, index.find(pipeline, "build", "ci", "1", PipelineStatus.FAILED, false), is(scan(pipeline, false)));
+        }
+    }
+
+    private static List<PipelineRule> scan(String pipeline, boolean all) {
+        List<PipelineRule> found = new ArrayList<>();
+        for (PipelineRule rule : RULES) {
+            if (pipeline.matches(rule.getNameRegex())) {
+                found.add(rule);
+                if (!all) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static PipelineRule rule(String name, String channel) {
+        return new PipelineRule(name, ".*")
+                .setGroupRegex(".*")
+                .setLabelRegex(".*")
+                .setChannel(channel)
+                .setStatus(of(PipelineStatus.FAILED));
+    }
+}
@@ -0,0 +1,69 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static in.ashwanthkumar.utils.collections.Sets.of;
+
+/**
+ * Compares matching a stage against a few hundred rules with {@link String#matches(String)}, which compiles every
+ * regex again for each call, to the {@link StringMatcher}s the rules compile once. Run its main method with the
+ * test classpath.
+ */
+public class RuleMatchingBenchmark {
+    private static final int RULES = 300;
+    private static final int ROUNDS = 2000;
+
+    public static void main(String[] args) {
+        List<PipelineRule> rules = new ArrayList<>();
+        Set<PipelineStatus> statuses = of(PipelineStatus.FAILED, PipelineStatus.BROKEN);
+        for (int i = 0; i < RULES; i++) {
+            String name;
+            switch (i % 3) {
+                case 0:
+                    name = "service-" + i;
+                    break;
+                case 1:
+                    name = "release-" + i + ".*";
+                    break;
+                default:
+                    name = "(build|deploy)-" + i + "-[a-z]+";
+            }
+            rules.add(new PipelineRule(name, ".*").setGroupRegex(".*").setLabelRegex(".*").setStatus(statuses));
+        }
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            run("String.matches", rules, true);
+            run("StringMatcher", rules, false);
+        }
+        report("String.matches", run("String.matches", rules, true));
+        report("StringMatcher", run("StringMatcher", rules, false));
+    }
+
+    private static long run(String name, List<PipelineRule> rules, boolean uncompiled) {
+        long matched = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            String pipeline = "release-" + (round % RULES) + "-hotfix";
+            for (PipelineRule rule : rules) {
+                boolean matches = uncompiled
+                        ? pipeline.matches(rule.getNameRegex()) && "deploy".matches(rule.getStageRegex())
+                        && "ci".matches(rule.getGroupRegex()) && "42".matches(rule.getLabelRegex())
+                        : rule.matches(pipeline, "deploy", "ci", "42", PipelineStatus.FAILED);
+                if (matches) {
+                    matched++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (matched < 0) {
+            System.out.println(name);
+        }
+        return elapsed;
+    }
+
+    private static void report(String name, long elapsedNanos) {
+        System.out.printf("%-15s %8.1f ns per rule match%n", name, (double) elapsedNanos / ((long) ROUNDS * RULES));
+    }
+}
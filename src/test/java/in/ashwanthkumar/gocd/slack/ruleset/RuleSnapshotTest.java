@@ -0,0 +1,97 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RuleSnapshotTest {
+    private static final String CONFIG = "gocd.slack {\n" +
+            "  server-host = \"http://localhost:8153/\"\n" +
+            "  webhookUrl = \"https://hooks.slack.com/services/\"\n" +
+            "  channel = \"#builds\"\n" +
+            "  process-all-rules = true\n" +
+            "  dispatch.async = true\n" +
+            "  pipelines = [{\n" +
+            "    name = \"gocd-slack-build-notifier\"\n" +
+            "    state = \"failed|fixed\"\n" +
+            "    owners = [\"ashwanthkumar\"]\n" +
+            "    digest.window = 1m\n" +
+            "  }, {\n" +
+            "    name = \"my-java-.*\"\n" +
+            "    stage = \"build\"\n" +
+            "    group = \"ci\"\n" +
+            "    webhookUrl = \"https://hooks.slack.com/services/another\"\n" +
+            "  }]\n" +
+            "}\n";
+
+    private Path directory;
+    private File config;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("rule-snapshot");
+        config = directory.resolve("go_notify.conf").toFile();
+        write(CONFIG);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walk(directory).sorted(Collections.<Path>reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    @Test
+    public void shouldReadBackTheRulesItSaved() throws IOException {
+        Rules rules = RulesReader.read(config);
+        RuleSnapshot.write(RuleSnapshot.fileFor(config), RuleSnapshot.hash(config), rules);
+
+        Rules read = RuleSnapshot.read(RuleSnapshot.fileFor(config), RuleSnapshot.hash(config));
+
+        assertThat(read.getPipelineRules(), is(rules.getPipelineRules()));
+        assertThat(read.getSlackChannel(), is("#builds"));
+        assertThat(read.getGoServerHost(), is("http://localhost:8153/"));
+        assertThat(read.getProcessAllRules(), is(true));
+        assertThat(read.getDispatchSettings(), is(rules.getDispatchSettings()));
+        assertThat(read.getPipelineListener(), notNullValue());
+        assertThat(read.find("my-java-utils", "build", "ci", "1", PipelineStatus.FAILED).size(), is(1));
+    }
+
+    @Test
+    public void shouldIgnoreTheSnapshotOnceTheConfigurationChanged() throws IOException {
+        RuleSnapshot.write(RuleSnapshot.fileFor(config), RuleSnapshot.hash(config), RulesReader.read(config));
+
+        write(CONFIG.replace("#builds", "#ci"));
+
+        assertThat(RuleSnapshot.read(RuleSnapshot.fileFor(config), RuleSnapshot.hash(config)), nullValue());
+    }
+
+    @Test
+    public void shouldIgnoreACorruptSnapshot() throws IOException {
+        RuleSnapshot.write(RuleSnapshot.fileFor(config), RuleSnapshot.hash(config), RulesReader.read(config));
+        byte[] saved = Files.readAllBytes(RuleSnapshot.fileFor(config).toPath());
+        Files.write(RuleSnapshot.fileFor(config).toPath(), Arrays.copyOf(saved, saved.length / 2));
+
+        assertThat(RuleSnapshot.read(RuleSnapshot.fileFor(config), RuleSnapshot.hash(config)), nullValue());
+    }
+
+    @Test
+    public void shouldNotHashAConfigurationWithSubstitutions() throws IOException {
+        write(CONFIG.replace("\"#builds\"", "${?SLACK_CHANNEL}"));
+
+        assertThat(RuleSnapshot.hash(config), nullValue());
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(config.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,5 +1,7 @@
 package in.ashwanthkumar.gocd.slack.ruleset;
 
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 import in.ashwanthkumar.utils.collections.Sets;
 import org.junit.Test;
 
@@ -134,5 +136,50 @@ public class RulesReaderTest {
         assertThat(rules.getProxy(), is(expectedProxy));
     }
 
+    @Test
+    public void shouldKeepThePreviousRulesWhenNothingChanged() {
+        Rules previous = new RulesReader().load(config("#builds", ".*"));
+        Rules reloaded = new RulesReader().load(config("#builds", ".*"), previous);
+
+        assertThat(reloaded, sameInstance(previous));
+    }
+
+    @Test
+    public void shouldReuseTheUnchangedPartsOnReload() {
+        Rules previous = new RulesReader().load(config("#builds", ".*"));
+        Rules reloaded = new RulesReader().load(config("#builds", "deploy"), previous);
+
+        assertThat(reloaded, not(sameInstance(previous)));
+        assertThat(reloaded.getPipelineRules().get(0), sameInstance(previous.getPipelineRules().get(0)));
+        assertThat(reloaded.getPipelineRules().get(1), not(sameInstance(previous.getPipelineRules().get(1))));
+        assertThat(reloaded.getPipelineRules().get(1).getStageRegex(), is("deploy"));
+        assertThat(reloaded.getPipelineListener(), not(sameInstance(previous.getPipelineListener())));
+        assertThat(reloaded.getPipelineListener().getRateLimiter(), sameInstance(previous.getPipelineListener().getRateLimiter()));
+        assertThat(reloaded.getPipelineListener().getCircuitBreakers(), sameInstance(previous.getPipelineListener().getCircuitBreakers()));
+        assertThat(reloaded.find("my-java-utils", "deploy", "ci", "1", PipelineStatus.FAILED).get(0).getChannel(), is("#java"));
+    }
 
+    @Test
+    public void shouldRecompileEveryRuleWhenTheDefaultChanges() {
+        Rules previous = new RulesReader().load(config("#builds", ".*"));
+        Rules reloaded = new RulesReader().load(config("#ci", ".*"), previous);
+
+        assertThat(reloaded.getPipelineRules().get(0), not(sameInstance(previous.getPipelineRules().get(0))));
+        assertThat(reloaded.getPipelineRules().get(0).getChannel(), is("#ci"));
+    }
+
+    private static Config config(String channel, String stage) {
+        return ConfigFactory.parseString("gocd.slack {\n" +
+                "  server-host = \"http://localhost:8153/\"\n" +
+                "  webhookUrl = \"https://hooks.slack.com/services/\"\n" +
+                "  default.channel = \"" + channel + "\"\n" +
+                "  pipelines = [{\n" +
+                "    name = \"gocd-slack-build-notifier\"\n" +
+                "  }, {\n" +
+                "    name = \"my-java-utils\"\n" +
+                "    stage = \"" + stage + "\"\n" +
+                "    channel = \"#java\"\n" +
+                "  }]\n" +
+                "}");
+    }
 }
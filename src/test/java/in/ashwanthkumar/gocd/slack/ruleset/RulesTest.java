@@ -111,6 +111,78 @@ public class RulesTest {
         assertThat(rules.find("p1", "s1", "ci", ".*", Status.Unknown.getStatus()).size(), is(1));
     }
 
+    @Test
+    public void shouldRememberTheRulesFoundForAStageWhateverItsLabel() {
+        Rules rules = new Rules();
+        rules.setPipelineRules(Arrays.asList(
+                pipelineRule("p1", "s1", "ch1", statuses(PipelineStatus.FAILED))
+        ));
+
+        assertThat(rules.find("p1", "s1", "ci", "1", Status.Failed.getStatus()).size(), is(1));
+        assertThat(rules.find("p1", "s1", "ci", "2", Status.Failed.getStatus()).size(), is(1));
+        assertThat(rules.find("p1", "s1", "ci", "3", Status.Passed.getStatus()).size(), is(0));
+        assertThat(rules.getRuleMatchCache().hitCount(), is(1L));
+        assertThat(rules.getRuleMatchCache().missCount(), is(2L));
+    }
+
+    @Test
+    public void shouldKeyTheRuleMatchCacheOnTheLabelWhenARuleMatchesLabels() {
+        Rules rules = new Rules();
+        rules.setPipelineRules(Arrays.asList(
+                pipelineRule("p1", "s1", "ch1", statuses(PipelineStatus.FAILED)).setLabelRegex("1\\..*")
+        ));
+
+        assertThat(rules.find("p1", "s1", "ci", "1.2", Status.Failed.getStatus()).size(), is(1));
+        assertThat(rules.find("p1", "s1", "ci", "2.0", Status.Failed.getStatus()).size(), is(0));
+        assertThat(rules.getRuleMatchCache().hitCount(), is(0L));
+
+        rules.setPipelineRules(Arrays.asList(
+                pipelineRule("p1", "s1", "ch2", statuses(PipelineStatus.FAILED))
+        ));
+        assertThat(rules.find("p1", "s1", "ci", "2.0", Status.Failed.getStatus()).get(0).getChannel(), is("ch2"));
+    }
+
+    @Test
+    public void shouldExplainWhichCheckRejectedEachRule() {
+        Rules rules = new Rules();
+        rules.setPipelineRules(Arrays.asList(
+                pipelineRule("p2", "s1", "ch1", statuses(PipelineStatus.FAILED)),
+                pipelineRule("p1", "s2", "ch2", statuses(PipelineStatus.FAILED)),
+                pipelineRule("p1", "s1", "ch3", statuses(PipelineStatus.PASSED)),
+                pipelineRule("p1", "s1", "ch4", statuses(PipelineStatus.FAILED)).setLabelRegex("2"),
+                pipelineRule("p1", "s1", "ch5", statuses(PipelineStatus.FAILED))
+        ));
+
+        List<RuleEvaluation> evaluations = rules.explain("p1", "s1", "ci", "1", Status.Failed.getStatus());
+        assertThat(evaluations.size(), is(5));
+        assertThat(evaluations.get(0).getRejectedBy(), is(RuleEvaluation.Check.NAME));
+        assertThat(evaluations.get(1).getRejectedBy(), is(RuleEvaluation.Check.STAGE));
+        assertThat(evaluations.get(2).getRejectedBy(), is(RuleEvaluation.Check.STATUS));
+        assertThat(evaluations.get(3).getRejectedBy(), is(RuleEvaluation.Check.LABEL));
+        assertThat(evaluations.get(4).isMatched(), is(true));
+        assertThat(evaluations.get(4).getRule().getChannel(), is("ch5"));
+    }
+
+    @Test
+    public void shouldSampleHowLongEachRuleTakes() throws Exception {
+        Rules rules = new Rules().setRuleTimingSampleRate(2);
+        rules.setPipelineRules(Arrays.asList(
+                pipelineRule("(a+)+b", "s1", "ch1", statuses(PipelineStatus.FAILED)),
+                pipelineRule("p1", "s1", "ch2", statuses(PipelineStatus.FAILED))
+        ));
+
+        for (int i = 0; i < 4; i++) {
+            rules.find("aaaaaaaaaaaaaaaaaaaa", "s1", "ci", "1", Status.Failed.getStatus());
+            // the rules are timed in the background, a sample still being taken would skip the next one
+            long expected = i / 2 + 1;
+            for (int wait = 0; wait < 500 && rules.getRuleTimings().sampleCount() < expected; wait++) {
+                Thread.sleep(10);
+            }
+        }
+        assertThat(rules.getRuleTimings().sampleCount(), is(2L));
+        assertThat(rules.getRuleTimings().slowest(1).get(0).getRule().getChannel(), is("ch1"));
+    }
+
     @Test
     public void shouldGetAPIServerHost() {
         Rules rules = new Rules();
@@ -130,6 +202,18 @@ public class RulesTest {
         assertThat(rules.getGoAPIToken(), is("a-valid-token-from-gocd-server"));
     }
 
+    @Test
+    public void shouldFallbackToGlobalWebhookAndChannelForDestination() {
+        Rules rules = new Rules()
+                .setWebHookUrl("https://hooks.slack.com/global")
+                .setSlackChannel("#global");
+
+        assertThat(rules.destinationFor(new PipelineRule()), is(new Destination("https://hooks.slack.com/global", "#global")));
+        assertThat(rules.destinationFor(new PipelineRule().setChannel("@someone")), is(new Destination("https://hooks.slack.com/global", "@someone")));
+        assertThat(rules.destinationFor(new PipelineRule().setChannel("#team").setWebhookUrl("https://hooks.slack.com/team")),
+                is(new Destination("https://hooks.slack.com/team", "#team")));
+    }
+
     private static PipelineRule pipelineRule(String pipeline, String stage, String channel, Set<PipelineStatus> statuses) {
         PipelineRule pipelineRule = new PipelineRule(pipeline, stage);
         pipelineRule.setStatus(statuses);
@@ -0,0 +1,45 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import org.junit.Test;
+
+import static in.ashwanthkumar.gocd.slack.ruleset.StringMatcher.Kind.ANY;
+import static in.ashwanthkumar.gocd.slack.ruleset.StringMatcher.Kind.LITERAL;
+import static in.ashwanthkumar.gocd.slack.ruleset.StringMatcher.Kind.PREFIX;
+import static in.ashwanthkumar.gocd.slack.ruleset.StringMatcher.Kind.REGEX;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class StringMatcherTest {
+    @Test
+    public void shouldRecogniseRegexesWhichDontNeedTheRegexEngine() {
+        assertThat(StringMatcher.compile(".*").getKind(), is(ANY));
+        assertThat(StringMatcher.compile("gocd-slack-build-notifier").getKind(), is(LITERAL));
+        assertThat(StringMatcher.compile("").getKind(), is(LITERAL));
+        assertThat(StringMatcher.compile("release-.*").getKind(), is(PREFIX));
+        assertThat(StringMatcher.compile("release-.*").getLiteral(), is("release-"));
+        assertThat(StringMatcher.compile("a*").getKind(), is(REGEX));
+        assertThat(StringMatcher.compile("a.b").getKind(), is(REGEX));
+        assertThat(StringMatcher.compile("release-.*-rc").getKind(), is(REGEX));
+        assertThat(StringMatcher.compile("(build|test)").getKind(), is(REGEX));
+    }
+
+    @Test
+    public void shouldMatchTheSameAsStringMatches() {
+        String[] regexes = {".*", "", "build", "build.*", "b.ild", "build|test", "release-[0-9]+", "up.*c14", "x\\.y"};
+        String[] values = {"", "build", "builds", "test", "b-ild", "release-42", "release-", "upc14", "up-1-c14", "x.y", "xzy", "build\n", "\r"};
+        for (String regex : regexes) {
+            StringMatcher matcher = StringMatcher.compile(regex);
+            for (String value : values) {
+                assertThat(regex + " against " + value, matcher.matches(value), is(value.matches(regex)));
+            }
+        }
+    }
+
+    @Test
+    public void shouldOnlyMatchNullWithAnything() {
+        assertThat(StringMatcher.compile(".*").matches(null), is(true));
+        assertThat(StringMatcher.compile("build").matches(null), is(false));
+        assertThat(StringMatcher.compile("build.*").matches(null), is(false));
+        assertThat(StringMatcher.compile("b.ild").matches(null), is(false));
+    }
+}
@@ -1,14 +1,13 @@
 package in.ashwanthkumar.gocd.teams;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 import org.junit.Assert;
 import org.junit.Test;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-
 public class TeamsTest {
 
     private TeamsCard buildCard() {
@@ -21,13 +20,15 @@ public class TeamsTest {
     }
 
     @Test
-    public void testCardHttpContent() throws IOException {
-        TeamsCard card = buildCard();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        new CardHttpContent(card).writeTo(baos);
-        final String result = baos.toString();
+    public void testCardToStringEscapesItsValues() {
+        TeamsCard card = new TeamsCard();
+        card.setTitle("Stage [\"build\"] <failed>");
+        card.addFact("Reason", "line 1\nline 2");
+        JsonObject result = new Gson().fromJson(card.toString(), JsonObject.class);
 
-        Assert.assertEquals(card.toString(), result);
+        Assert.assertEquals("Stage [\"build\"] <failed>", result.get("title").getAsString());
+        Assert.assertEquals("line 1\nline 2", result.getAsJsonArray("sections").get(0).getAsJsonObject()
+                .getAsJsonArray("facts").get(0).getAsJsonObject().get("value").getAsString());
     }
 
     @Test